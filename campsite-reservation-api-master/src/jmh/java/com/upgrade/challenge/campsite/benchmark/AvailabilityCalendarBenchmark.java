@@ -0,0 +1,93 @@
+package com.upgrade.challenge.campsite.benchmark;
+
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendar;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityDto;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory availability calendar hot paths: sold-out checks, availability reads and lock-free claims contended by 1
+ * to N threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AvailabilityCalendarBenchmark {
+
+    /**
+     * SPARSE: no night booked. DENSE: every night booked but one site.
+     */
+    public enum Booking {
+        SPARSE, DENSE
+    }
+
+    @Param({"1", "10", "100"})
+    private int capacity;
+
+    @Param({"SPARSE", "DENSE"})
+    private Booking booking;
+
+    private AvailabilityCalendar calendar;
+    private LocalDate checkIn;
+    private LocalDate checkOut;
+    private LocalDate end;
+
+    @Setup
+    public void setUp() {
+        LocalDate today = LocalDate.now();
+
+        List<AvailabilityDto> availabilities = new ArrayList<>();
+        for (int i = 0; i < 365; i++) {
+            availabilities.add(new AvailabilityDto(today.plusDays(i), booking == Booking.DENSE ? 1 : capacity));
+        }
+
+        calendar = AvailabilityCalendar.of(availabilities);
+        checkIn = today.plusDays(1);
+        checkOut = checkIn.plusDays(3);
+        end = today.plusDays(30);
+    }
+
+    @Benchmark
+    public boolean isAvailable() {
+        return calendar.isAvailable(checkIn, checkOut);
+    }
+
+    @Benchmark
+    public List<AvailabilityDto> getAvailabilities() {
+        return calendar.getAvailabilities(checkIn, end);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean claimAndRelease() {
+        return this.tryClaimAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean claimAndReleaseContended() {
+        return this.tryClaimAndRelease();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean claimAndReleaseMaxContended() {
+        return this.tryClaimAndRelease();
+    }
+
+    private boolean tryClaimAndRelease() {
+        if (!calendar.tryClaim(checkIn, checkOut)) {
+            return false;
+        }
+
+        calendar.release(checkIn, checkOut);
+        return true;
+    }
+}
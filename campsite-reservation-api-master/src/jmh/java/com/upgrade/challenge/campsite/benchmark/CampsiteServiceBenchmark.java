@@ -0,0 +1,119 @@
+package com.upgrade.challenge.campsite.benchmark;
+
+import com.upgrade.challenge.campsite.Application;
+import com.upgrade.challenge.campsite.api.CampsiteDto;
+import com.upgrade.challenge.campsite.api.CampsiteService;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityDto;
+import com.upgrade.challenge.campsite.api.common.ApiResponse;
+import com.upgrade.challenge.campsite.api.common.exceptions.NotAvailableSiteException;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CampsiteService} reservation and availability paths against the in-memory H2 DB, on a Campsite of the given
+ * capacity, with reservations made (and cancelled) by 1 to N contending threads for the same nights.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CampsiteServiceBenchmark {
+
+    /**
+     * SPARSE: no night booked. DENSE: every night of the next month booked but one site.
+     */
+    public enum Booking {
+        SPARSE, DENSE
+    }
+
+    @Param({"10", "100"})
+    private int capacity;
+
+    @Param({"SPARSE", "DENSE"})
+    private Booking booking;
+
+    private ConfigurableApplicationContext context;
+    private CampsiteService campsiteService;
+    private UUID campsiteId;
+    private ReservationDto reservationDto;
+    private LocalDate start;
+    private LocalDate end;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.jpa.show-sql=false", "--logging.level.root=WARN",
+                        // Dense booking reserves the whole month at once
+                        "--api.campsite.reservation.max-days=30");
+
+        campsiteService = context.getBean(CampsiteService.class);
+        campsiteId = campsiteService.create(CampsiteDto.builder().name("Benchmark Campsite").capacity(capacity).build()).getData().getId();
+
+        start = LocalDate.now().plusDays(1);
+        end = start.plusDays(30);
+
+        if (booking == Booking.DENSE) {
+            for (int i = 1; i < capacity; i++) {
+                campsiteService.makeReservation(campsiteId, ReservationDto.builder().name("Jane Doe").email("jane.doe@test.com")
+                        .checkIn(start).checkOut(end).build());
+            }
+        }
+
+        reservationDto = ReservationDto.builder().name("John Doe").email("john.doe@test.com")
+                .checkIn(start).checkOut(start.plusDays(3)).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public ApiResponse<List<AvailabilityDto>> getAvailabilities() {
+        return campsiteService.getAvailabilities(campsiteId, start, end);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean makeAndCancelReservation() {
+        return this.tryMakeAndCancelReservation();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean makeAndCancelReservationContended() {
+        return this.tryMakeAndCancelReservation();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean makeAndCancelReservationMaxContended() {
+        return this.tryMakeAndCancelReservation();
+    }
+
+    /**
+     * Sold-out attempts are part of the measurement (they are the expected outcome under contention).
+     */
+    private boolean tryMakeAndCancelReservation() {
+        try {
+            UUID reservationId = campsiteService.makeReservation(campsiteId, reservationDto).getData().getId();
+            campsiteService.cancelReservation(campsiteId, reservationId);
+            return true;
+        }
+        catch (NotAvailableSiteException exception) {
+            return false;
+        }
+    }
+}
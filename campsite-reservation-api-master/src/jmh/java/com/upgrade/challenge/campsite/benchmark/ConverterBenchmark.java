@@ -0,0 +1,77 @@
+package com.upgrade.challenge.campsite.benchmark;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.upgrade.challenge.campsite.api.common.ApiResponse;
+import com.upgrade.challenge.campsite.api.reservation.Reservation;
+import com.upgrade.challenge.campsite.api.reservation.ReservationConverter;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservation conversion and JSON serialization of {@link ApiResponse} (Jackson configured as in
+ * application.properties).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConverterBenchmark {
+
+    @Param({"1", "100"})
+    private int reservationCount;
+
+    private final ReservationConverter reservationConverter = new ReservationConverter();
+
+    private ObjectMapper objectMapper;
+    private List<Reservation> reservations;
+    private ApiResponse<List<ReservationDto>> apiResponse;
+
+    @Setup
+    public void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .serializationInclusion(JsonInclude.Include.NON_NULL)
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        reservations = new ArrayList<>(reservationCount);
+        for (int i = 0; i < reservationCount; i++) {
+            Reservation reservation = Reservation.builder().name("John Doe").email("john.doe@test.com")
+                    .checkIn(tomorrow).checkOut(tomorrow.plusDays(3)).build();
+            reservation.setId(UUID.randomUUID());
+            reservation.setCreated(LocalDateTime.now());
+            reservations.add(reservation);
+        }
+
+        apiResponse = ApiResponse.<List<ReservationDto>>builder().message("OK").data(reservationConverter.toDtos(reservations)).build();
+    }
+
+    @Benchmark
+    public ReservationDto toDto() {
+        return reservationConverter.toDto(reservations.get(0));
+    }
+
+    @Benchmark
+    public List<ReservationDto> toDtos() {
+        return reservationConverter.toDtos(reservations);
+    }
+
+    @Benchmark
+    public byte[] serializeApiResponse() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(apiResponse);
+    }
+}
@@ -2,6 +2,7 @@ package com.upgrade.challenge.campsite.api;
 
 import com.upgrade.challenge.campsite.api.availability.Availability;
 import com.upgrade.challenge.campsite.api.common.BaseEntity;
+import com.upgrade.challenge.campsite.api.hold.Hold;
 import com.upgrade.challenge.campsite.api.reservation.Reservation;
 import lombok.*;
 
@@ -32,6 +33,10 @@ public class Campsite extends BaseEntity {
     @OneToMany(mappedBy = "campsite", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Reservation> reservations = new ArrayList<>();
 
+    @Builder.Default
+    @OneToMany(mappedBy = "campsite", cascade = CascadeType.ALL, orphanRemoval = true)
+    private List<Hold> holds = new ArrayList<>();
+
     public void addAvailability(Availability availability) {
         availabilities.add(availability);
         availability.setCampsite(this);
@@ -1,25 +1,40 @@
 package com.upgrade.challenge.campsite.api;
 
 import com.upgrade.challenge.campsite.api.availability.AvailabilityDto;
+import com.upgrade.challenge.campsite.api.availability.CampsiteAvailabilityDto;
+import com.upgrade.challenge.campsite.api.common.ApiErrorMessages;
 import com.upgrade.challenge.campsite.api.common.ApiResponse;
 import com.upgrade.challenge.campsite.api.common.ApiResponseEntity;
-import com.upgrade.challenge.campsite.api.common.exceptions.CheckInAfterCheckOutException;
-import com.upgrade.challenge.campsite.api.common.exceptions.MaxReservationDaysExceededException;
-import com.upgrade.challenge.campsite.api.common.exceptions.ReservationDaysAheadOutOfBoundsException;
-import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import com.upgrade.challenge.campsite.api.common.ConflictRetryTemplate;
+import com.upgrade.challenge.campsite.api.common.exceptions.*;
+import com.upgrade.challenge.campsite.api.hold.HoldDto;
+import com.upgrade.challenge.campsite.api.hold.HoldPromotionDto;
+import com.upgrade.challenge.campsite.api.idempotency.IdempotencyStore;
+import com.upgrade.challenge.campsite.api.reservation.*;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BeanPropertyBindingResult;
 import org.springframework.validation.annotation.Validated;
+import org.springframework.validation.beanvalidation.SpringValidatorAdapter;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
 import java.time.LocalDate;
-import java.util.List;
-import java.util.UUID;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static java.time.temporal.ChronoUnit.*;
 
@@ -28,33 +43,53 @@ import static java.time.temporal.ChronoUnit.*;
 @RequestMapping(path = "${api.base-path}/campsites", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
 public class CampsiteController {
 
-    @Value("${api.campsite.reservation.max-days}")
-    private Integer reservationMaxDays;
+    private static final String RESERVATIONS_EXPANSION = "reservations";
+    private static final String PREFER_HEADER = "Prefer";
+    private static final String PREFERENCE_APPLIED_HEADER = "Preference-Applied";
+    private static final String RESPOND_ASYNC_PREFERENCE = "respond-async";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
-    @Value("${api.campsite.reservation.min-days-ahead}")
-    private Integer reservationMinDaysAhead;
+    @Value("${api.campsite.reservation.bulk.max-size}")
+    private Integer reservationBulkMaxSize;
 
-    @Value("${api.campsite.reservation.max-days-ahead}")
-    private Integer reservationMaxDaysAhead;
+    @Value("${api.campsite.reservation.intake.max-wait}")
+    private Integer reservationIntakeMaxWait;
+
+    @Value("${api.campsite.hold.ttl}")
+    private Long holdTtl;
+
+    @Value("${api.campsite.hold.max-ttl}")
+    private Long holdMaxTtl;
 
     @Value("${api.campsite.availability.range-threshold}")
     private Integer availabilityRangeThreshold;
 
+    @Value("${api.campsite.availability.search.max-flex-days}")
+    private Integer availabilitySearchMaxFlexDays;
+
     private final CampsiteService campsiteService;
+    private final ConflictRetryTemplate conflictRetryTemplate;
+    private final ReservationIntake reservationIntake;
+    private final IdempotencyStore idempotencyStore;
+    private final ApiErrorMessages apiErrorMessages;
+    private final Validator validator;
 
     @PostMapping
     public ResponseEntity<ApiResponse<CampsiteDto>> create(@Validated(CampsiteDto.CreateValidation.class) @RequestBody CampsiteDto campsiteDto) {
         return ApiResponseEntity.<CampsiteDto>builder().created(campsiteService.create(campsiteDto)).build();
     }
 
+    /**
+     * Reservations are only returned if requested ('expand=reservations').
+     */
     @GetMapping
-    public ResponseEntity<ApiResponse<List<CampsiteDto>>> getAll(Pageable pageable) {
-        return ApiResponseEntity.<List<CampsiteDto>>builder().ok(campsiteService.getAll(pageable)).build();
+    public ResponseEntity<ApiResponse<List<CampsiteDto>>> getAll(Pageable pageable, @RequestParam(defaultValue = "") List<String> expand) {
+        return ApiResponseEntity.<List<CampsiteDto>>builder().ok(campsiteService.getAll(pageable, expand.contains(RESERVATIONS_EXPANSION))).build();
     }
 
     @GetMapping(path = "/{id}")
-    public ResponseEntity<ApiResponse<CampsiteDto>> get(@PathVariable UUID id) {
-        return ApiResponseEntity.<CampsiteDto>builder().ok(campsiteService.get(id)).build();
+    public ResponseEntity<ApiResponse<CampsiteDto>> get(@PathVariable UUID id, @RequestParam(defaultValue = "") List<String> expand) {
+        return ApiResponseEntity.<CampsiteDto>builder().ok(campsiteService.get(id, expand.contains(RESERVATIONS_EXPANSION))).build();
     }
 
     @PutMapping(path = "/{id}")
@@ -67,10 +102,34 @@ public class CampsiteController {
         return ApiResponseEntity.<Void>builder().ok(campsiteService.delete(id)).build();
     }
 
+    /**
+     * Campsites with at least 'sites' (1) sites available for every night of the stay, on the given dates or shifted by
+     * up to 'flex' (0) days, max 'api.campsite.availability.search.max-flex-days' (3).
+     */
+    @GetMapping(path = "/availabilities")
+    public ResponseEntity<ApiResponse<List<CampsiteAvailabilityDto>>> searchAvailabilities(
+                @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkIn,
+                @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate checkOut,
+                @RequestParam(defaultValue = "1") Integer sites,
+                @RequestParam(defaultValue = "0") Integer flex,
+                Pageable pageable) {
+        return ApiResponseEntity.<List<CampsiteAvailabilityDto>>builder().ok(campsiteService.searchAvailabilities(checkIn, checkOut,
+                Math.max(sites, 1), Math.min(Math.max(flex, 0), availabilitySearchMaxFlexDays), pageable)).build();
+    }
+
+    /**
+     * Rebuilds the availability read model, once the changes already committed are applied (202 Accepted).
+     */
+    @PostMapping(path = "/availabilities/rebuild")
+    public ResponseEntity<ApiResponse<Void>> rebuildAvailabilities() {
+        return ApiResponseEntity.<Void>builder().status(HttpStatus.ACCEPTED).body(campsiteService.rebuildAvailabilities()).build();
+    }
+
     @GetMapping(path = "/{id}/availabilities")
     public ResponseEntity<ApiResponse<List<AvailabilityDto>>> getAvailabilities(@PathVariable UUID id,
                 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
-                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+                WebRequest webRequest) {
         if (start == null) {
             start = LocalDate.now();
         }
@@ -80,32 +139,141 @@ public class CampsiteController {
             end = start.plusDays(availabilityRangeThreshold);
         }
 
+        // Sets the ETag header, and answers 304 (Not Modified) if it matches the If-None-Match header
+        if (webRequest.checkNotModified(campsiteService.getAvailabilitiesETag(id, start, end))) {
+            return null;
+        }
+
         return ApiResponseEntity.<List<AvailabilityDto>>builder().ok(campsiteService.getAvailabilities(id, start, end)).build();
     }
 
+    /**
+     * Reservations are made at most once per 'Idempotency-Key' header, if given (see {@link IdempotencyStore}): they are
+     * only validated once the key is looked up, so that retries are replayed the response of the first request even if
+     * no longer valid (e.g. made on the check-in date).
+     * Reservations are made asynchronously if requested ('Prefer: respond-async' header): once validated, they are
+     * queued (see {@link ReservationIntake}) and answered with 202 (Accepted), along with the URL of their outcome. Along
+     * with an 'Idempotency-Key' header, they are only queued once the key is stored.
+     */
     @PostMapping(path = "/{id}/reservations")
-    public ResponseEntity<ApiResponse<ReservationDto>> makeReservation(@PathVariable UUID id, @Valid @RequestBody ReservationDto reservationDto) {
-        if (reservationDto.getCheckIn().isAfter(reservationDto.getCheckOut())) {
-            throw new CheckInAfterCheckOutException(reservationDto.getCheckIn(), reservationDto.getCheckOut());
+    public ResponseEntity<?> makeReservation(@PathVariable UUID id, @RequestBody ReservationDto reservationDto,
+                                             @RequestHeader(name = PREFER_HEADER, required = false) String prefer,
+                                             @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Supplier<ResponseEntity<?>> reservation = () -> {
+            this.validate(reservationDto, "reservationDto");
+
+            if (prefer != null && prefer.contains(RESPOND_ASYNC_PREFERENCE)) {
+                campsiteService.validateReservation(reservationDto);
+                ReservationCommand command = reservationIntake.submit(id, reservationDto);
+
+                return ResponseEntity.accepted()
+                        .location(ServletUriComponentsBuilder.fromCurrentRequest().path("/commands/{commandId}").buildAndExpand(command.getId()).toUri())
+                        .header(PREFERENCE_APPLIED_HEADER, RESPOND_ASYNC_PREFERENCE)
+                        .body(ApiResponse.<ReservationCommandDto>builder().message(HttpStatus.ACCEPTED.getReasonPhrase()).data(command.toDto()).build());
+            }
+
+            return ApiResponseEntity.<ReservationDto>builder().created(campsiteService.makeReservation(id, reservationDto)).build();
+        };
+
+        // Retries (same 'Idempotency-Key' header) get the response of the first request instead of making it again
+        return idempotencyKey != null ? idempotencyStore.execute("makeReservation", id, idempotencyKey, reservationDto, reservation)
+                : conflictRetryTemplate.execute("makeReservation", reservation);
+    }
+
+    /**
+     * Returns the outcome of a reservation made asynchronously. If still pending, it can be waited for up to 'wait'
+     * seconds (long polling, max 'api.campsite.reservation.intake.max-wait'), without holding a request thread.
+     */
+    @GetMapping(path = "/{id}/reservations/commands/{commandId}")
+    public DeferredResult<ResponseEntity<ApiResponse<ReservationCommandDto>>> getReservationCommand(@PathVariable UUID id, @PathVariable UUID commandId,
+                                                                                                   @RequestParam(defaultValue = "0") Integer wait) {
+        ReservationCommand command = reservationIntake.get(commandId).filter(found -> found.getCampsiteId().equals(id))
+                .orElseThrow(() -> new EntityNotFoundException(ReservationCommand.class, commandId));
+
+        Supplier<ResponseEntity<ApiResponse<ReservationCommandDto>>> outcome = () ->
+                ApiResponseEntity.<ReservationCommandDto>builder().ok(ApiResponse.<ReservationCommandDto>builder().data(command.toDto()).build()).build();
+
+        DeferredResult<ResponseEntity<ApiResponse<ReservationCommandDto>>> result =
+                new DeferredResult<>(TimeUnit.SECONDS.toMillis(Math.min(Math.max(wait, 0), reservationIntakeMaxWait)), outcome);
+        if (wait <= 0) {
+            result.setResult(outcome.get());
         }
+        else {
+            command.getCompletion().thenRun(() -> result.setResult(outcome.get()));
+        }
+
+        return result;
+    }
 
-        // The campsite can be reserved for max 'api.campsite.max-reservation-days' (3) day(s)
-        if (DAYS.between(reservationDto.getCheckIn(), reservationDto.getCheckOut()) > reservationMaxDays) {
-            throw new MaxReservationDaysExceededException(reservationMaxDays);
+    /**
+     * Reservations (max 'api.campsite.reservation.bulk.max-size', possibly for several campsites) are validated one by
+     * one as single ones, then made at once. Each of them gets its own result, in request order: created, failed (with
+     * the same errors a single reservation would fail with) or rolled back (all-or-nothing mode only). The request is
+     * answered with 201 (Created) if every reservation was made, 207 (Multi-Status) if only some of them were
+     * (best-effort mode) and 422 (Unprocessable Entity) if none.
+     */
+    @PostMapping(path = "/reservations/bulk")
+    public ResponseEntity<ApiResponse<List<BulkReservationResultDto>>> makeReservations(@Valid @RequestBody BulkReservationDto bulkReservationDto) {
+        List<BulkReservationItemDto> items = bulkReservationDto.getReservations();
+        if (items.size() > reservationBulkMaxSize) {
+            throw new MaxBulkReservationsExceededException(reservationBulkMaxSize);
         }
+        boolean allOrNothing = bulkReservationDto.getMode() == BulkReservationDto.Mode.ALL_OR_NOTHING;
 
-        long reservationDaysAhead = DAYS.between(LocalDate.now(), reservationDto.getCheckIn());
-        // The campsite can be reserved minimum 'api.campsite.reservation.min-days-ahead' (1) day(s) ahead of arrival and up to 'api.campsite.reservation.max-days-ahead' (30) day(s) in advance
-        if (reservationDaysAhead < reservationMinDaysAhead || reservationDaysAhead > reservationMaxDaysAhead) {
-            throw new ReservationDaysAheadOutOfBoundsException(reservationMinDaysAhead, reservationMaxDaysAhead);
+        SortedMap<Integer, BulkReservationItemDto> indexedItems = new TreeMap<>();
+        for (int index = 0; index < items.size(); index++) {
+            indexedItems.put(index, items.get(index));
         }
 
-        return ApiResponseEntity.<ReservationDto>builder().created(campsiteService.makeReservation(id, reservationDto)).build();
+        List<BulkReservationResultDto> results = conflictRetryTemplate.execute("makeReservations",
+                () -> campsiteService.makeReservations(indexedItems, allOrNothing));
+        results.stream().filter(result -> result.getException() != null)
+                .forEach(result -> result.setErrors(apiErrorMessages.resolve(result.getException())));
+
+        long created = results.stream().filter(result -> result.getStatus() == BulkReservationResultDto.Status.CREATED).count();
+        HttpStatus status = created == results.size() ? HttpStatus.CREATED : created > 0 ? HttpStatus.MULTI_STATUS : HttpStatus.UNPROCESSABLE_ENTITY;
+
+        return ApiResponseEntity.<List<BulkReservationResultDto>>builder().status(status)
+                .body(ApiResponse.<List<BulkReservationResultDto>>builder().data(results).build()).build();
     }
 
+    /**
+     * Reservations are paginated by cursor: the next page is requested with the 'nextCursor' of the current one (none
+     * on the last page). Only the page size applies (page and sort are ignored).
+     */
     @GetMapping(path = "/{id}/reservations")
-    public ResponseEntity<ApiResponse<List<ReservationDto>>> getAllReservations(@PathVariable UUID id, Pageable pageable) {
-        return ApiResponseEntity.<List<ReservationDto>>builder().ok(campsiteService.getAllReservations(id, pageable)).build();
+    public ResponseEntity<ApiResponse<List<ReservationDto>>> getAllReservations(@PathVariable UUID id, @RequestParam(required = false) String cursor,
+                                                                                Pageable pageable) {
+        return ApiResponseEntity.<List<ReservationDto>>builder().ok(campsiteService.getAllReservations(id, cursor, pageable.getPageSize())).build();
+    }
+
+    /**
+     * Reservations are exported as NDJSON (one JSON reservation per line) in a single response, streamed as they are
+     * read. They can be filtered by stay (at least one night between start and end, end being exclusive).
+     */
+    @GetMapping(path = "/{id}/reservations/export", produces = ApiResponseEntity.APPLICATION_NDJSON_VALUE)
+    public void exportReservations(@PathVariable UUID id,
+                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end,
+                HttpServletResponse response) throws IOException {
+        response.setContentType(ApiResponseEntity.APPLICATION_NDJSON_VALUE);
+        campsiteService.exportReservations(id, start, end, response.getOutputStream());
+    }
+
+    @GetMapping(path = "/{id}/occupancy")
+    public ResponseEntity<ApiResponse<OccupancyDto>> getOccupancy(@PathVariable UUID id,
+                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+        if (start == null) {
+            start = LocalDate.now();
+        }
+
+        // Same range threshold as availabilities, though end is exclusive (nights between start and end)
+        if (end == null || DAYS.between(start, end) > availabilityRangeThreshold) {
+            end = start.plusDays(availabilityRangeThreshold);
+        }
+
+        return ApiResponseEntity.<OccupancyDto>builder().ok(campsiteService.getOccupancy(id, start, end)).build();
     }
 
     @GetMapping(path = "/{id}/reservations/{reservationId}")
@@ -115,15 +283,53 @@ public class CampsiteController {
 
     @PutMapping(path = "/{id}/reservations/{reservationId}")
     public ResponseEntity<ApiResponse<ReservationDto>> modifyReservation(@PathVariable UUID id, @PathVariable UUID reservationId, @Validated @RequestBody ReservationDto reservationDto) {
-        if (reservationDto.getCheckIn().isAfter(reservationDto.getCheckOut())) {
-            throw new CheckInAfterCheckOutException(reservationDto.getCheckIn(), reservationDto.getCheckOut());
-        }
-
-        return ApiResponseEntity.<ReservationDto>builder().ok(campsiteService.modifyReservation(id, reservationId, reservationDto)).build();
+        return ApiResponseEntity.<ReservationDto>builder().ok(conflictRetryTemplate.execute("modifyReservation",
+                () -> campsiteService.modifyReservation(id, reservationId, reservationDto))).build();
     }
 
     @DeleteMapping(path = "/{id}/reservations/{reservationId}")
     public ResponseEntity<ApiResponse<Void>> cancelReservation(@PathVariable UUID id, @PathVariable UUID reservationId) {
-        return ApiResponseEntity.<Void>builder().ok(campsiteService.cancelReservation(id, reservationId)).build();
+        return ApiResponseEntity.<Void>builder().ok(conflictRetryTemplate.execute("cancelReservation",
+                () -> campsiteService.cancelReservation(id, reservationId))).build();
+    }
+
+    @PostMapping(path = "/{id}/holds")
+    public ResponseEntity<ApiResponse<HoldDto>> makeHold(@PathVariable UUID id, @Valid @RequestBody HoldDto holdDto) {
+        // The hold lasts 'api.campsite.hold.ttl' (600) second(s) unless given, and max 'api.campsite.hold.max-ttl' (1800) second(s)
+        long ttl = Math.min(Optional.ofNullable(holdDto.getTtl()).orElse(holdTtl), holdMaxTtl);
+
+        return ApiResponseEntity.<HoldDto>builder().created(conflictRetryTemplate.execute("makeHold",
+                () -> campsiteService.makeHold(id, holdDto.getCheckIn(), holdDto.getCheckOut(), LocalDateTime.now().plusSeconds(ttl)))).build();
+    }
+
+    @GetMapping(path = "/{id}/holds/{holdId}")
+    public ResponseEntity<ApiResponse<HoldDto>> getHold(@PathVariable UUID id, @PathVariable UUID holdId) {
+        return ApiResponseEntity.<HoldDto>builder().ok(campsiteService.getHold(id, holdId)).build();
+    }
+
+    @DeleteMapping(path = "/{id}/holds/{holdId}")
+    public ResponseEntity<ApiResponse<Void>> releaseHold(@PathVariable UUID id, @PathVariable UUID holdId) {
+        return ApiResponseEntity.<Void>builder().ok(conflictRetryTemplate.execute("releaseHold",
+                () -> campsiteService.releaseHold(id, holdId))).build();
+    }
+
+    @PostMapping(path = "/{id}/holds/{holdId}/reservation")
+    public ResponseEntity<ApiResponse<ReservationDto>> promoteHold(@PathVariable UUID id, @PathVariable UUID holdId, @Valid @RequestBody HoldPromotionDto holdPromotionDto) {
+        return ApiResponseEntity.<ReservationDto>builder().created(conflictRetryTemplate.execute("promoteHold",
+                () -> campsiteService.promoteHold(id, holdId, holdPromotionDto))).build();
+    }
+
+    /**
+     * Validates the given request body as @Valid would on binding, for bodies to be validated later on.
+     *
+     * @throws InvalidRequestException If not valid.
+     */
+    private void validate(Object target, String objectName) {
+        BeanPropertyBindingResult bindingResult = new BeanPropertyBindingResult(target, objectName);
+        new SpringValidatorAdapter(validator).validate(target, bindingResult);
+
+        if (bindingResult.hasErrors()) {
+            throw new InvalidRequestException(bindingResult);
+        }
     }
 }
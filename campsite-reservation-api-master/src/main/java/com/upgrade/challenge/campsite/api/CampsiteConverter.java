@@ -27,15 +27,39 @@ public class CampsiteConverter implements Converter<CampsiteDto, Campsite> {
         return entity;
     }
 
+    /**
+     * Reservations are left out, so that they are not loaded (see {@link #toDto(Campsite, boolean)}).
+     */
     @Override
     public CampsiteDto toDto(Campsite entity) {
-        return CampsiteDto.builder()
+        return this.toDto(entity, false);
+    }
+
+    public CampsiteDto toDto(Campsite entity, boolean withReservations) {
+        CampsiteDto dto = CampsiteDto.builder()
                 .id(entity.getId())
                 .created(entity.getCreated())
                 .updated(entity.getUpdated())
                 .name(entity.getName())
                 .capacity(entity.getCapacity())
-                .reservations(reservationConverter.toDtos(entity.getReservations()))
+                .build();
+
+        if (withReservations) {
+            dto.setReservations(reservationConverter.toDtos(entity.getReservations()));
+            dto.setReservationCount((long) entity.getReservations().size());
+        }
+
+        return dto;
+    }
+
+    public CampsiteDto toDto(CampsiteSummary summary) {
+        return CampsiteDto.builder()
+                .id(summary.getId())
+                .created(summary.getCreated())
+                .updated(summary.getUpdated())
+                .name(summary.getName())
+                .capacity(summary.getCapacity())
+                .reservationCount(summary.getReservationCount())
                 .build();
     }
 }
@@ -1,6 +1,6 @@
 package com.upgrade.challenge.campsite.api;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
 import lombok.*;
 
@@ -33,7 +33,13 @@ public class CampsiteDto {
     @Positive(groups = CreateValidation.class)
     private Integer capacity;
 
-    @JsonIgnore
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long reservationCount;
+
+    /**
+     * Only set when explicitly requested.
+     */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
     private List<ReservationDto> reservations;
 
 
@@ -1,11 +1,37 @@
 package com.upgrade.challenge.campsite.api;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface CampsiteRepository extends JpaRepository<Campsite, UUID> {
 
+    @Query(value = "select c.id from Campsite c")
+    List<UUID> findAllIds();
+
+    @Query(value = "select c.id as id, c.created as created, c.updated as updated, c.name as name, c.capacity as capacity, " +
+            "count(r) as reservationCount from Campsite c left join c.reservations r group by c.id, c.created, c.updated, c.name, c.capacity",
+            countQuery = "select count(c) from Campsite c")
+    Page<CampsiteSummary> findAllSummaries(Pageable pageable);
+
+    @Query(value = "select c.id as id, c.created as created, c.updated as updated, c.name as name, c.capacity as capacity, " +
+            "count(r) as reservationCount from Campsite c left join c.reservations r where c.id = :id group by c.id, c.created, c.updated, c.name, c.capacity")
+    Optional<CampsiteSummary> findSummaryById(@Param("id") UUID id);
+
+    /**
+     * Loads the given Campsites along with their reservations in a single query.
+     */
+    @EntityGraph(attributePaths = "reservations")
+    @Query(value = "select c from Campsite c where c.id in :ids")
+    List<Campsite> findAllWithReservationsByIdIn(@Param("ids") Collection<UUID> ids);
 }
@@ -1,28 +1,47 @@
 package com.upgrade.challenge.campsite.api;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.upgrade.challenge.campsite.api.availability.Availability;
-import com.upgrade.challenge.campsite.api.availability.AvailabilityConverter;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendar;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendarRegistry;
 import com.upgrade.challenge.campsite.api.availability.AvailabilityDto;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityInitializer;
 import com.upgrade.challenge.campsite.api.availability.AvailabilityRepository;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityView;
+import com.upgrade.challenge.campsite.api.availability.CommitSequence;
+import com.upgrade.challenge.campsite.api.availability.CampsiteAvailabilityDto;
 import com.upgrade.challenge.campsite.api.common.ApiResponse;
-import com.upgrade.challenge.campsite.api.common.exceptions.EntityNotFoundException;
-import com.upgrade.challenge.campsite.api.common.exceptions.NotAvailableSiteException;
-import com.upgrade.challenge.campsite.api.reservation.Reservation;
-import com.upgrade.challenge.campsite.api.reservation.ReservationConverter;
-import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
-import com.upgrade.challenge.campsite.api.reservation.ReservationRepository;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import com.upgrade.challenge.campsite.api.common.exceptions.*;
+import com.upgrade.challenge.campsite.api.hold.*;
+import com.upgrade.challenge.campsite.api.journal.JournalRecord;
+import com.upgrade.challenge.campsite.api.reservation.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.apachecommons.CommonsLog;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
-import java.time.YearMonth;
-import java.util.List;
-import java.util.UUID;
-import java.util.stream.IntStream;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static java.time.temporal.ChronoUnit.DAYS;
 
 @CommonsLog
 @RequiredArgsConstructor
@@ -30,30 +49,76 @@ import java.util.stream.IntStream;
 @Service
 public class CampsiteService {
 
+    private static final SerializedString NDJSON_SEPARATOR = new SerializedString("\n");
+
+    @Value("${api.campsite.reservation.lock-free:false}")
+    private boolean reservationLockFree;
+
+    @Value("${api.campsite.reservation.max-days}")
+    private Integer reservationMaxDays;
+
+    @Value("${api.campsite.reservation.min-days-ahead}")
+    private Integer reservationMinDaysAhead;
+
+    @Value("${api.campsite.reservation.max-days-ahead}")
+    private Integer reservationMaxDaysAhead;
+
+    @Value("${api.campsite.reservation.bulk.batch-size}")
+    private Integer reservationBulkBatchSize;
+
     private final CampsiteRepository campsiteRepository;
     private final CampsiteConverter campsiteConverter;
     private final ReservationRepository reservationRepository;
     private final ReservationConverter reservationConverter;
     private final AvailabilityRepository availabilityRepository;
-    private final AvailabilityConverter availabilityConverter;
+    private final AvailabilityCalendarRegistry availabilityCalendarRegistry;
+    private final AvailabilityView availabilityView;
+    private final CommitSequence commitSequence;
+    private final AvailabilityInitializer availabilityInitializer;
+    private final ReservationIndex reservationIndex;
+    private final ReservationBatchWriter reservationBatchWriter;
+    private final HoldRepository holdRepository;
+    private final HoldExpiry holdExpiry;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final EntityManager entityManager;
+    private final ObjectMapper objectMapper;
 
     public ApiResponse<CampsiteDto> create(CampsiteDto campsiteDto) {
-        Campsite campsite = campsiteRepository.save(campsiteConverter.toEntity(campsiteDto));
+        Campsite campsite = campsiteRepository.saveAndFlush(campsiteConverter.toEntity(campsiteDto));
+
+        availabilityInitializer.initialize(campsite.getId(), campsite.getCapacity(), null);
 
-        this.initCampsiteAvailability(campsite);
+        applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.CAMPSITE_CREATED, campsite));
 
         return ApiResponse.<CampsiteDto>builder().data(campsiteConverter.toDto(campsite)).build();
     }
 
+    /**
+     * Campsites are listed along with their number of reservations in a single query. Reservations themselves are only
+     * returned if requested, and then loaded for the whole page in a single query as well.
+     */
     @Transactional(readOnly = true)
-    public ApiResponse<List<CampsiteDto>> getAll(Pageable pageable) {
-        return ApiResponse.<List<CampsiteDto>>builder().data(campsiteRepository.findAll(pageable).map(campsiteConverter::toDto).getContent()).build();
+    public ApiResponse<List<CampsiteDto>> getAll(Pageable pageable, boolean withReservations) {
+        List<CampsiteSummary> summaries = campsiteRepository.findAllSummaries(pageable).getContent();
+
+        if (!withReservations) {
+            return ApiResponse.<List<CampsiteDto>>builder().data(summaries.stream().map(campsiteConverter::toDto).collect(Collectors.toList())).build();
+        }
+
+        Map<UUID, Campsite> campsites = campsiteRepository.findAllWithReservationsByIdIn(summaries.stream().map(CampsiteSummary::getId)
+                .collect(Collectors.toList())).stream().collect(Collectors.toMap(Campsite::getId, Function.identity()));
+
+        return ApiResponse.<List<CampsiteDto>>builder().data(summaries.stream().map(summary -> campsites.get(summary.getId()))
+                .filter(Objects::nonNull).map(campsite -> campsiteConverter.toDto(campsite, true)).collect(Collectors.toList())).build();
     }
 
     @Transactional(readOnly = true)
-    public ApiResponse<CampsiteDto> get(UUID id) {
-        return ApiResponse.<CampsiteDto>builder().data(campsiteRepository.findById(id).map(campsiteConverter::toDto)
-                .orElseThrow(() -> new EntityNotFoundException(Campsite.class, id))).build();
+    public ApiResponse<CampsiteDto> get(UUID id, boolean withReservations) {
+        Optional<CampsiteDto> campsiteDto = withReservations
+                ? campsiteRepository.findAllWithReservationsByIdIn(Collections.singleton(id)).stream().findFirst().map(campsite -> campsiteConverter.toDto(campsite, true))
+                : campsiteRepository.findSummaryById(id).map(campsiteConverter::toDto);
+
+        return ApiResponse.<CampsiteDto>builder().data(campsiteDto.orElseThrow(() -> new EntityNotFoundException(Campsite.class, id))).build();
     }
 
     /**
@@ -68,70 +133,382 @@ public class CampsiteService {
 
         campsiteConverter.toEntity(campsiteDto, campsite);
 
+        applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.CAMPSITE_UPDATED, campsite));
+
         return ApiResponse.<CampsiteDto>builder().data(campsiteConverter.toDto(campsite)).build();
     }
 
     public ApiResponse<Void> delete(UUID id) {
         campsiteRepository.deleteById(id);
+
+        applicationEventPublisher.publishEvent(JournalRecord.deleted(id));
+
+        Helper.afterCommit(() -> {
+            availabilityCalendarRegistry.remove(id);
+            availabilityView.remove(id);
+            reservationIndex.evict(id);
+        });
+
         return ApiResponse.<Void>builder().build();
     }
 
     /**
-     * Initializes a year's availability for each Campsite at server startup.
+     * Availabilities are read from the availability read model (see {@link AvailabilityView}), without any transaction.
      */
-    @Scheduled(fixedRateString = "P365D")
-    public void initAvailability() {
-        campsiteRepository.findAll().forEach(this::initCampsiteAvailability);
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public ApiResponse<List<AvailabilityDto>> getAvailabilities(UUID id, LocalDate start, LocalDate end) {
+        log.debug(String.format("Availability [start: %s, end: %s]", start, end));
+
+        List<AvailabilityDto> availabilityDtos = availabilityView.get(id).getAvailabilities(start, end);
+
+        return ApiResponse.<List<AvailabilityDto>>builder().data(availabilityDtos).build();
     }
 
     /**
-     * Initializes the availability for a Campsite. It sets Availability's sites to the Campsite capacity and determines
-     * the base date from which to initialize it.
+     * Searches the Campsites having at least the given sites available for every night of the stay, either on the
+     * given dates or shifted by up to the given flexible days (as long as the stay could be reserved, see
+     * {@link #validateReservation(ReservationDto)}).
+     * The calendars of all Campsites in the availability read model (see {@link AvailabilityView}) are scanned in parallel, keeping the best stay of each one, and matches
+     * are ranked: closest to the given dates first, then with more sites available. Only the names of the Campsites
+     * in the requested page are read from the DB.
      */
-    private void initCampsiteAvailability(Campsite campsite) {
-        List<Availability> availabilities = campsite.getAvailabilities();
+    @Transactional(readOnly = true)
+    public ApiResponse<List<CampsiteAvailabilityDto>> searchAvailabilities(LocalDate checkIn, LocalDate checkOut, int sites, int flexDays,
+                                                                           Pageable pageable) {
+        log.debug(String.format("Availability search [checkIn: %s, checkOut: %s, sites: %d, flexDays: %d]", checkIn, checkOut, sites, flexDays));
 
-        LocalDate baseDate;
-        if (availabilities.isEmpty()) {
-            baseDate = LocalDate.now();
+        if (!checkIn.isBefore(checkOut)) {
+            throw new CheckInAfterCheckOutException(checkIn, checkOut);
         }
-        // If already initialized and today is after the last availability date, then it initializes the availability from today
-        else {
-            baseDate = availabilities.get(availabilities.size() - 1).getDate();
-            if (LocalDate.now().isBefore(baseDate)) {
-                return;
-            }
+        if (DAYS.between(checkIn, checkOut) > reservationMaxDays) {
+            throw new MaxReservationDaysExceededException(reservationMaxDays);
         }
 
-        IntStream.range(0, YearMonth.from(baseDate).lengthOfYear())
-                .mapToObj(baseDate::plusDays)
-                .forEach(date -> campsite.addAvailability(Availability.builder().date(date).sites(campsite.getCapacity()).build()));
+        LocalDate today = LocalDate.now();
+        LocalDate earliestCheckIn = today.plusDays(reservationMinDaysAhead);
+        LocalDate latestCheckIn = today.plusDays(reservationMaxDaysAhead);
+
+        List<CampsiteAvailabilityDto> matches = availabilityView.getCampsiteIds().parallelStream()
+                .map(campsiteId -> this.findBestStay(campsiteId, checkIn, checkOut, sites, flexDays, earliestCheckIn, latestCheckIn))
+                .filter(Objects::nonNull)
+                .sorted(Comparator.<CampsiteAvailabilityDto>comparingLong(match -> Math.abs(DAYS.between(checkIn, match.getCheckIn())))
+                        .thenComparing(CampsiteAvailabilityDto::getSites, Comparator.reverseOrder())
+                        .thenComparing(CampsiteAvailabilityDto::getCampsiteId))
+                .skip(pageable.getOffset())
+                .limit(pageable.getPageSize())
+                .collect(Collectors.toList());
+
+        Map<UUID, String> names = campsiteRepository.findAllById(matches.stream().map(CampsiteAvailabilityDto::getCampsiteId)
+                .collect(Collectors.toList())).stream().collect(Collectors.toMap(Campsite::getId, Campsite::getName));
+        matches.forEach(match -> match.setName(names.get(match.getCampsiteId())));
+
+        return ApiResponse.<List<CampsiteAvailabilityDto>>builder().data(matches).build();
     }
 
-    @Transactional(readOnly = true)
-    public ApiResponse<List<AvailabilityDto>> getAvailabilities(UUID id, LocalDate start, LocalDate end) {
-        log.debug(String.format("Availability [start: %s, end: %s]", start, end));
+    /**
+     * Rebuilds the availability read model from the availabilities table, asynchronously (see
+     * {@link AvailabilityView#rebuild()}).
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public ApiResponse<Void> rebuildAvailabilities() {
+        availabilityView.rebuild();
 
-        List<AvailabilityDto> availabilityDtos = availabilityRepository.findAllProjectedByCampsiteIdAndDateBetween(id, start, end);
+        return ApiResponse.<Void>builder().build();
+    }
 
-        return ApiResponse.<List<AvailabilityDto>>builder().data(availabilityDtos).build();
+    /**
+     * Checks that the stay of the given reservation can be reserved, without making it (e.g. before queueing it to be
+     * made asynchronously):
+     * <ul>
+     * <li>Check-in before check-out.</li>
+     * <li>For max 'api.campsite.reservation.max-days' (3) day(s).</li>
+     * <li>Minimum 'api.campsite.reservation.min-days-ahead' (1) day(s) ahead of arrival and up to
+     * 'api.campsite.reservation.max-days-ahead' (30) day(s) in advance.</li>
+     * </ul>
+     * Every reservation, hold and bulk reservation is checked as well when made.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public void validateReservation(ReservationDto reservationDto) {
+        this.validateStay(reservationDto.getCheckIn(), reservationDto.getCheckOut());
     }
 
+    /**
+     * Sites are taken for every night of the stay through a single conditional update of the availabilities. In
+     * lock-free mode ('api.campsite.reservation.lock-free') they are first claimed on the in-memory calendar through
+     * atomic compare-and-set, so that reservations racing for the same dates succeed or fail fast in memory. The nights
+     * claimed in memory are given back if the transaction rolls back, and claimed again once committed if the calendar
+     * was loaded meanwhile without them (see {@link AvailabilityCalendarRegistry#apply(UUID, java.util.function.Consumer)}).
+     */
     public ApiResponse<ReservationDto> makeReservation(UUID id, ReservationDto reservationDto) {
-        List<Availability> newAvailabilities = this.checkAvailabilities(id, reservationDto.getCheckIn(), reservationDto.getCheckOut());
+        this.validateReservation(reservationDto);
+
+        LocalDate checkIn = reservationDto.getCheckIn();
+        LocalDate checkOut = reservationDto.getCheckOut();
+
+        this.takeSites(id, checkIn, checkOut);
 
-        Reservation reservation = reservationRepository.save(reservationConverter.toEntity(reservationDto));
+        Reservation reservation = reservationConverter.toEntity(reservationDto);
+        reservation.setCampsite(campsiteRepository.getOne(id));
+        reservationRepository.saveAndFlush(reservation);
 
-        campsiteRepository.getOne(id).addReservation(reservation);
+        availabilityRepository.linkReservation(id, reservation.getId(), checkIn, checkOut);
 
-        newAvailabilities.forEach(availability -> availability.addReservation(reservation));
+        applicationEventPublisher.publishEvent(ReservationEvent.builder().type(ReservationEvent.Type.CREATED).campsiteId(id)
+                .reservationId(reservation.getId()).checkIn(checkIn).checkOut(checkOut).build());
+        applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.RESERVATION_CREATED, reservation));
 
         return ApiResponse.<ReservationDto>builder().data(reservationConverter.toDto(reservation)).build();
     }
 
+    /**
+     * Takes a site for every night of the stay, as a reservation would, until the hold expires (see
+     * {@link HoldExpiry}), unless promoted to a reservation or released before.
+     */
+    public ApiResponse<HoldDto> makeHold(UUID id, LocalDate checkIn, LocalDate checkOut, LocalDateTime expires) {
+        this.validateStay(checkIn, checkOut);
+
+        // Checked first, so that a missing Campsite is not reported as unavailable from a calendar still cached
+        if (!campsiteRepository.existsById(id)) {
+            throw new EntityNotFoundException(Campsite.class, id);
+        }
+
+        this.takeSites(id, checkIn, checkOut);
+
+        Hold hold = holdRepository.save(Hold.builder().campsiteId(id).checkIn(checkIn).checkOut(checkOut).expires(expires).build());
+
+        Helper.afterCommit(() -> holdExpiry.schedule(hold));
+
+        applicationEventPublisher.publishEvent(this.toEvent(HoldEvent.Type.HELD, hold));
+
+        return ApiResponse.<HoldDto>builder().data(this.toDto(hold)).build();
+    }
+
     @Transactional(readOnly = true)
-    public ApiResponse<List<ReservationDto>> getAllReservations(UUID id, Pageable pageable) {
-        return ApiResponse.<List<ReservationDto>>builder().data(reservationConverter.toDtos(reservationRepository.findAllByCampsiteId(id, pageable).getContent())).build();
+    public ApiResponse<HoldDto> getHold(UUID id, UUID holdId) {
+        return ApiResponse.<HoldDto>builder().data(holdRepository.findOneByIdAndCampsiteIdAndExpiresAfter(holdId, id, LocalDateTime.now())
+                .map(this::toDto).orElseThrow(() -> new EntityNotFoundException(Hold.class, holdId))).build();
+    }
+
+    /**
+     * Makes a reservation out of the given hold, without checking nor taking availability again: the nights already
+     * taken by the hold are just linked to the reservation.
+     */
+    public ApiResponse<ReservationDto> promoteHold(UUID id, UUID holdId, HoldPromotionDto holdPromotionDto) {
+        commitSequence.track(id);
+
+        Hold hold = this.deleteHold(id, holdId);
+
+        Reservation reservation = Reservation.builder().name(holdPromotionDto.getName()).email(holdPromotionDto.getEmail())
+                .checkIn(hold.getCheckIn()).checkOut(hold.getCheckOut()).campsite(campsiteRepository.getOne(id)).build();
+        reservationRepository.saveAndFlush(reservation);
+
+        availabilityRepository.linkReservation(id, reservation.getId(), hold.getCheckIn(), hold.getCheckOut());
+
+        Helper.afterCommit(() -> holdExpiry.cancel(hold));
+
+        applicationEventPublisher.publishEvent(ReservationEvent.builder().type(ReservationEvent.Type.CREATED).campsiteId(id)
+                .reservationId(reservation.getId()).checkIn(hold.getCheckIn()).checkOut(hold.getCheckOut()).build());
+        applicationEventPublisher.publishEvent(this.toEvent(HoldEvent.Type.PROMOTED, hold));
+        applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.RESERVATION_CREATED, reservation));
+
+        return ApiResponse.<ReservationDto>builder().data(reservationConverter.toDto(reservation)).build();
+    }
+
+    public ApiResponse<Void> releaseHold(UUID id, UUID holdId) {
+        commitSequence.track(id);
+
+        Hold hold = this.deleteHold(id, holdId);
+
+        availabilityRepository.releaseSites(id, hold.getCheckIn(), hold.getCheckOut());
+
+        Helper.afterCommit(() -> {
+            availabilityCalendarRegistry.release(id, hold.getCheckIn(), hold.getCheckOut());
+            holdExpiry.cancel(hold);
+        });
+
+        applicationEventPublisher.publishEvent(this.toEvent(HoldEvent.Type.RELEASED, hold));
+
+        return ApiResponse.<Void>builder().build();
+    }
+
+    /**
+     * Makes many reservations (possibly for several Campsites) at once, in a single transaction. Each reservation is
+     * validated as a single one would be (see {@link #validateReservation(ReservationDto)}). The availabilities of
+     * each Campsite are loaded (and locked) once, for the range covering all of its reservations, and the sites of each
+     * reservation are taken from them in memory in request order. Only then are they written, through JDBC batches: one
+     * to take the sites, one to insert the reservations (of up to 'api.campsite.reservation.bulk.batch-size', set on the
+     * Hibernate session of this transaction only) and one to link them.
+     * <p>
+     * In all-or-nothing mode, a reservation that cannot be made fails the whole request, and nothing is written.
+     * Otherwise, only the reservations that can be made are. Either way, the in-memory calendars are updated once
+     * committed (even in lock-free mode, since sites are taken from the locked availabilities instead).
+     *
+     * @param items Reservations to be made, by their index in the request.
+     * @return Result of each reservation, in index order.
+     */
+    public List<BulkReservationResultDto> makeReservations(SortedMap<Integer, BulkReservationItemDto> items, boolean allOrNothing) {
+        Map<Integer, RuntimeException> validationExceptions = new HashMap<>();
+        items.forEach((index, item) -> {
+            try {
+                this.validateReservation(item.getReservation());
+            }
+            catch (RuntimeException exception) {
+                validationExceptions.put(index, exception);
+            }
+        });
+        if (allOrNothing && !validationExceptions.isEmpty()) {
+            // Rejected before reading (nor locking) anything
+            throw new BulkReservationException(items.entrySet().stream().map(entry -> BulkReservationResultDto.builder().index(entry.getKey())
+                    .campsiteId(entry.getValue().getCampsiteId()).exception(validationExceptions.get(entry.getKey()))
+                    .status(validationExceptions.containsKey(entry.getKey()) ? BulkReservationResultDto.Status.FAILED
+                            : BulkReservationResultDto.Status.ROLLED_BACK).build()).collect(Collectors.toList()));
+        }
+
+        Set<UUID> campsiteIds = campsiteRepository.findAllById(items.values().stream().map(BulkReservationItemDto::getCampsiteId)
+                .collect(Collectors.toSet())).stream().map(Campsite::getId).collect(Collectors.toSet());
+
+        // Availabilities are locked Campsite by Campsite in ID order, so that concurrent bulk requests cannot deadlock
+        Map<UUID, Map<LocalDate, Integer>> sites = new HashMap<>();
+        items.entrySet().stream().filter(entry -> !validationExceptions.containsKey(entry.getKey())).map(Map.Entry::getValue)
+                .filter(item -> campsiteIds.contains(item.getCampsiteId()))
+                .collect(Collectors.groupingBy(BulkReservationItemDto::getCampsiteId, TreeMap::new, Collectors.toList()))
+                .forEach((campsiteId, campsiteItems) -> {
+                    commitSequence.track(campsiteId);
+
+                    LocalDate start = campsiteItems.stream().map(item -> item.getReservation().getCheckIn()).min(Comparator.naturalOrder()).get();
+                    LocalDate end = campsiteItems.stream().map(item -> item.getReservation().getCheckOut()).max(Comparator.naturalOrder()).get();
+
+                    sites.put(campsiteId, availabilityRepository.findAllForUpdateByCampsiteIdAndDateBetween(campsiteId, start, end).stream()
+                            .collect(Collectors.toMap(Availability::getDate, Availability::getSites)));
+                });
+
+        List<BulkReservationResultDto> results = new ArrayList<>();
+        List<BulkReservationResultDto> acceptedResults = new ArrayList<>();
+        List<Reservation> reservations = new ArrayList<>();
+        items.forEach((index, item) -> {
+            BulkReservationResultDto result = BulkReservationResultDto.builder().index(index).campsiteId(item.getCampsiteId())
+                    .status(BulkReservationResultDto.Status.FAILED).build();
+            results.add(result);
+
+            if (validationExceptions.containsKey(index)) {
+                result.setException(validationExceptions.get(index));
+                return;
+            }
+            if (!campsiteIds.contains(item.getCampsiteId())) {
+                result.setException(new EntityNotFoundException(Campsite.class, item.getCampsiteId()));
+                return;
+            }
+
+            LocalDate checkIn = item.getReservation().getCheckIn();
+            List<LocalDate> nights = LongStream.range(0, DAYS.between(checkIn, item.getReservation().getCheckOut()))
+                    .mapToObj(checkIn::plusDays).collect(Collectors.toList());
+
+            Map<LocalDate, Integer> campsiteSites = sites.get(item.getCampsiteId());
+            if (nights.stream().anyMatch(night -> campsiteSites.getOrDefault(night, 0) <= 0)) {
+                result.setException(new NotAvailableSiteException(nights.stream().filter(campsiteSites::containsKey)
+                        .map(night -> new AvailabilityDto(night, campsiteSites.get(night))).collect(Collectors.toList())));
+                return;
+            }
+            nights.forEach(night -> campsiteSites.merge(night, -1, Integer::sum));
+
+            Reservation reservation = reservationConverter.toEntity(item.getReservation());
+            reservation.setCampsite(campsiteRepository.getOne(item.getCampsiteId()));
+            reservations.add(reservation);
+            acceptedResults.add(result);
+        });
+
+        if (allOrNothing && acceptedResults.size() < results.size()) {
+            acceptedResults.forEach(result -> result.setStatus(BulkReservationResultDto.Status.ROLLED_BACK));
+            throw new BulkReservationException(results);
+        }
+        if (reservations.isEmpty()) {
+            return results;
+        }
+
+        int[] nights = reservationBatchWriter.claimSites(reservations);
+        for (int i = 0; i < reservations.size(); i++) {
+            // Availabilities are locked, thus every night planned must have been taken
+            if (nights[i] != DAYS.between(reservations.get(i).getCheckIn(), reservations.get(i).getCheckOut())) {
+                throw new ConcurrencyFailureException(String.format("Sites of reservation %d not taken as planned", acceptedResults.get(i).getIndex()));
+            }
+        }
+
+        // Inserted through JDBC batches as well, for this transaction only
+        entityManager.unwrap(Session.class).setJdbcBatchSize(reservationBulkBatchSize);
+        reservationRepository.saveAll(reservations);
+        reservationRepository.flush();
+
+        reservationBatchWriter.linkReservations(reservations);
+
+        Helper.afterCommit(() -> reservations.forEach(reservation ->
+                availabilityCalendarRegistry.claim(reservation.getCampsite().getId(), reservation.getCheckIn(), reservation.getCheckOut())));
+
+        for (int i = 0; i < reservations.size(); i++) {
+            Reservation reservation = reservations.get(i);
+
+            acceptedResults.get(i).setStatus(BulkReservationResultDto.Status.CREATED);
+            acceptedResults.get(i).setReservation(reservationConverter.toDto(reservation));
+
+            applicationEventPublisher.publishEvent(ReservationEvent.builder().type(ReservationEvent.Type.CREATED)
+                    .campsiteId(reservation.getCampsite().getId()).reservationId(reservation.getId())
+                    .checkIn(reservation.getCheckIn()).checkOut(reservation.getCheckOut()).build());
+            applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.RESERVATION_CREATED, reservation));
+        }
+
+        return results;
+    }
+
+    /**
+     * Reservations are listed by cursor (keyset pagination): each page is sought right after the last reservation of
+     * the previous one (see {@link ReservationCursor}), so that every page costs the same. One more reservation than
+     * requested is read to find out whether there is a next page.
+     */
+    @Transactional(readOnly = true)
+    public ApiResponse<List<ReservationDto>> getAllReservations(UUID id, String cursor, int size) {
+        Pageable pageable = PageRequest.of(0, size + 1);
+
+        List<Reservation> reservations;
+        if (cursor == null) {
+            reservations = reservationRepository.findFirstByCampsiteId(id, pageable);
+        }
+        else {
+            ReservationCursor reservationCursor = ReservationCursor.decode(cursor);
+            reservations = reservationRepository.findNextByCampsiteId(id, reservationCursor.getCreated(), reservationCursor.getId(), pageable);
+        }
+
+        String nextCursor = null;
+        if (reservations.size() > size) {
+            reservations = reservations.subList(0, size);
+            nextCursor = ReservationCursor.of(reservations.get(size - 1)).encode();
+        }
+
+        return ApiResponse.<List<ReservationDto>>builder().data(reservationConverter.toDtos(reservations)).nextCursor(nextCursor).build();
+    }
+
+    /**
+     * Exports the reservations of the given Campsite staying between start and end (if given) as NDJSON (one JSON
+     * reservation per line), written to the given output stream as they are read through a DB cursor. Each reservation
+     * is detached once written, so that the heap used does not grow with the number of reservations exported.
+     */
+    @Transactional(readOnly = true)
+    public void exportReservations(UUID id, LocalDate start, LocalDate end, OutputStream outputStream) throws IOException {
+        if (!campsiteRepository.existsById(id)) {
+            throw new EntityNotFoundException(Campsite.class, id);
+        }
+
+        try (Stream<Reservation> reservations = reservationRepository.streamAllByCampsiteId(id, start, end);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            // Root values are separated by a new line instead of the default space
+            generator.setRootValueSeparator(NDJSON_SEPARATOR);
+
+            for (Iterator<Reservation> iterator = reservations.iterator(); iterator.hasNext(); ) {
+                Reservation reservation = iterator.next();
+
+                generator.writeObject(reservationConverter.toDto(reservation));
+
+                entityManager.detach(reservation);
+            }
+        }
     }
 
     @Transactional(readOnly = true)
@@ -140,43 +517,228 @@ public class CampsiteService {
                 .orElseThrow(() -> new EntityNotFoundException(Reservation.class, reservationId))).build();
     }
 
+    /**
+     * Returns the entity tag of the availabilities between start and end, based on the version of the calendar in the
+     * availability read model. It is read without any transaction nor query, and before the
+     * availabilities themselves, so that they can only be newer than the tag.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String getAvailabilitiesETag(UUID id, LocalDate start, LocalDate end) {
+        return String.format("%s-%s-%s", availabilityView.get(id).getVersion(), start, end);
+    }
+
+    /**
+     * Looks up the reservations staying at least one night between start (inclusive) and end (exclusive) through the
+     * in-memory {@link ReservationIndex}, along with the max. number of them staying the same night.
+     */
+    @Transactional(readOnly = true)
+    public ApiResponse<OccupancyDto> getOccupancy(UUID id, LocalDate start, LocalDate end) {
+        ReservationIntervalTree tree = reservationIndex.get(id);
+
+        List<Reservation> reservations = reservationRepository.findAllById(tree.findOverlapping(start, end));
+        reservations.sort(Comparator.comparing(Reservation::getCheckIn));
+
+        return ApiResponse.<OccupancyDto>builder().data(OccupancyDto.builder().start(start).end(end)
+                .maxOccupancy(tree.getMaxOccupancy(start, end)).reservations(reservationConverter.toDtos(reservations)).build()).build();
+    }
+
+    /**
+     * The nights of the current dates are given back and the ones of the new dates are taken, as in
+     * {@link #makeReservation(UUID, ReservationDto)}. In lock-free mode, only the nights not already held by the
+     * reservation are claimed in memory, and the ones no longer needed are given back once committed.
+     */
     public ApiResponse<ReservationDto> modifyReservation(UUID id, UUID reservationId, ReservationDto reservationDto) {
-        Reservation reservation = reservationRepository.findOneByIdAndCampsiteId(reservationId, id)
+        if (reservationDto.getCheckIn().isAfter(reservationDto.getCheckOut())) {
+            throw new CheckInAfterCheckOutException(reservationDto.getCheckIn(), reservationDto.getCheckOut());
+        }
+
+        Reservation reservation = reservationRepository.findOneForUpdateByIdAndCampsiteId(reservationId, id)
                 .orElseThrow(() -> new EntityNotFoundException(Reservation.class, reservationId));
 
-        if (!reservationDto.getCheckIn().isEqual(reservation.getCheckIn()) || !reservationDto.getCheckOut().isEqual(reservation.getCheckOut())) {
-            List<Availability> newAvailabilities = this.checkAvailabilities(id, reservationDto.getCheckIn(), reservationDto.getCheckOut());
+        LocalDate checkIn = reservation.getCheckIn();
+        LocalDate checkOut = reservation.getCheckOut();
+        LocalDate newCheckIn = reservationDto.getCheckIn();
+        LocalDate newCheckOut = reservationDto.getCheckOut();
+
+        if (!newCheckIn.isEqual(checkIn) || !newCheckOut.isEqual(checkOut)) {
+            AvailabilityCalendar calendar = availabilityCalendarRegistry.get(id);
+            commitSequence.track(id);
+            if (reservationLockFree && !calendar.isEmpty()) {
+                if (!calendar.tryClaim(newCheckIn, newCheckOut, checkIn, checkOut)) {
+                    throw new NotAvailableSiteException(calendar.getAvailabilities(newCheckIn, newCheckOut.minusDays(1)));
+                }
+                Helper.afterRollback(() -> calendar.release(newCheckIn, newCheckOut, checkIn, checkOut));
+                // The new nights are taken again if the calendar was loaded meanwhile, without them
+                Helper.afterCommit(() -> availabilityCalendarRegistry.apply(id, current -> {
+                    if (current == calendar) {
+                        current.release(checkIn, checkOut, newCheckIn, newCheckOut);
+                    }
+                    else {
+                        current.claim(newCheckIn, newCheckOut);
+                        current.release(checkIn, checkOut);
+                    }
+                }));
+            }
+            else {
+                Helper.afterCommit(() -> {
+                    availabilityCalendarRegistry.release(id, checkIn, checkOut);
+                    availabilityCalendarRegistry.claim(id, newCheckIn, newCheckOut);
+                });
+            }
+
+            availabilityRepository.unlinkReservation(reservationId);
+            availabilityRepository.releaseSites(id, checkIn, checkOut);
 
-            availabilityRepository.findAllByCampsiteIdAndDateBetween(id, reservation.getCheckIn(), reservation.getCheckOut())
-                    .forEach(availability -> availability.removeReservation(reservation));
+            this.claimAvailabilities(id, newCheckIn, newCheckOut);
 
-            newAvailabilities.forEach(availability -> availability.addReservation(reservation));
+            availabilityRepository.linkReservation(id, reservationId, newCheckIn, newCheckOut);
         }
 
         reservationRepository.save(reservationConverter.toEntity(reservationDto, reservation));
 
+        applicationEventPublisher.publishEvent(ReservationEvent.builder().type(ReservationEvent.Type.MODIFIED).campsiteId(id)
+                .reservationId(reservationId).checkIn(newCheckIn).checkOut(newCheckOut).previousCheckIn(checkIn).previousCheckOut(checkOut).build());
+        applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.RESERVATION_MODIFIED, reservation));
+
         return ApiResponse.<ReservationDto>builder().data(reservationConverter.toDto(reservation)).build();
     }
 
     public ApiResponse<Void> cancelReservation(UUID id, UUID reservationId) {
-        Reservation reservation = reservationRepository.findOneByIdAndCampsiteId(reservationId, id)
+        Reservation reservation = reservationRepository.findOneForUpdateByIdAndCampsiteId(reservationId, id)
                 .orElseThrow(() -> new EntityNotFoundException(Reservation.class, reservationId));
 
-        availabilityRepository.findAllByCampsiteIdAndDateBetween(id, reservation.getCheckIn(), reservation.getCheckOut())
-                .forEach(availability -> availability.removeReservation(reservation));
+        commitSequence.track(id);
+
+        availabilityRepository.unlinkReservation(reservationId);
+        availabilityRepository.releaseSites(id, reservation.getCheckIn(), reservation.getCheckOut());
+
+        reservationRepository.delete(reservation);
+
+        Helper.afterCommit(() -> availabilityCalendarRegistry.release(id, reservation.getCheckIn(), reservation.getCheckOut()));
 
-        reservation.getCampsite().removeReservation(reservation);
+        applicationEventPublisher.publishEvent(ReservationEvent.builder().type(ReservationEvent.Type.CANCELLED).campsiteId(id)
+                .reservationId(reservationId).checkIn(reservation.getCheckIn()).checkOut(reservation.getCheckOut()).build());
+        applicationEventPublisher.publishEvent(JournalRecord.of(JournalRecord.Type.RESERVATION_CANCELLED, reservation));
 
         return ApiResponse.<Void>builder().build();
     }
 
-    private List<Availability> checkAvailabilities(UUID id, LocalDate checkIn, LocalDate checkOut) {
-        List<Availability> availabilities = availabilityRepository.findAllByCampsiteIdAndDateBetween(id, checkIn, checkOut);
+    /**
+     * Returns the stay of the given Campsite closest to the given dates (the one with more sites available, if two are
+     * as close) having at least the given sites available for every night, if any. Only the read model is looked up,
+     * which never loads from the DB, so that the parallel scan runs entirely in memory.
+     */
+    private CampsiteAvailabilityDto findBestStay(UUID campsiteId, LocalDate checkIn, LocalDate checkOut, int sites, int flexDays,
+                                                 LocalDate earliestCheckIn, LocalDate latestCheckIn) {
+        AvailabilityCalendar calendar = availabilityView.get(campsiteId);
+
+        for (int distance = 0; distance <= flexDays; distance++) {
+            CampsiteAvailabilityDto bestStay = null;
+            for (int shift : distance == 0 ? new int[] { 0 } : new int[] { -distance, distance }) {
+                LocalDate shiftedCheckIn = checkIn.plusDays(shift);
+                if (shiftedCheckIn.isBefore(earliestCheckIn) || shiftedCheckIn.isAfter(latestCheckIn)) {
+                    continue;
+                }
+
+                LocalDate shiftedCheckOut = checkOut.plusDays(shift);
+                int availableSites = calendar.getMinSites(shiftedCheckIn, shiftedCheckOut);
+                if (availableSites >= sites && (bestStay == null || availableSites > bestStay.getSites())) {
+                    bestStay = CampsiteAvailabilityDto.builder().campsiteId(campsiteId).checkIn(shiftedCheckIn)
+                            .checkOut(shiftedCheckOut).sites(availableSites).build();
+                }
+            }
+
+            if (bestStay != null) {
+                return bestStay;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Deletes the given hold (not expired), unless already promoted, released or expired by a concurrent transaction.
+     */
+    private Hold deleteHold(UUID id, UUID holdId) {
+        Hold hold = holdRepository.findOneByIdAndCampsiteIdAndExpiresAfter(holdId, id, LocalDateTime.now())
+                .orElseThrow(() -> new EntityNotFoundException(Hold.class, holdId));
 
-        if (availabilities.stream().anyMatch(availability -> availability.getSites() == 0)) {
-            throw new NotAvailableSiteException(availabilityConverter.toDtos(availabilities));
+        if (holdRepository.deleteOneById(holdId) == 0) {
+            throw new EntityNotFoundException(Hold.class, holdId);
         }
 
-        return availabilities;
+        return hold;
+    }
+
+    private HoldEvent toEvent(HoldEvent.Type type, Hold hold) {
+        return HoldEvent.builder().type(type).campsiteId(hold.getCampsiteId()).holdId(hold.getId()).checkIn(hold.getCheckIn())
+                .checkOut(hold.getCheckOut()).build();
+    }
+
+    private HoldDto toDto(Hold hold) {
+        return HoldDto.builder().id(hold.getId()).checkIn(hold.getCheckIn()).checkOut(hold.getCheckOut()).expires(hold.getExpires()).build();
+    }
+
+    /**
+     * See {@link #validateReservation(ReservationDto)}.
+     */
+    private void validateStay(LocalDate checkIn, LocalDate checkOut) {
+        if (checkIn.isAfter(checkOut)) {
+            throw new CheckInAfterCheckOutException(checkIn, checkOut);
+        }
+
+        if (DAYS.between(checkIn, checkOut) > reservationMaxDays) {
+            throw new MaxReservationDaysExceededException(reservationMaxDays);
+        }
+
+        long reservationDaysAhead = DAYS.between(LocalDate.now(), checkIn);
+        if (reservationDaysAhead < reservationMinDaysAhead || reservationDaysAhead > reservationMaxDaysAhead) {
+            throw new ReservationDaysAheadOutOfBoundsException(reservationMinDaysAhead, reservationMaxDaysAhead);
+        }
+    }
+
+    /**
+     * Takes a site for every night between check-in (inclusive) and check-out (exclusive), both on the calendar and in
+     * the DB, as described in {@link #makeReservation(UUID, ReservationDto)}.
+     */
+    private void takeSites(UUID id, LocalDate checkIn, LocalDate checkOut) {
+        AvailabilityCalendar calendar = availabilityCalendarRegistry.get(id);
+        commitSequence.track(id);
+        if (reservationLockFree && !calendar.isEmpty()) {
+            if (!calendar.tryClaim(checkIn, checkOut)) {
+                throw new NotAvailableSiteException(calendar.getAvailabilities(checkIn, checkOut.minusDays(1)));
+            }
+            Helper.afterRollback(() -> calendar.release(checkIn, checkOut));
+            // Taken again if the calendar was loaded meanwhile, without them
+            Helper.afterCommit(() -> availabilityCalendarRegistry.apply(id, current -> {
+                if (current != calendar) {
+                    current.claim(checkIn, checkOut);
+                }
+            }));
+        }
+        else {
+            // Sold-out dates are rejected straight from the calendar, without hitting the DB
+            if (!calendar.isEmpty() && !calendar.isAvailable(checkIn, checkOut)) {
+                throw new NotAvailableSiteException(calendar.getAvailabilities(checkIn, checkOut.minusDays(1)));
+            }
+            Helper.afterCommit(() -> availabilityCalendarRegistry.claim(id, checkIn, checkOut));
+        }
+
+        this.claimAvailabilities(id, checkIn, checkOut);
+    }
+
+    /**
+     * Takes a site for every night between check-in (inclusive) and check-out (exclusive) in a single statement, which
+     * only updates the nights with available sites. Unless every night was updated, the reservation cannot be made and
+     * the exception thrown rolls back the nights already taken.
+     */
+    private void claimAvailabilities(UUID id, LocalDate checkIn, LocalDate checkOut) {
+        if (availabilityRepository.claimSites(id, checkIn, checkOut) != DAYS.between(checkIn, checkOut)) {
+            if (!campsiteRepository.existsById(id)) {
+                throw new EntityNotFoundException(Campsite.class, id);
+            }
+
+            throw new NotAvailableSiteException(availabilityCalendarRegistry.get(id).getAvailabilities(checkIn, checkOut.minusDays(1)));
+        }
     }
 }
@@ -0,0 +1,22 @@
+package com.upgrade.challenge.campsite.api;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Campsite along with its number of reservations, without loading them.
+ */
+public interface CampsiteSummary {
+
+    UUID getId();
+
+    LocalDateTime getCreated();
+
+    LocalDateTime getUpdated();
+
+    String getName();
+
+    Integer getCapacity();
+
+    Long getReservationCount();
+}
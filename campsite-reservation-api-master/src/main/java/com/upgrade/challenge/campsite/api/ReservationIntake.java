@@ -0,0 +1,151 @@
+package com.upgrade.challenge.campsite.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.upgrade.challenge.campsite.api.common.ApiErrorMessages;
+import com.upgrade.challenge.campsite.api.common.ConflictRetryTemplate;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import com.upgrade.challenge.campsite.api.common.exceptions.ReservationIntakeFullException;
+import com.upgrade.challenge.campsite.api.reservation.ReservationCommand;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Makes reservations asynchronously: reservations are queued as {@link ReservationCommand}s and applied by a fixed set
+ * of single-threaded workers ('api.campsite.reservation.intake.workers'), each Campsite always being handled by the
+ * same worker (by hash of its ID). Thus reservations of the same Campsite are applied one after the other, in the order
+ * they were queued, instead of contending for the same availabilities.
+ * <p>
+ * Each worker queues up to 'api.campsite.reservation.intake.queue-capacity' reservations, beyond which they are
+ * rejected. Outcomes are kept for 'api.campsite.reservation.intake.retention' minutes, and the reservations queued are
+ * exposed as the 'campsite.intake.pending' metric.
+ * <p>
+ * On shutdown, no more reservations are accepted, but the ones already queued (thus acknowledged) are still applied,
+ * for up to 'api.campsite.reservation.intake.shutdown-timeout' seconds.
+ */
+@CommonsLog
+@Component
+public class ReservationIntake {
+
+    private final List<ThreadPoolExecutor> workers;
+    private final Long shutdownTimeout;
+    private final Cache<UUID, ReservationCommand> commands;
+    private final CampsiteService campsiteService;
+    private final ConflictRetryTemplate conflictRetryTemplate;
+    private final ApiErrorMessages apiErrorMessages;
+
+    public ReservationIntake(@Value("${api.campsite.reservation.intake.workers}") Integer workers,
+                             @Value("${api.campsite.reservation.intake.queue-capacity}") Integer queueCapacity,
+                             @Value("${api.campsite.reservation.intake.retention}") Long retention,
+                             @Value("${api.campsite.reservation.intake.shutdown-timeout}") Long shutdownTimeout,
+                             CampsiteService campsiteService,
+                             ConflictRetryTemplate conflictRetryTemplate,
+                             ApiErrorMessages apiErrorMessages,
+                             MeterRegistry meterRegistry) {
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = IntStream.range(0, workers).mapToObj(worker -> new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> new Thread(runnable, "reservation-intake-" + threads.incrementAndGet())))
+                .collect(Collectors.toList());
+        this.shutdownTimeout = shutdownTimeout;
+        this.commands = Caffeine.newBuilder().expireAfterWrite(retention, TimeUnit.MINUTES).build();
+        this.campsiteService = campsiteService;
+        this.conflictRetryTemplate = conflictRetryTemplate;
+        this.apiErrorMessages = apiErrorMessages;
+
+        Gauge.builder("campsite.intake.pending", this.workers, executors -> executors.stream().mapToInt(executor -> executor.getQueue().size()).sum())
+                .description("Reservations queued to be made asynchronously")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the given reservation on the worker of its Campsite. Within a transaction (e.g. the one storing its
+     * idempotency key), it is only queued once committed, so that it is never made for a transaction rolled back or
+     * retried: if the worker's queue is full by then, the command fails instead, its acceptance being committed already.
+     *
+     * @throws ReservationIntakeFullException if the worker's queue is full (outside a transaction).
+     */
+    public ReservationCommand submit(UUID campsiteId, ReservationDto reservationDto) {
+        ReservationCommand command = new ReservationCommand(campsiteId, reservationDto);
+        commands.put(command.getId(), command);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.enqueue(command);
+            return command;
+        }
+
+        Helper.afterCommit(() -> {
+            try {
+                this.enqueue(command);
+            }
+            catch (ReservationIntakeFullException exception) {
+                log.warn(String.format("Reservation accepted but not queued [command: %s]", command.getId()));
+                commands.put(command.getId(), command);
+                command.fail(apiErrorMessages.resolve(exception));
+            }
+        });
+        Helper.afterRollback(() -> commands.invalidate(command.getId()));
+
+        return command;
+    }
+
+    public Optional<ReservationCommand> get(UUID commandId) {
+        return Optional.ofNullable(commands.getIfPresent(commandId));
+    }
+
+    /**
+     * Waits for the reservations already queued to be applied (up to the shutdown timeout), since they were already
+     * acknowledged. The ones still queued past the timeout are lost, and logged as such.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        workers.forEach(ExecutorService::shutdown);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(shutdownTimeout);
+        for (ThreadPoolExecutor worker : workers) {
+            if (!worker.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                log.error(String.format("Reservations not made before shutdown [pending: %d]", worker.shutdownNow().size()));
+            }
+        }
+    }
+
+    private void enqueue(ReservationCommand command) {
+        try {
+            workers.get(Math.floorMod(command.getCampsiteId().hashCode(), workers.size())).execute(() -> this.apply(command));
+        }
+        catch (RejectedExecutionException exception) {
+            commands.invalidate(command.getId());
+            throw new ReservationIntakeFullException();
+        }
+    }
+
+    private void apply(ReservationCommand command) {
+        try {
+            command.complete(conflictRetryTemplate.execute("makeReservation",
+                    () -> campsiteService.makeReservation(command.getCampsiteId(), command.getRequest())).getData());
+        }
+        catch (RuntimeException exception) {
+            log.debug(String.format("Reservation failed [command: %s, cause: %s]", command.getId(), exception.getClass().getSimpleName()));
+            command.fail(apiErrorMessages.resolve(exception));
+        }
+        catch (Throwable throwable) {
+            // Never leave a command pending (nor its pollers waiting) because of an unexpected error
+            log.error(String.format("Reservation failed [command: %s]", command.getId()), throwable);
+            command.fail(Collections.singletonList(String.valueOf(throwable.getMessage())));
+        }
+    }
+}
@@ -16,8 +16,12 @@ import java.util.Set;
 @AllArgsConstructor
 @EqualsAndHashCode(callSuper = true, onlyExplicitlyIncluded = true)
 @Entity
-@NamedNativeQuery(name = "Availability.findAllProjectedByCampsiteIdAndDateBetween", resultClass = AvailabilityDto.class, resultSetMapping = "AvailabilityDto",
-        query = "select a.date as date, a.sites as sites from availabilities a where a.campsite_id = :campsiteId and (a.date between :start and :end) order by a.date")
+@NamedNativeQueries({
+        @NamedNativeQuery(name = "Availability.findAllProjectedByCampsiteIdAndDateBetween", resultClass = AvailabilityDto.class, resultSetMapping = "AvailabilityDto",
+                query = "select a.date as date, a.sites as sites from availabilities a where a.campsite_id = :campsiteId and (a.date between :start and :end) order by a.date"),
+        @NamedNativeQuery(name = "Availability.findAllProjectedByCampsiteId", resultClass = AvailabilityDto.class, resultSetMapping = "AvailabilityDto",
+                query = "select a.date as date, a.sites as sites from availabilities a where a.campsite_id = :campsiteId order by a.date")
+})
 @SqlResultSetMapping(name = "AvailabilityDto",
         classes = @ConstructorResult(targetClass = AvailabilityDto.class, columns = {@ColumnResult(name = "date", type = LocalDate.class), @ColumnResult(name = "sites", type = Integer.class)}))
 @Table(name = "availabilities")
@@ -39,8 +43,8 @@ public class Availability extends BaseEntity {
     @Builder.Default
     @ManyToMany(cascade = CascadeType.PERSIST)
     @JoinTable(name = "reservations_availabilities",
-            joinColumns = @JoinColumn(name = "reservation_id"),
-            inverseJoinColumns = @JoinColumn(name = "availability_id"))
+            joinColumns = @JoinColumn(name = "availability_id"),
+            inverseJoinColumns = @JoinColumn(name = "reservation_id"))
     private Set<Reservation> reservations = new HashSet<>();
 
     public void addReservation(Reservation reservation) {
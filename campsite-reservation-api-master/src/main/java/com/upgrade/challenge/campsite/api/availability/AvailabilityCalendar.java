@@ -0,0 +1,281 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory availability of a Campsite. Available sites are kept in slots indexed by the epoch-day offset from the
+ * calendar's first date (see {@link AvailabilityStore}), so that availability reads and sold-out checks are plain scans.
+ * Dates without an Availability row are flagged as {@link #NO_AVAILABILITY}.
+ * <p>
+ * Sites are updated through atomic compare-and-set, so that concurrent reservations for the same nights can claim them
+ * without locking (see {@link #tryClaim(LocalDate, LocalDate)}).
+ * <p>
+ * Every calendar has a version (see {@link #getVersion()}), which changes once sites are updated, and the number of the
+ * last commit it was loaded with (see {@link CommitSequence}).
+ */
+public class AvailabilityCalendar {
+
+    private static final AtomicLong GENERATIONS = new AtomicLong(System.currentTimeMillis());
+
+    public static final AvailabilityCalendar EMPTY = new AvailabilityCalendar(LocalDate.now().toEpochDay(),
+            HeapAvailabilityStore.INSTANCE.allocate(null, 0, new int[0]), 0);
+
+    static final int NO_AVAILABILITY = Integer.MIN_VALUE;
+
+    private final long generation = GENERATIONS.incrementAndGet();
+    private final AtomicLong modifications = new AtomicLong();
+    private final long firstEpochDay;
+    private final AvailabilitySlots sites;
+    private final long sequence;
+
+    AvailabilityCalendar(long firstEpochDay, AvailabilitySlots sites, long sequence) {
+        this.firstEpochDay = firstEpochDay;
+        this.sites = sites;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Builds a calendar from the given availabilities, which are expected to be sorted by date, kept on the heap.
+     */
+    public static AvailabilityCalendar of(List<AvailabilityDto> availabilities) {
+        return AvailabilityCalendar.of(availabilities, HeapAvailabilityStore.INSTANCE, null, 0);
+    }
+
+    /**
+     * Builds a calendar of the given Campsite from the given availabilities, which are expected to be sorted by date,
+     * kept in the given store and including the commits numbered up to the given one.
+     */
+    public static AvailabilityCalendar of(List<AvailabilityDto> availabilities, AvailabilityStore store, UUID campsiteId, long sequence) {
+        if (availabilities.isEmpty()) {
+            return EMPTY;
+        }
+
+        LocalDate firstDate = availabilities.get(0).getDate();
+        long firstEpochDay = firstDate.toEpochDay();
+
+        int[] sites = new int[(int) (availabilities.get(availabilities.size() - 1).getDate().toEpochDay() - firstEpochDay + 1)];
+        Arrays.fill(sites, NO_AVAILABILITY);
+        availabilities.forEach(availability -> sites[(int) (availability.getDate().toEpochDay() - firstEpochDay)] = availability.getSites());
+
+        return new AvailabilityCalendar(firstEpochDay, store.allocate(campsiteId, firstEpochDay, sites), sequence);
+    }
+
+    public boolean isEmpty() {
+        return sites.length() == 0;
+    }
+
+    /**
+     * Checks whether the changes of the given commit are already included, i.e. committed before this calendar was
+     * loaded (see {@link CommitSequence}).
+     */
+    public boolean includes(long sequence) {
+        return sequence <= this.sequence;
+    }
+
+    /**
+     * Returns a version which is unique to this calendar (even across restarts) and changes after every update of its
+     * sites. Thus, reading the version before the availabilities never pairs a version with older availabilities.
+     */
+    public String getVersion() {
+        return generation + "." + modifications.get();
+    }
+
+    /**
+     * Checks whether there is at least one available site for every night between check-in (inclusive) and check-out
+     * (exclusive).
+     */
+    public boolean isAvailable(LocalDate checkIn, LocalDate checkOut) {
+        int from = this.indexOf(checkIn);
+        int to = this.indexOf(checkOut);
+
+        if (from >= to) {
+            return true;
+        }
+        if (from < 0 || to > sites.length()) {
+            return false;
+        }
+
+        for (int i = from; i < to; i++) {
+            if (sites.get(i) <= 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the fewest available sites over the nights between check-in (inclusive) and check-out (exclusive), or
+     * {@link #NO_AVAILABILITY} if any of them is outside of the calendar (or has no availability).
+     */
+    public int getMinSites(LocalDate checkIn, LocalDate checkOut) {
+        int from = this.indexOf(checkIn);
+        int to = this.indexOf(checkOut);
+
+        if (from >= to || from < 0 || to > sites.length()) {
+            return NO_AVAILABILITY;
+        }
+
+        int minSites = Integer.MAX_VALUE;
+        for (int i = from; i < to && minSites > 0; i++) {
+            minSites = Math.min(minSites, sites.get(i));
+        }
+
+        return minSites;
+    }
+
+    /**
+     * Returns the availabilities between start and end (both inclusive), skipping dates outside of the calendar.
+     */
+    public List<AvailabilityDto> getAvailabilities(LocalDate start, LocalDate end) {
+        int from = Math.max(this.indexOf(start), 0);
+        int to = Math.min(this.indexOf(end) + 1, sites.length());
+
+        if (from >= to) {
+            return Collections.emptyList();
+        }
+
+        List<AvailabilityDto> availabilities = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            int availableSites = sites.get(i);
+            if (availableSites != NO_AVAILABILITY) {
+                availabilities.add(new AvailabilityDto(LocalDate.ofEpochDay(firstEpochDay + i), availableSites));
+            }
+        }
+
+        return availabilities;
+    }
+
+    /**
+     * Returns the number of available sites summed over every night from the given date on (open inventory).
+     */
+    public long getOpenSites(LocalDate start) {
+        long openSites = 0;
+        for (int i = Math.max(this.indexOf(start), 0); i < sites.length(); i++) {
+            openSites += Math.max(sites.get(i), 0);
+        }
+
+        return openSites;
+    }
+
+    /**
+     * Takes a site for every night between check-in (inclusive) and check-out (exclusive), if all of them have at least
+     * one available site. Otherwise, the nights already taken are given back and no site is taken at all.
+     *
+     * @return Whether the sites were taken.
+     */
+    public boolean tryClaim(LocalDate checkIn, LocalDate checkOut) {
+        int from = this.indexOf(checkIn);
+        int to = this.indexOf(checkOut);
+
+        if (from >= to) {
+            return true;
+        }
+        if (from < 0 || to > sites.length()) {
+            return false;
+        }
+
+        for (int i = from; i < to; i++) {
+            if (!this.tryDecrement(i)) {
+                this.add(from, i, 1);
+                return false;
+            }
+        }
+
+        modifications.incrementAndGet();
+
+        return true;
+    }
+
+    /**
+     * Same as {@link #tryClaim(LocalDate, LocalDate)}, but skipping the nights already held between held check-in
+     * (inclusive) and held check-out (exclusive), e.g. when a reservation is moved to overlapping dates.
+     */
+    public boolean tryClaim(LocalDate checkIn, LocalDate checkOut, LocalDate heldCheckIn, LocalDate heldCheckOut) {
+        if (!heldCheckIn.isBefore(checkOut) || !heldCheckOut.isAfter(checkIn)) {
+            return this.tryClaim(checkIn, checkOut);
+        }
+
+        if (!this.tryClaim(checkIn, heldCheckIn)) {
+            return false;
+        }
+        if (!this.tryClaim(heldCheckOut, checkOut)) {
+            this.release(checkIn, heldCheckIn);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Takes a site for every night between check-in (inclusive) and check-out (exclusive), regardless of the available
+     * sites. Used to apply reservations already checked against the DB.
+     */
+    public void claim(LocalDate checkIn, LocalDate checkOut) {
+        this.add(checkIn, checkOut, -1);
+    }
+
+    /**
+     * Gives back a site for every night between check-in (inclusive) and check-out (exclusive).
+     */
+    public void release(LocalDate checkIn, LocalDate checkOut) {
+        this.add(checkIn, checkOut, 1);
+    }
+
+    /**
+     * Same as {@link #release(LocalDate, LocalDate)}, but keeping the nights between kept check-in (inclusive) and kept
+     * check-out (exclusive).
+     */
+    public void release(LocalDate checkIn, LocalDate checkOut, LocalDate keptCheckIn, LocalDate keptCheckOut) {
+        if (!keptCheckIn.isBefore(checkOut) || !keptCheckOut.isAfter(checkIn)) {
+            this.release(checkIn, checkOut);
+            return;
+        }
+
+        this.release(checkIn, keptCheckIn);
+        this.release(keptCheckOut, checkOut);
+    }
+
+    private boolean tryDecrement(int index) {
+        int availableSites;
+        do {
+            availableSites = sites.get(index);
+            if (availableSites <= 0) {
+                return false;
+            }
+        }
+        while (!sites.compareAndSet(index, availableSites, availableSites - 1));
+
+        return true;
+    }
+
+    private void add(LocalDate checkIn, LocalDate checkOut, int delta) {
+        this.add(Math.max(this.indexOf(checkIn), 0), Math.min(this.indexOf(checkOut), sites.length()), delta);
+    }
+
+    private void add(int from, int to, int delta) {
+        for (int i = from; i < to; i++) {
+            int availableSites;
+            do {
+                availableSites = sites.get(i);
+                if (availableSites == NO_AVAILABILITY) {
+                    break;
+                }
+            }
+            while (!sites.compareAndSet(i, availableSites, availableSites + delta));
+        }
+
+        modifications.incrementAndGet();
+    }
+
+    private int indexOf(LocalDate date) {
+        long index = date.toEpochDay() - firstEpochDay;
+        return (int) Math.max(Math.min(index, Integer.MAX_VALUE - 1), Integer.MIN_VALUE);
+    }
+}
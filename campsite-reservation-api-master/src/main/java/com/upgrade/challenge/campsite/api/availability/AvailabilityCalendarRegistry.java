@@ -0,0 +1,174 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.upgrade.challenge.campsite.api.CampsiteRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds the in-memory {@link AvailabilityCalendar} of the Campsites, in a read-through cache bounded in size
+ * ('api.campsite.availability.cache.max-size') and reloading calendars from the availabilities table once they are
+ * older than 'api.campsite.availability.cache.expire-after-write' minutes. Calendars are loaded at startup (or on
+ * first access) and, while cached, kept in step with the reservations made, modified and cancelled.
+ * <p>
+ * Changes are applied once committed, unless the calendar was loaded with them already: calendars are loaded and
+ * changes numbered through the {@link CommitSequence}. Changes committed while a calendar is being loaded wait for it to
+ * be cached, so that none of them is lost nor applied twice.
+ * <p>
+ * Cache hits, misses and evictions are exposed as 'cache.*' metrics (cache: availability.calendars), and the open
+ * inventory of every cached calendar as 'campsite.availability.open' (tagged by campsite).
+ */
+@CommonsLog
+@Component
+public class AvailabilityCalendarRegistry {
+
+    private static final String OPEN_INVENTORY_METRIC = "campsite.availability.open";
+
+    private final CampsiteRepository campsiteRepository;
+    private final CommitSequence commitSequence;
+    private final MeterRegistry meterRegistry;
+    private final long maxSize;
+    private final AvailabilityStore store;
+    private final LoadingCache<UUID, AvailabilityCalendar> calendars;
+
+    public AvailabilityCalendarRegistry(@Value("${api.campsite.availability.cache.max-size}") Long maxSize,
+                                        @Value("${api.campsite.availability.cache.expire-after-write}") Long expireAfterWrite,
+                                        CampsiteRepository campsiteRepository,
+                                        AvailabilityRepository availabilityRepository,
+                                        AvailabilityStoreFactory availabilityStoreFactory,
+                                        CommitSequence commitSequence,
+                                        MeterRegistry meterRegistry) {
+        this.campsiteRepository = campsiteRepository;
+        this.commitSequence = commitSequence;
+        this.meterRegistry = meterRegistry;
+        this.maxSize = maxSize;
+
+        this.store = availabilityStoreFactory.create("calendars");
+        // Campsites without availability are not cached (null), so that they are loaded again once initialized
+        this.calendars = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new ExpiryAfterLoad(TimeUnit.MINUTES.toNanos(expireAfterWrite)))
+                .recordStats()
+                .build(campsiteId -> {
+                    AvailabilityCalendar calendar = commitSequence.load(campsiteId, sequence ->
+                            AvailabilityCalendar.of(availabilityRepository.findAllProjectedByCampsiteId(campsiteId), store, campsiteId, sequence));
+                    if (calendar.isEmpty()) {
+                        return null;
+                    }
+
+                    Gauge.builder(OPEN_INVENTORY_METRIC, this, registry -> registry.getOpenSites(campsiteId))
+                            .description("Available site-nights from today on (while the calendar is cached)")
+                            .tag("campsite", campsiteId.toString())
+                            .register(meterRegistry);
+
+                    return calendar;
+                });
+
+        CaffeineCacheMetrics.monitor(meterRegistry, calendars, "availability.calendars");
+    }
+
+    public void load() {
+        campsiteRepository.findAllIds().stream().limit(maxSize).forEach(calendars::get);
+
+        log.debug(String.format("Availability calendars loaded [campsites: %d]", calendars.estimatedSize()));
+    }
+
+    /**
+     * Returns the calendar of the given Campsite, loading it if needed (empty if the Campsite has no availability).
+     * It is not loaded by a transaction tracking the Campsite, which would cache its changes before committed.
+     */
+    public AvailabilityCalendar get(UUID campsiteId) {
+        AvailabilityCalendar calendar = commitSequence.isTracked(campsiteId) ? calendars.getIfPresent(campsiteId) : calendars.get(campsiteId);
+        return calendar != null ? calendar : AvailabilityCalendar.EMPTY;
+    }
+
+    /**
+     * Takes a site for every night between check-in (inclusive) and check-out (exclusive) on the calendar of the given
+     * Campsite, see {@link #apply(UUID, Consumer)}.
+     */
+    public void claim(UUID campsiteId, LocalDate checkIn, LocalDate checkOut) {
+        this.apply(campsiteId, calendar -> calendar.claim(checkIn, checkOut));
+    }
+
+    public void release(UUID campsiteId, LocalDate checkIn, LocalDate checkOut) {
+        this.apply(campsiteId, calendar -> calendar.release(checkIn, checkOut));
+    }
+
+    /**
+     * Applies the given change, once committed by the current transaction, to the calendar of the given Campsite if
+     * cached and not loaded with it already (otherwise, it is loaded from the availabilities table already updated on
+     * next access). If the calendar is being loaded, the change is applied once it is cached.
+     */
+    public void apply(UUID campsiteId, Consumer<AvailabilityCalendar> change) {
+        long sequence = commitSequence.current();
+
+        calendars.asMap().computeIfPresent(campsiteId, (id, calendar) -> {
+            if (!calendar.includes(sequence)) {
+                change.accept(calendar);
+            }
+            return calendar;
+        });
+    }
+
+    /**
+     * Drops the calendar of the given Campsite, so that it is loaded again on next access.
+     */
+    public void evict(UUID campsiteId) {
+        calendars.invalidate(campsiteId);
+
+        Meter gauge = meterRegistry.find(OPEN_INVENTORY_METRIC).tag("campsite", campsiteId.toString()).gauge();
+        if (gauge != null) {
+            meterRegistry.remove(gauge);
+        }
+    }
+
+    /**
+     * Drops the calendar of the given deleted Campsite, along with the storage kept for it.
+     */
+    public void remove(UUID campsiteId) {
+        this.evict(campsiteId);
+        store.release(campsiteId);
+    }
+
+    private double getOpenSites(UUID campsiteId) {
+        AvailabilityCalendar calendar = calendars.asMap().get(campsiteId);
+        return calendar != null ? calendar.getOpenSites(LocalDate.now()) : Double.NaN;
+    }
+
+    /**
+     * Expires calendars once loaded for the given time, whatever the changes applied meanwhile.
+     */
+    @RequiredArgsConstructor
+    private static class ExpiryAfterLoad implements Expiry<UUID, AvailabilityCalendar> {
+
+        private final long expireAfterLoad;
+
+        @Override
+        public long expireAfterCreate(UUID campsiteId, AvailabilityCalendar calendar, long currentTime) {
+            return expireAfterLoad;
+        }
+
+        @Override
+        public long expireAfterUpdate(UUID campsiteId, AvailabilityCalendar calendar, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+
+        @Override
+        public long expireAfterRead(UUID campsiteId, AvailabilityCalendar calendar, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
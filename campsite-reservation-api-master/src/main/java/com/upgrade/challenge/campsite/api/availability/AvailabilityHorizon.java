@@ -0,0 +1,16 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Last date up to which a Campsite's availability is initialized (null if not initialized at all).
+ */
+public interface AvailabilityHorizon {
+
+    UUID getCampsiteId();
+
+    Integer getCapacity();
+
+    LocalDate getLastDate();
+}
@@ -0,0 +1,203 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import com.upgrade.challenge.campsite.api.common.Helper;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * Maintains the Campsites' availability as a rolling window, from today up to 'api.campsite.availability.horizon-days'
+ * ahead. It is run at startup and daily, so that only the nights reaching the horizon are appended and the nights older
+ * than 'api.campsite.availability.retention-days' are purged, both in small batches.
+ * <p>
+ * Availabilities are inserted through JDBC batches rather than one entity at a time, and Campsites are split into
+ * chunks, each of them initialized in its own transaction on a bounded pool of threads
+ * ('api.campsite.availability.init.threads', by default as many as available processors), shared by every run.
+ */
+@CommonsLog
+@Component
+public class AvailabilityInitializer {
+
+    private static final String INSERT_AVAILABILITY =
+            "insert into availabilities (id, created, updated, date, sites, version, campsite_id) values (?, ?, ?, ?, ?, 0, ?)";
+    private static final String SELECT_EXPIRED_AVAILABILITIES = "select id, campsite_id from availabilities where date < ? limit ?";
+    private static final String DELETE_RESERVATION_AVAILABILITY = "delete from reservations_availabilities where availability_id = ?";
+    private static final String DELETE_AVAILABILITY = "delete from availabilities where id = ?";
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final Integer horizonDays;
+    private final Integer retentionDays;
+    private final Integer chunkSize;
+    private final Integer batchSize;
+    private final Integer purgeBatchSize;
+    private final ThreadPoolExecutor executor;
+    private final AvailabilityRepository availabilityRepository;
+    private final AvailabilityCalendarRegistry availabilityCalendarRegistry;
+    private final AvailabilityView availabilityView;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public AvailabilityInitializer(@Value("${api.campsite.availability.horizon-days}") Integer horizonDays,
+                                   @Value("${api.campsite.availability.retention-days}") Integer retentionDays,
+                                   @Value("${api.campsite.availability.init.chunk-size}") Integer chunkSize,
+                                   @Value("${api.campsite.availability.init.batch-size}") Integer batchSize,
+                                   @Value("${api.campsite.availability.init.threads:0}") Integer threads,
+                                   @Value("${api.campsite.availability.purge.batch-size}") Integer purgeBatchSize,
+                                   AvailabilityRepository availabilityRepository,
+                                   AvailabilityCalendarRegistry availabilityCalendarRegistry,
+                                   AvailabilityView availabilityView,
+                                   JdbcTemplate jdbcTemplate,
+                                   TransactionTemplate transactionTemplate) {
+        this.horizonDays = horizonDays;
+        this.retentionDays = retentionDays;
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+        this.purgeBatchSize = purgeBatchSize;
+
+        // Created once and reused by every run, its threads ending once idle between runs
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_TIMEOUT, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "availability-init-" + threadCount.incrementAndGet()));
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.availabilityRepository = availabilityRepository;
+        this.availabilityCalendarRegistry = availabilityCalendarRegistry;
+        this.availabilityView = availabilityView;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Scheduled(cron = "${api.campsite.availability.maintenance-cron}")
+    public void maintain() {
+        this.initialize();
+        this.purge();
+    }
+
+    /**
+     * Initializes the availability for each Campsite up to the horizon.
+     */
+    public void initialize() {
+        List<AvailabilityHorizon> horizons = availabilityRepository.findAllHorizons();
+
+        List<List<AvailabilityHorizon>> chunks = IntStream.range(0, (horizons.size() + chunkSize - 1) / chunkSize)
+                .mapToObj(chunk -> horizons.subList(chunk * chunkSize, Math.min((chunk + 1) * chunkSize, horizons.size())))
+                .collect(Collectors.toList());
+
+        AtomicInteger initializedCampsites = new AtomicInteger();
+        AtomicInteger initializedNights = new AtomicInteger();
+
+        CompletableFuture.allOf(chunks.stream().map(chunk -> CompletableFuture.runAsync(() -> {
+            Integer nights = transactionTemplate.execute(status -> chunk.stream()
+                    .mapToInt(horizon -> this.initialize(horizon.getCampsiteId(), horizon.getCapacity(), horizon.getLastDate()))
+                    .sum());
+
+            initializedNights.addAndGet(nights);
+            log.info(String.format("Availability initialized [campsites: %d/%d, nights: %d]",
+                    initializedCampsites.addAndGet(chunk.size()), horizons.size(), initializedNights.get()));
+        }, executor)).toArray(CompletableFuture[]::new)).join();
+    }
+
+    /**
+     * Initializes the availability for a Campsite within the current transaction, from the day after the last initialized
+     * date (or today, if earlier) up to the horizon. It sets Availability's sites to the Campsite capacity.
+     *
+     * @param lastDate Last date the Campsite's availability is initialized up to, null if not initialized at all.
+     * @return Number of initialized nights.
+     */
+    public int initialize(UUID campsiteId, Integer capacity, LocalDate lastDate) {
+        LocalDate today = LocalDate.now();
+
+        LocalDate baseDate = lastDate != null && lastDate.isAfter(today.minusDays(1)) ? lastDate.plusDays(1) : today;
+        LocalDate horizonDate = today.plusDays(horizonDays);
+        if (!baseDate.isBefore(horizonDate)) {
+            return 0;
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<LocalDate> dates = IntStream.range(0, (int) DAYS.between(baseDate, horizonDate))
+                .mapToObj(baseDate::plusDays)
+                .collect(Collectors.toList());
+
+        jdbcTemplate.batchUpdate(INSERT_AVAILABILITY, dates, batchSize, (statement, date) -> {
+            statement.setBytes(1, Helper.toBytes(UUID.randomUUID()));
+            statement.setTimestamp(2, now);
+            statement.setTimestamp(3, now);
+            statement.setDate(4, Date.valueOf(date));
+            statement.setInt(5, capacity);
+            statement.setBytes(6, Helper.toBytes(campsiteId));
+        });
+
+        Helper.afterCommit(() -> {
+            availabilityCalendarRegistry.evict(campsiteId);
+            availabilityView.reload(campsiteId);
+        });
+
+        return dates.size();
+    }
+
+    /**
+     * Deletes the availabilities older than the retention period, in batches of 'api.campsite.availability.purge.batch-size'
+     * each one in its own transaction. The in-memory calendars of the Campsites purged are reloaded once committed, so
+     * that they no longer hold the nights deleted.
+     */
+    public void purge() {
+        LocalDate expiryDate = LocalDate.now().minusDays(retentionDays);
+
+        int purgedNights = 0;
+        int purgedBatch;
+        do {
+            purgedBatch = transactionTemplate.execute(status -> {
+                List<Map<String, Object>> expiredAvailabilities =
+                        jdbcTemplate.queryForList(SELECT_EXPIRED_AVAILABILITIES, Date.valueOf(expiryDate), purgeBatchSize);
+
+                List<Object[]> args = expiredAvailabilities.stream().map(availability -> new Object[]{availability.get("id")}).collect(Collectors.toList());
+                jdbcTemplate.batchUpdate(DELETE_RESERVATION_AVAILABILITY, args);
+                jdbcTemplate.batchUpdate(DELETE_AVAILABILITY, args);
+
+                Set<UUID> campsiteIds = expiredAvailabilities.stream().map(availability -> Helper.toUUID((byte[]) availability.get("campsite_id")))
+                        .collect(Collectors.toSet());
+                Helper.afterCommit(() -> campsiteIds.forEach(campsiteId -> {
+                    availabilityCalendarRegistry.evict(campsiteId);
+                    availabilityView.reload(campsiteId);
+                }));
+
+                return expiredAvailabilities.size();
+            });
+
+            purgedNights += purgedBatch;
+        }
+        while (purgedBatch == purgeBatchSize);
+
+        if (purgedNights > 0) {
+            log.info(String.format("Availability purged [before: %s, nights: %d]", expiryDate, purgedNights));
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package com.upgrade.challenge.campsite.api.availability;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.UUID;
@@ -17,6 +20,48 @@ public interface AvailabilityRepository extends JpaRepository<Availability, UUID
     @Query(value = "select * from availabilities a where a.campsite_id = :campsiteId and (a.date >= :start and a.date < :end) order by a.date", nativeQuery = true)
     List<Availability> findAllByCampsiteIdAndDateBetween(@Param("campsiteId") UUID campsiteId, @Param("start") LocalDate start, @Param("end") LocalDate end);
 
+    /**
+     * Returns the availabilities of the given Campsite between start (inclusive) and end (exclusive), locking them until
+     * the transaction ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a from Availability a where a.campsite.id = :campsiteId and (a.date >= :start and a.date < :end) order by a.date")
+    List<Availability> findAllForUpdateByCampsiteIdAndDateBetween(@Param("campsiteId") UUID campsiteId, @Param("start") LocalDate start, @Param("end") LocalDate end);
+
     @Query(nativeQuery = true)
     List<AvailabilityDto> findAllProjectedByCampsiteIdAndDateBetween(@Param("campsiteId") UUID campsiteId, @Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    @Query(nativeQuery = true)
+    List<AvailabilityDto> findAllProjectedByCampsiteId(@Param("campsiteId") UUID campsiteId);
+
+    @Query(value = "select c.id as campsiteId, c.capacity as capacity, max(a.date) as lastDate from Campsite c left join c.availabilities a group by c.id, c.capacity")
+    List<AvailabilityHorizon> findAllHorizons();
+
+    /**
+     * Takes a site for every night between start (inclusive) and end (exclusive) having at least one available site, in
+     * a single statement. The reservation can only be made if the returned count matches the number of nights, otherwise
+     * the transaction must be rolled back.
+     *
+     * @return Number of nights a site was taken for.
+     */
+    @Modifying
+    @Query(value = "update availabilities set sites = sites - 1, version = version + 1 where campsite_id = :campsiteId and (date >= :start and date < :end) and sites > 0", nativeQuery = true)
+    int claimSites(@Param("campsiteId") UUID campsiteId, @Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    /**
+     * Gives back a site for every night between start (inclusive) and end (exclusive), in a single statement.
+     *
+     * @return Number of nights a site was given back for.
+     */
+    @Modifying
+    @Query(value = "update availabilities set sites = sites + 1, version = version + 1 where campsite_id = :campsiteId and (date >= :start and date < :end)", nativeQuery = true)
+    int releaseSites(@Param("campsiteId") UUID campsiteId, @Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    @Modifying
+    @Query(value = "insert into reservations_availabilities (availability_id, reservation_id) select a.id, :reservationId from availabilities a where a.campsite_id = :campsiteId and (a.date >= :start and a.date < :end)", nativeQuery = true)
+    int linkReservation(@Param("campsiteId") UUID campsiteId, @Param("reservationId") UUID reservationId, @Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    @Modifying
+    @Query(value = "delete from reservations_availabilities where reservation_id = :reservationId", nativeQuery = true)
+    int unlinkReservation(@Param("reservationId") UUID reservationId);
 }
@@ -0,0 +1,13 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+/**
+ * Available sites of the consecutive nights of a calendar, updated through atomic compare-and-set.
+ */
+public interface AvailabilitySlots {
+
+    int length();
+
+    int get(int index);
+
+    boolean compareAndSet(int index, int expected, int updated);
+}
@@ -0,0 +1,24 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import java.util.UUID;
+
+/**
+ * Storage of the available sites of the in-memory calendars (see {@link AvailabilityCalendar}), either on the heap
+ * ({@link HeapAvailabilityStore}) or off-heap, in a memory-mapped file ({@link MappedAvailabilityStore}), as configured
+ * by 'api.campsite.availability.store.type'. The availabilities table is still the source of truth calendars are
+ * loaded from.
+ */
+public interface AvailabilityStore {
+
+    /**
+     * Returns the slots of a calendar of the given Campsite, starting at the given epoch day and filled with the given
+     * available sites.
+     */
+    AvailabilitySlots allocate(UUID campsiteId, long firstEpochDay, int[] sites);
+
+    /**
+     * Gives back the storage kept for the given Campsite, once deleted.
+     */
+    default void release(UUID campsiteId) {
+    }
+}
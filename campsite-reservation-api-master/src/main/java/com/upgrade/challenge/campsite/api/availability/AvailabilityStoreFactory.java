@@ -0,0 +1,60 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Creates the availability stores of the in-memory calendars, as configured by 'api.campsite.availability.store.type':
+ * on the heap (default) or memory-mapped, in a temporary file under 'api.campsite.availability.store.directory' of
+ * 'api.campsite.availability.store.max-campsites' regions (one per Campsite) of 'api.campsite.availability.store.days'
+ * nights. Falls back to the heap on JVMs whose mapped memory cannot be accessed directly.
+ */
+@CommonsLog
+@Component
+public class AvailabilityStoreFactory {
+
+    public enum Type {
+        HEAP, MAPPED
+    }
+
+    @Value("${api.campsite.availability.store.type}")
+    private Type type;
+
+    @Value("${api.campsite.availability.store.directory}")
+    private String directory;
+
+    @Value("${api.campsite.availability.store.days}")
+    private Integer days;
+
+    @Value("${api.campsite.availability.store.max-campsites}")
+    private Integer maxCampsites;
+
+    public AvailabilityStore create(String name) {
+        if (type == Type.HEAP) {
+            return HeapAvailabilityStore.INSTANCE;
+        }
+        if (!MappedAvailabilityStore.isSupported()) {
+            log.warn(String.format("Availability store kept on the heap [name: %s]", name));
+            return HeapAvailabilityStore.INSTANCE;
+        }
+
+        try {
+            Path path = Files.createTempFile(Files.createDirectories(Paths.get(directory)), "campsite-" + name + "-", ".bin");
+            path.toFile().deleteOnExit();
+
+            log.debug(String.format("Availability store mapped [name: %s, path: %s]", name, path));
+
+            return new MappedAvailabilityStore(path, days, maxCampsites);
+        }
+        catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+}
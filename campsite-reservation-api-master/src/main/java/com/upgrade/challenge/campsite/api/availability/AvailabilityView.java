@@ -0,0 +1,213 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import com.upgrade.challenge.campsite.api.CampsiteRepository;
+import com.upgrade.challenge.campsite.api.common.exceptions.AvailabilityNotReadyException;
+import com.upgrade.challenge.campsite.api.hold.HoldEvent;
+import com.upgrade.challenge.campsite.api.reservation.ReservationEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Availability read model: a calendar of available sites per Campsite (see {@link AvailabilityCalendar}), apart from
+ * the one the reservations are checked against (see {@link AvailabilityCalendarRegistry}), which availability reads
+ * and searches are served from.
+ * <p>
+ * It is only updated by a single projector thread, applying the reservation and hold changes in the order they are
+ * committed ({@link ReservationEvent} and {@link HoldEvent}), so that reads are never blocked by nor contend with
+ * the reservations being made. Thus, it is eventually consistent: changes are applied shortly after being committed,
+ * which is exposed as the 'campsite.availability.view.lag' metric (along with the changes still to be applied, as
+ * 'campsite.availability.view.pending').
+ * <p>
+ * Calendars are loaded from the availabilities table at startup, once a Campsite's availability is initialized, and on
+ * rebuild (see {@link #rebuild()}). Changes are numbered as committed (see {@link CommitSequence}), so that the ones
+ * a calendar was loaded with already are skipped when applied after it, instead of being applied twice.
+ * Until first rebuilt, it is not ready: reads fail instead of being served from an empty model.
+ */
+@CommonsLog
+@Component
+public class AvailabilityView {
+
+    private final CampsiteRepository campsiteRepository;
+    private final AvailabilityRepository availabilityRepository;
+    private final AvailabilityStore store;
+    private final CommitSequence commitSequence;
+    private final Map<UUID, AvailabilityCalendar> calendars = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor projector = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "availability-view"));
+    private final Timer lag;
+
+    private volatile boolean ready;
+
+    public AvailabilityView(CampsiteRepository campsiteRepository, AvailabilityRepository availabilityRepository,
+                            AvailabilityStoreFactory availabilityStoreFactory, CommitSequence commitSequence, MeterRegistry meterRegistry) {
+        this.campsiteRepository = campsiteRepository;
+        this.availabilityRepository = availabilityRepository;
+        this.store = availabilityStoreFactory.create("view");
+        this.commitSequence = commitSequence;
+
+        this.lag = Timer.builder("campsite.availability.view.lag")
+                .description("Time between a change being committed and applied to the availability read model")
+                .register(meterRegistry);
+        Gauge.builder("campsite.availability.view.pending", projector, executor -> executor.getQueue().size())
+                .description("Changes committed but not applied to the availability read model yet")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        projector.shutdown();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns the calendar of the given Campsite (empty if not loaded yet, or without availability).
+     *
+     * @throws AvailabilityNotReadyException If not rebuilt yet.
+     */
+    public AvailabilityCalendar get(UUID campsiteId) {
+        this.checkReady();
+
+        return calendars.getOrDefault(campsiteId, AvailabilityCalendar.EMPTY);
+    }
+
+    /**
+     * @throws AvailabilityNotReadyException If not rebuilt yet.
+     */
+    public Set<UUID> getCampsiteIds() {
+        this.checkReady();
+
+        return calendars.keySet();
+    }
+
+    /**
+     * Loads the calendars of all Campsites again from the availabilities table (dropping the ones of Campsites no
+     * longer found), once the changes already committed are applied.
+     *
+     * @return Completed once rebuilt.
+     */
+    public CompletableFuture<Void> rebuild() {
+        return CompletableFuture.runAsync(() -> {
+            Set<UUID> campsiteIds = new HashSet<>(campsiteRepository.findAllIds());
+            campsiteIds.forEach(this::load);
+            calendars.keySet().retainAll(campsiteIds);
+            ready = true;
+
+            log.debug(String.format("Availability view rebuilt [campsites: %d]", calendars.size()));
+        }, projector);
+    }
+
+    /**
+     * Waits for the changes committed so far (as well as the loads and rebuilds requested) to be applied, e.g. before
+     * reading the changes just made.
+     *
+     * @return Completed once applied.
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(() -> { }, projector);
+    }
+
+    /**
+     * Loads the calendar of the given Campsite again, e.g. once its availability is initialized.
+     */
+    public void reload(UUID campsiteId) {
+        projector.execute(() -> this.load(campsiteId));
+    }
+
+    /**
+     * Drops the calendar of the given deleted Campsite, along with the storage kept for it.
+     */
+    public void remove(UUID campsiteId) {
+        projector.execute(() -> {
+            calendars.remove(campsiteId);
+            store.release(campsiteId);
+        });
+    }
+
+    @TransactionalEventListener
+    public void onReservationEvent(ReservationEvent event) {
+        switch (event.getType()) {
+            case CREATED:
+                this.project(event.getCampsiteId(), calendar -> calendar.claim(event.getCheckIn(), event.getCheckOut()));
+                break;
+            case MODIFIED:
+                // The new nights are taken before the previous ones are given back, so that sites are never overstated
+                this.project(event.getCampsiteId(), calendar -> {
+                    calendar.claim(event.getCheckIn(), event.getCheckOut());
+                    calendar.release(event.getPreviousCheckIn(), event.getPreviousCheckOut());
+                });
+                break;
+            case CANCELLED:
+                this.project(event.getCampsiteId(), calendar -> calendar.release(event.getCheckIn(), event.getCheckOut()));
+                break;
+        }
+    }
+
+    /**
+     * Holds take sites as reservations do, and give them back once released, expired or promoted (the reservation they
+     * are promoted to taking them again).
+     */
+    @TransactionalEventListener
+    public void onHoldEvent(HoldEvent event) {
+        LocalDate checkIn = event.getCheckIn();
+        LocalDate checkOut = event.getCheckOut();
+
+        if (event.getType() == HoldEvent.Type.HELD) {
+            this.project(event.getCampsiteId(), calendar -> calendar.claim(checkIn, checkOut));
+        }
+        else {
+            this.project(event.getCampsiteId(), calendar -> calendar.release(checkIn, checkOut));
+        }
+    }
+
+    private void project(UUID campsiteId, Consumer<AvailabilityCalendar> change) {
+        long committed = System.nanoTime();
+        long sequence = commitSequence.current();
+
+        projector.execute(() -> {
+            // Calendars not loaded yet already include the change once loaded
+            AvailabilityCalendar calendar = calendars.get(campsiteId);
+            if (calendar != null && !calendar.includes(sequence)) {
+                change.accept(calendar);
+            }
+
+            lag.record(System.nanoTime() - committed, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    private void checkReady() {
+        if (!ready) {
+            throw new AvailabilityNotReadyException();
+        }
+    }
+
+    private void load(UUID campsiteId) {
+        AvailabilityCalendar calendar = commitSequence.load(campsiteId, sequence ->
+                AvailabilityCalendar.of(availabilityRepository.findAllProjectedByCampsiteId(campsiteId), store, campsiteId, sequence));
+        if (calendar.isEmpty()) {
+            calendars.remove(campsiteId);
+        }
+        else {
+            calendars.put(campsiteId, calendar);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Stay matching an availability search on a Campsite, along with the fewest sites available over its nights.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CampsiteAvailabilityDto {
+
+    private UUID campsiteId;
+
+    private String name;
+
+    private LocalDate checkIn;
+
+    private LocalDate checkOut;
+
+    private Integer sites;
+}
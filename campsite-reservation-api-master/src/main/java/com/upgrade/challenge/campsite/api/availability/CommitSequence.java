@@ -0,0 +1,154 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongFunction;
+
+/**
+ * Numbers the commits of the transactions changing the availability of a Campsite, so that in-memory calendars can
+ * tell the changes they already include from the ones still to be applied.
+ * <p>
+ * Transactions tracking a Campsite (see {@link #track(UUID)}) get the next number once committed, while holding the
+ * Campsite's stripe of locks (shared) from before the commit until then. Calendars are loaded holding the same stripe
+ * (exclusive), see {@link #load(UUID, LongFunction)}: thus, the commits numbered up to the last number given at load
+ * time are all included, and the ones numbered after it none. A calendar can then skip the changes of commits
+ * numbered up to the one it was loaded at, whenever they are applied.
+ */
+@Component
+public class CommitSequence {
+
+    /**
+     * Number of the changes of transactions that did not track any Campsite, which are always applied.
+     */
+    public static final long UNTRACKED = Long.MAX_VALUE;
+
+    private static final int STRIPES = 64;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ReadWriteLock[] locks = new ReadWriteLock[STRIPES];
+
+    public CommitSequence() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Tracks the given Campsite as changed by the current transaction, if any.
+     */
+    public void track(UUID campsiteId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        Commit commit = (Commit) TransactionSynchronizationManager.getResource(this);
+        if (commit == null) {
+            commit = new Commit();
+            TransactionSynchronizationManager.bindResource(this, commit);
+            TransactionSynchronizationManager.registerSynchronization(commit);
+            TransactionSynchronizationManager.registerSynchronization(new Unbind());
+        }
+
+        commit.campsiteIds.add(campsiteId);
+        commit.stripes.add(this.stripeOf(campsiteId));
+    }
+
+    /**
+     * Checks whether the given Campsite is tracked by the current transaction, whose changes must not be loaded
+     * before committed.
+     */
+    public boolean isTracked(UUID campsiteId) {
+        Commit commit = (Commit) TransactionSynchronizationManager.getResource(this);
+        return commit != null && commit.campsiteIds.contains(campsiteId);
+    }
+
+    /**
+     * Returns the number of the current transaction, once committed (e.g. from the 'after commit' callbacks and
+     * listeners), or {@link #UNTRACKED}.
+     */
+    public long current() {
+        Commit commit = (Commit) TransactionSynchronizationManager.getResource(this);
+        return commit != null && commit.sequence > 0 ? commit.sequence : UNTRACKED;
+    }
+
+    /**
+     * Loads a calendar of the given Campsite, given the last number of the commits it includes.
+     */
+    public <T> T load(UUID campsiteId, LongFunction<T> loader) {
+        ReadWriteLock lock = locks[this.stripeOf(campsiteId)];
+        lock.writeLock().lock();
+        try {
+            return loader.apply(sequence.get());
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int stripeOf(UUID campsiteId) {
+        return (campsiteId.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    /**
+     * Numbers the commit first among the synchronizations, so that every 'after commit' callback and listener sees it.
+     * Stripes are locked in order, so that transactions changing several Campsites cannot deadlock.
+     */
+    private class Commit extends TransactionSynchronizationAdapter {
+
+        private final List<UUID> campsiteIds = new ArrayList<>();
+        private final SortedSet<Integer> stripes = new TreeSet<>();
+        private final List<ReadWriteLock> locked = new ArrayList<>();
+        private long sequence;
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            stripes.forEach(stripe -> {
+                locks[stripe].readLock().lock();
+                locked.add(locks[stripe]);
+            });
+        }
+
+        @Override
+        public void afterCommit() {
+            sequence = CommitSequence.this.sequence.incrementAndGet();
+            this.unlock();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            this.unlock();
+        }
+
+        private void unlock() {
+            locked.forEach(lock -> lock.readLock().unlock());
+            locked.clear();
+        }
+    }
+
+    /**
+     * Unbinds the commit last among the synchronizations, since transactional event listeners are run on completion.
+     */
+    private class Unbind extends TransactionSynchronizationAdapter {
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(CommitSequence.this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Keeps the available sites of every calendar in its own primitive array on the heap.
+ */
+public class HeapAvailabilityStore implements AvailabilityStore {
+
+    public static final HeapAvailabilityStore INSTANCE = new HeapAvailabilityStore();
+
+    private HeapAvailabilityStore() {
+    }
+
+    @Override
+    public AvailabilitySlots allocate(UUID campsiteId, long firstEpochDay, int[] sites) {
+        AtomicIntegerArray slots = new AtomicIntegerArray(sites);
+
+        return new AvailabilitySlots() {
+
+            @Override
+            public int length() {
+                return slots.length();
+            }
+
+            @Override
+            public int get(int index) {
+                return slots.get(index);
+            }
+
+            @Override
+            public boolean compareAndSet(int index, int expected, int updated) {
+                return slots.compareAndSet(index, expected, updated);
+            }
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import lombok.extern.apachecommons.CommonsLog;
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+/**
+ * Keeps the available sites of the calendars off-heap, in a memory-mapped file of fixed-width slots addressed by
+ * (campsite index, epoch day): every Campsite is given a region of 'days' slots the first time one of its calendars is
+ * loaded, which it keeps until deleted (see {@link #release(UUID)}), and each night is kept in the slot of its epoch
+ * day modulo 'days'. Calendars longer than a region, or of Campsites loaded while none of the 'maxCampsites' regions
+ * is free, are kept on the heap instead.
+ * <p>
+ * Slots are 8-byte words read (volatile) and compared-and-set straight on the mapped memory, without any lock. Each
+ * word holds the available sites along with the generation of the calendar that wrote it, bumped every time a calendar
+ * of the Campsite is loaded: calendars replaced by a newer one (which may still be updated by the reservations they
+ * were read by) thus fail to compare-and-set over it, and are detached to a copy on the heap instead. Calendars of the
+ * same Campsite are loaded one at a time per store (by the registry's loader or the view's projector).
+ */
+@CommonsLog
+public class MappedAvailabilityStore implements AvailabilityStore {
+
+    private static final Unsafe UNSAFE;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        Unsafe unsafe;
+        long addressOffset;
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = (Unsafe) field.get(null);
+            addressOffset = unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        }
+        catch (ReflectiveOperationException | RuntimeException exception) {
+            log.warn("Mapped memory cannot be accessed directly", exception);
+            unsafe = null;
+            addressOffset = -1;
+        }
+
+        UNSAFE = unsafe;
+        ADDRESS_OFFSET = addressOffset;
+    }
+
+    private final int days;
+    // Kept reachable, so that the file stays mapped at the address
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final AtomicIntegerArray generations;
+    private final Map<UUID, Integer> regions = new ConcurrentHashMap<>();
+    private final Queue<Integer> freeRegions = new ConcurrentLinkedQueue<>();
+
+    public MappedAvailabilityStore(Path path, int days, int maxCampsites) throws IOException {
+        if (!isSupported()) {
+            throw new IllegalStateException("Mapped memory cannot be accessed directly");
+        }
+
+        long size = (long) days * maxCampsites * Long.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Availability store too large [days: %d, campsites: %d]", days, maxCampsites));
+        }
+
+        this.days = days;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        this.address = UNSAFE.getLong(buffer, ADDRESS_OFFSET);
+        this.generations = new AtomicIntegerArray(maxCampsites);
+        IntStream.range(0, maxCampsites).forEach(freeRegions::add);
+    }
+
+    /**
+     * Returns whether the mapped memory can be accessed directly on this JVM.
+     */
+    public static boolean isSupported() {
+        return UNSAFE != null;
+    }
+
+    @Override
+    public AvailabilitySlots allocate(UUID campsiteId, long firstEpochDay, int[] sites) {
+        Integer region = sites.length <= days ? regions.computeIfAbsent(campsiteId, id -> freeRegions.poll()) : null;
+        if (region == null) {
+            log.warn(String.format("Availability kept on the heap [campsite: %s, nights: %d]", campsiteId, sites.length));
+            return HeapAvailabilityStore.INSTANCE.allocate(campsiteId, firstEpochDay, sites);
+        }
+
+        return new MappedSlots(region, firstEpochDay, generations.incrementAndGet(region), sites);
+    }
+
+    @Override
+    public void release(UUID campsiteId) {
+        Integer region = regions.remove(campsiteId);
+        if (region != null) {
+            freeRegions.add(region);
+        }
+    }
+
+    /**
+     * Returns the number of regions not given to any Campsite.
+     */
+    int getFreeRegions() {
+        return freeRegions.size();
+    }
+
+    private static long slotOf(int generation, int sites) {
+        return (long) generation << 32 | sites & 0xFFFFFFFFL;
+    }
+
+    private static int generationOf(long slot) {
+        return (int) (slot >>> 32);
+    }
+
+    private static int sitesOf(long slot) {
+        return (int) slot;
+    }
+
+    private class MappedSlots implements AvailabilitySlots {
+
+        private final int region;
+        private final long firstEpochDay;
+        private final int generation;
+        private final int length;
+        // Set once a newer calendar of the Campsite is found in the region
+        private final AtomicReference<AtomicIntegerArray> detached = new AtomicReference<>();
+
+        private MappedSlots(int region, long firstEpochDay, int generation, int[] sites) {
+            this.region = region;
+            this.firstEpochDay = firstEpochDay;
+            this.generation = generation;
+            this.length = sites.length;
+
+            for (int i = 0; i < sites.length; i++) {
+                UNSAFE.putLongVolatile(null, this.addressOf(i), slotOf(generation, sites[i]));
+            }
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int get(int index) {
+            long slotAddress = this.addressOf(index);
+
+            AtomicIntegerArray copy = detached.get();
+            if (copy == null) {
+                long slot = UNSAFE.getLongVolatile(null, slotAddress);
+                if (generationOf(slot) == generation) {
+                    return sitesOf(slot);
+                }
+                copy = this.detach();
+            }
+
+            return copy.get(index);
+        }
+
+        @Override
+        public boolean compareAndSet(int index, int expected, int updated) {
+            long slotAddress = this.addressOf(index);
+
+            AtomicIntegerArray copy = detached.get();
+            if (copy == null) {
+                if (UNSAFE.compareAndSwapLong(null, slotAddress, slotOf(generation, expected), slotOf(generation, updated))) {
+                    return true;
+                }
+                if (generationOf(UNSAFE.getLongVolatile(null, slotAddress)) == generation) {
+                    return false;
+                }
+                copy = this.detach();
+            }
+
+            return copy.compareAndSet(index, expected, updated);
+        }
+
+        /**
+         * Copies the region's slots to the heap, where this calendar is updated from now on.
+         */
+        private AtomicIntegerArray detach() {
+            int[] sites = new int[length];
+            for (int i = 0; i < length; i++) {
+                sites[i] = sitesOf(UNSAFE.getLongVolatile(null, this.addressOf(i)));
+            }
+
+            // First copy wins, whichever thread found the newer calendar
+            if (detached.compareAndSet(null, new AtomicIntegerArray(sites))) {
+                log.debug(String.format("Replaced calendar detached to the heap [region: %d, generation: %d]", region, generation));
+            }
+
+            return detached.get();
+        }
+
+        /**
+         * Checked, so that a calendar never reads nor writes outside of its region.
+         */
+        private long addressOf(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index);
+            }
+
+            return address + ((long) region * days + Math.floorMod(firstEpochDay + index, (long) days)) * Long.BYTES;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import com.upgrade.challenge.campsite.api.common.exceptions.*;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves the errors exceptions are answered with (see {@link ApiExceptionHandler}) from messages.properties, keyed by
+ * exception simple name. Also used wherever failures are reported without being thrown, e.g. the failure of each
+ * reservation of a bulk request or of an asynchronous reservation.
+ */
+@RequiredArgsConstructor
+@Component
+public class ApiErrorMessages {
+
+    private final MessageSource messageSource;
+
+    public List<String> resolve(Exception exception) {
+        if (exception instanceof MethodArgumentNotValidException) {
+            return this.resolve(((MethodArgumentNotValidException) exception).getBindingResult());
+        }
+        if (exception instanceof InvalidRequestException) {
+            return this.resolve(((InvalidRequestException) exception).getBindingResult());
+        }
+
+        return Collections.singletonList(this.getMessage(exception));
+    }
+
+    private List<String> resolve(BindingResult bindingResult) {
+        return bindingResult.getAllErrors().stream().map(objectError ->
+                messageSource.getMessage(objectError, LocaleContextHolder.getLocale())).collect(Collectors.toList());
+    }
+
+    private String getMessage(Exception exception) {
+        if (exception instanceof EntityNotFoundException) {
+            EntityNotFoundException entityNotFoundException = (EntityNotFoundException) exception;
+            return this.lookup(exception, entityNotFoundException.getEntity().getSimpleName(), entityNotFoundException.getId());
+        }
+        if (exception instanceof javax.persistence.EntityNotFoundException) {
+            return exception.getMessage() != null ? exception.getMessage() : this.lookup(exception);
+        }
+        if (exception instanceof NotAvailableSiteException || exception instanceof BulkReservationException
+                || exception instanceof ReservationIntakeFullException || exception instanceof AvailabilityNotReadyException) {
+            return this.lookup(exception);
+        }
+        if (exception instanceof CheckInAfterCheckOutException) {
+            CheckInAfterCheckOutException checkInAfterCheckOutException = (CheckInAfterCheckOutException) exception;
+            return this.lookup(exception, checkInAfterCheckOutException.getCheckIn(), checkInAfterCheckOutException.getCheckOut());
+        }
+        if (exception instanceof MaxReservationDaysExceededException) {
+            return this.lookup(exception, ((MaxReservationDaysExceededException) exception).getReservationMaxDays());
+        }
+        if (exception instanceof ReservationDaysAheadOutOfBoundsException) {
+            ReservationDaysAheadOutOfBoundsException daysAheadException = (ReservationDaysAheadOutOfBoundsException) exception;
+            return this.lookup(exception, daysAheadException.getReservationMinDaysAhead(), daysAheadException.getReservationMaxDaysAhead());
+        }
+        if (exception instanceof InvalidCursorException) {
+            return this.lookup(exception, ((InvalidCursorException) exception).getCursor());
+        }
+        if (exception instanceof MaxBulkReservationsExceededException) {
+            return this.lookup(exception, ((MaxBulkReservationsExceededException) exception).getBulkMaxSize());
+        }
+        if (exception instanceof InvalidIdempotencyKeyException) {
+            return this.lookup(exception, ((InvalidIdempotencyKeyException) exception).getMaxLength());
+        }
+        if (exception instanceof IdempotencyKeyReusedException) {
+            return this.lookup(exception, ((IdempotencyKeyReusedException) exception).getKey());
+        }
+        if (exception instanceof IdempotencyKeyInProgressException) {
+            return this.lookup(exception, ((IdempotencyKeyInProgressException) exception).getKey());
+        }
+        if (exception instanceof MissingServletRequestParameterException) {
+            MissingServletRequestParameterException missingParameterException = (MissingServletRequestParameterException) exception;
+            return this.lookup(exception, missingParameterException.getParameterName(), missingParameterException.getParameterType());
+        }
+        if (exception instanceof ConcurrencyFailureException) {
+            return messageSource.getMessage(ConcurrencyFailureException.class.getSimpleName(), null, LocaleContextHolder.getLocale());
+        }
+        if (exception instanceof MethodArgumentTypeMismatchException && exception.getCause() != null) {
+            return exception.getCause().getMessage();
+        }
+
+        return exception.getMessage();
+    }
+
+    private String lookup(Exception exception, Object... args) {
+        return messageSource.getMessage(exception.getClass().getSimpleName(), args, LocaleContextHolder.getLocale());
+    }
+}
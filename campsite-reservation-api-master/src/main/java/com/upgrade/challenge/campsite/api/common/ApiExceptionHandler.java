@@ -2,96 +2,140 @@ package com.upgrade.challenge.campsite.api.common;
 
 import com.upgrade.challenge.campsite.api.common.exceptions.*;
 import lombok.RequiredArgsConstructor;
-import org.springframework.context.MessageSource;
-import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
+import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.stream.Collectors;
-
+/**
+ * Answers exceptions with their status, and the errors resolved by {@link ApiErrorMessages}.
+ */
 @RequiredArgsConstructor
 @RestControllerAdvice
 public class ApiExceptionHandler {
 
-    private final MessageSource messageSource;
+    private final ApiErrorMessages apiErrorMessages;
 
     @ExceptionHandler(MethodArgumentTypeMismatchException.class)
     ResponseEntity<ApiResponse> handle(MethodArgumentTypeMismatchException exception) {
-        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(
-                Collections.singletonList(exception.getCause().getMessage())).build());
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(MissingServletRequestParameterException.class)
+    ResponseEntity<ApiResponse> handle(MissingServletRequestParameterException exception) {
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ApiResponse> handle(MethodArgumentNotValidException exception) {
-        List<String> errors = exception.getBindingResult().getAllErrors().stream().map(objectError ->
-                messageSource.getMessage(objectError, LocaleContextHolder.getLocale())).collect(Collectors.toList());
-        return ResponseEntity.badRequest().body(ApiResponse.builder().message(HttpStatus.BAD_REQUEST.getReasonPhrase()).errors(errors).build());
+        return ResponseEntity.badRequest().body(ApiResponse.builder().message(HttpStatus.BAD_REQUEST.getReasonPhrase())
+                .errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    ResponseEntity<ApiResponse> handle(InvalidRequestException exception) {
+        return ResponseEntity.badRequest().body(ApiResponse.builder().message(HttpStatus.BAD_REQUEST.getReasonPhrase())
+                .errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(javax.persistence.EntityNotFoundException.class)
     ResponseEntity<ApiResponse> handle(javax.persistence.EntityNotFoundException exception) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.builder().errors(Collections.singletonList(
-                exception.getMessage() != null ? exception.getMessage() : this.getMessage(exception))).build());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(EmptyResultDataAccessException.class)
     ResponseEntity<ApiResponse> handle(EmptyResultDataAccessException exception) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.builder().errors(
-                Collections.singletonList(exception.getMessage())).build());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(ConcurrencyFailureException.class)
+    ResponseEntity<ApiResponse> handle(ConcurrencyFailureException exception) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(DataAccessException.class)
     ResponseEntity<ApiResponse> handle(DataAccessException exception) {
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ApiResponse.builder().errors(
-                Collections.singletonList(exception.getMessage())).build());
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(EntityNotFoundException.class)
     ResponseEntity<ApiResponse> handle(EntityNotFoundException exception) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.builder().errors(Collections.singletonList(
-                this.getMessage(exception, exception.getEntity().getSimpleName(), exception.getId()))).build());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(NotAvailableSiteException.class)
     ResponseEntity<ApiResponse> handle(NotAvailableSiteException exception) {
-        return ResponseEntity.unprocessableEntity().body(ApiResponse.builder().errors(
-                Collections.singletonList(this.getMessage(exception))).data(exception.getAvailabilitiesDtos()).build());
+        return ResponseEntity.unprocessableEntity().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception))
+                .data(exception.getAvailabilitiesDtos()).build());
     }
 
     @ExceptionHandler(CheckInAfterCheckOutException.class)
     ResponseEntity<ApiResponse> handle(CheckInAfterCheckOutException exception) {
-        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(Collections.singletonList(
-                this.getMessage(exception, exception.getCheckIn(), exception.getCheckOut()))).build());
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(MaxReservationDaysExceededException.class)
     ResponseEntity<ApiResponse> handle(MaxReservationDaysExceededException exception) {
-        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(
-                Collections.singletonList(this.getMessage(exception, exception.getReservationMaxDays()))).build());
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
     @ExceptionHandler(ReservationDaysAheadOutOfBoundsException.class)
     ResponseEntity<ApiResponse> handle(ReservationDaysAheadOutOfBoundsException exception) {
-        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(
-                Collections.singletonList(this.getMessage(exception, exception.getReservationMinDaysAhead(),
-                        exception.getReservationMaxDaysAhead()))).build());
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
-    @ExceptionHandler(Exception.class)
-    ResponseEntity<ApiResponse> handle(Exception exception) {
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ApiResponse.builder().errors(
-                Collections.singletonList(exception.getMessage())).build());
+    @ExceptionHandler(InvalidCursorException.class)
+    ResponseEntity<ApiResponse> handle(InvalidCursorException exception) {
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(MaxBulkReservationsExceededException.class)
+    ResponseEntity<ApiResponse> handle(MaxBulkReservationsExceededException exception) {
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(BulkReservationException.class)
+    ResponseEntity<ApiResponse> handle(BulkReservationException exception) {
+        exception.getResults().stream().filter(result -> result.getException() != null)
+                .forEach(result -> result.setErrors(apiErrorMessages.resolve(result.getException())));
+
+        return ResponseEntity.unprocessableEntity().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception))
+                .data(exception.getResults()).build());
+    }
+
+    @ExceptionHandler(ReservationIntakeFullException.class)
+    ResponseEntity<ApiResponse> handle(ReservationIntakeFullException exception) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(AvailabilityNotReadyException.class)
+    ResponseEntity<ApiResponse> handle(AvailabilityNotReadyException exception) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(InvalidIdempotencyKeyException.class)
+    ResponseEntity<ApiResponse> handle(InvalidIdempotencyKeyException exception) {
+        return ResponseEntity.badRequest().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 
-    private String getMessage(RuntimeException exception, Object... args) {
-        return messageSource.getMessage(exception.getClass().getSimpleName(), args, LocaleContextHolder.getLocale());
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    ResponseEntity<ApiResponse> handle(IdempotencyKeyReusedException exception) {
+        return ResponseEntity.unprocessableEntity().body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(IdempotencyKeyInProgressException.class)
+    ResponseEntity<ApiResponse> handle(IdempotencyKeyInProgressException exception) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
+    }
+
+    @ExceptionHandler(Exception.class)
+    ResponseEntity<ApiResponse> handle(Exception exception) {
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(ApiResponse.builder().errors(apiErrorMessages.resolve(exception)).build());
     }
 }
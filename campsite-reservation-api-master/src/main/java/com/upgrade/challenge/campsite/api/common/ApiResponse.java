@@ -17,4 +17,9 @@ public class ApiResponse<T> {
     private String message;
     private List<String> errors;
     private T data;
+
+    /**
+     * Cursor of the next page, for listings paginated by cursor (none on the last page).
+     */
+    private String nextCursor;
 }
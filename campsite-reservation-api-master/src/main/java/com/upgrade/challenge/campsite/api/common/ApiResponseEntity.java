@@ -7,14 +7,18 @@ import org.springframework.http.ResponseEntity;
 @Builder
 public class ApiResponseEntity<T> {
 
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private HttpStatus status;
     private String message;
     private T data;
+    private String nextCursor;
 
     public static class ApiResponseEntityBuilder<T> {
         private HttpStatus status;
         private String message;
         private T data;
+        private String nextCursor;
 
         public ApiResponseEntityBuilder<T> ok(ApiResponse<T> apiResponse) {
             return status(HttpStatus.OK).body(apiResponse);
@@ -32,11 +36,12 @@ public class ApiResponseEntity<T> {
 
         public ApiResponseEntityBuilder<T> body(ApiResponse<T> apiResponse) {
             this.data = apiResponse.getData();
+            this.nextCursor = apiResponse.getNextCursor();
             return this;
         }
 
         public ResponseEntity<ApiResponse<T>> build() {
-            return ResponseEntity.status(status).body(ApiResponse.<T>builder().message(message).data(data).build());
+            return ResponseEntity.status(status).body(ApiResponse.<T>builder().message(message).data(data).nextCursor(nextCursor).build());
         }
     }
 }
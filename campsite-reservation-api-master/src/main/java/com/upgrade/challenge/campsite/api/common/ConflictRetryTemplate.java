@@ -0,0 +1,81 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.retry.backoff.ExponentialRandomBackOffPolicy;
+import org.springframework.retry.backoff.Sleeper;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Retries operations failing on a version conflict (optimistic locking) or on a lock which could not be acquired
+ * (pessimistic locking, lock timeout, deadlock), with a jittered exponential backoff: each interval is drawn between
+ * the exponential one (capped at the max. interval) and 'multiplier' times it. Any other failure is not retried.
+ * <p>
+ * Each attempt must start a fresh transaction, thus operations are expected to be calls to transactional services made
+ * from outside of any transaction. Retries and give-ups are counted per operation ('campsite.retries' and
+ * 'campsite.retries.exhausted' metrics).
+ */
+@CommonsLog
+@Component
+public class ConflictRetryTemplate {
+
+    private final RetryTemplate retryTemplate = new RetryTemplate();
+    private final ExponentialRandomBackOffPolicy backOffPolicy = new ExponentialRandomBackOffPolicy();
+    private final MeterRegistry meterRegistry;
+
+    public ConflictRetryTemplate(@Value("${api.campsite.retry.max-attempts}") Integer maxAttempts,
+                                 @Value("${api.campsite.retry.initial-interval}") Long initialInterval,
+                                 @Value("${api.campsite.retry.multiplier}") Double multiplier,
+                                 @Value("${api.campsite.retry.max-interval}") Long maxInterval,
+                                 MeterRegistry meterRegistry) {
+        Map<Class<? extends Throwable>, Boolean> retryableExceptions = new HashMap<>();
+        retryableExceptions.put(ConcurrencyFailureException.class, true);
+        retryableExceptions.put(OptimisticLockException.class, true);
+        retryableExceptions.put(PessimisticLockException.class, true);
+        retryableExceptions.put(LockTimeoutException.class, true);
+        retryTemplate.setRetryPolicy(new SimpleRetryPolicy(maxAttempts, retryableExceptions, true));
+
+        backOffPolicy.setInitialInterval(initialInterval);
+        backOffPolicy.setMultiplier(multiplier);
+        backOffPolicy.setMaxInterval(maxInterval);
+        retryTemplate.setBackOffPolicy(backOffPolicy);
+
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T execute(String operation, Supplier<T> action) {
+        try {
+            return retryTemplate.<T, RuntimeException>execute(context -> {
+                if (context.getRetryCount() > 0) {
+                    log.debug(String.format("Retrying %s [attempt: %d, cause: %s]", operation, context.getRetryCount() + 1,
+                            context.getLastThrowable().getMessage()));
+                    meterRegistry.counter("campsite.retries", "operation", operation).increment();
+                }
+
+                return action.get();
+            });
+        }
+        catch (ConcurrencyFailureException | OptimisticLockException | PessimisticLockException | LockTimeoutException exception) {
+            meterRegistry.counter("campsite.retries.exhausted", "operation", operation).increment();
+            throw exception;
+        }
+    }
+
+    /**
+     * Replaces the sleeper the backoff waits through (e.g. to record the intervals instead of waiting them in tests).
+     */
+    void setSleeper(Sleeper sleeper) {
+        backOffPolicy.setSleeper(sleeper);
+    }
+}
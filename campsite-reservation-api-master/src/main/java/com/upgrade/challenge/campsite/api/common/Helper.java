@@ -1,15 +1,128 @@
 package com.upgrade.challenge.campsite.api.common;
 
 import lombok.experimental.UtilityClass;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.UUID;
 import java.util.function.Consumer;
 
+@CommonsLog
 @UtilityClass
 public class Helper {
 
+    private final Consumer<ByteBuffer> UNMAPPER = Helper.findUnmapper();
+
     public <T> void setIfNotNull(final Consumer<T> consumer, final T value) {
         if (value != null) {
             consumer.accept(value);
         }
     }
+
+    /**
+     * Returns the binary representation of the given UUID, as stored in the DB.
+     */
+    public byte[] toBytes(final UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * Returns the UUID of the given binary representation, as stored in the DB.
+     */
+    public UUID toUUID(final byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Runs the given action once the current transaction commits, or right away if there is no transaction.
+     */
+    public void afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Runs the given action if the current transaction rolls back. Without a transaction there is nothing to roll back,
+     * so the action is not run.
+     */
+    public void afterRollback(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    action.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Unmaps the given buffer right away, instead of once garbage collected, so that the file mapped can be deleted and
+     * its memory is given back. The buffer must not be accessed afterwards (nor concurrently). Best effort: buffers
+     * are left to the GC if the JVM does not allow it.
+     */
+    public void unmap(final MappedByteBuffer buffer) {
+        if (UNMAPPER != null) {
+            UNMAPPER.accept(buffer);
+        }
+    }
+
+    /**
+     * Looks up the way of unmapping buffers: sun.misc.Unsafe#invokeCleaner (Java 9+), or the buffer's cleaner (Java 8).
+     */
+    private Consumer<ByteBuffer> findUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            return buffer -> Helper.invoke(invokeCleaner, unsafe, buffer);
+        }
+        catch (NoSuchMethodException exception) {
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+
+                return buffer -> Helper.invoke(clean, Helper.invoke(cleaner, buffer));
+            }
+            catch (ReflectiveOperationException fallbackException) {
+                log.debug("Mapped buffers left to the GC", fallbackException);
+                return null;
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException exception) {
+            log.debug("Mapped buffers left to the GC", exception);
+            return null;
+        }
+    }
+
+    private Object invoke(final Method method, final Object target, final Object... arguments) {
+        try {
+            return method.invoke(target, arguments);
+        }
+        catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException("Buffer not unmapped", exception);
+        }
+    }
 }
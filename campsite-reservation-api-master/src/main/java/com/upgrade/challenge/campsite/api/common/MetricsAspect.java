@@ -0,0 +1,129 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import com.upgrade.challenge.campsite.api.availability.AvailabilityRepository;
+import com.upgrade.challenge.campsite.api.common.exceptions.*;
+import com.upgrade.challenge.campsite.api.reservation.BulkReservationResultDto;
+import com.upgrade.challenge.campsite.api.reservation.ReservationRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+import javax.validation.ConstraintViolationException;
+import java.util.Objects;
+
+/**
+ * Times every public {@link com.upgrade.challenge.campsite.api.CampsiteService} method ('campsite.service' metric, tagged
+ * by method and outcome) and every Availability and Reservation repository method ('campsite.repository' metric, tagged
+ * by repository, method and exception). Timers also count the calls.
+ * <p>
+ * Outcomes: success, not-available, validation-error, lock-conflict, not-found and error. Bulk reservations failed
+ * as a whole (all-or-nothing) get the outcome of the reservation which could not be made.
+ * <p>
+ * Calls can be left out for a while on the current thread (see {@link #setSuppressed(boolean)}), e.g. the synthetic
+ * requests of the warm-up.
+ */
+@RequiredArgsConstructor
+@Aspect
+@Component
+public class MetricsAspect {
+
+    private static final ThreadLocal<Boolean> SUPPRESSED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Stops (or resumes) timing the calls made by the current thread.
+     */
+    public static void setSuppressed(boolean suppressed) {
+        if (suppressed) {
+            SUPPRESSED.set(Boolean.TRUE);
+        }
+        else {
+            SUPPRESSED.remove();
+        }
+    }
+
+    @Around("execution(public * com.upgrade.challenge.campsite.api.CampsiteService.*(..))")
+    public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (SUPPRESSED.get()) {
+            return joinPoint.proceed();
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+
+        try {
+            return joinPoint.proceed();
+        }
+        catch (Throwable throwable) {
+            outcome = this.getOutcome(throwable);
+            throw throwable;
+        }
+        finally {
+            sample.stop(Timer.builder("campsite.service")
+                    .description("CampsiteService calls")
+                    .tag("method", joinPoint.getSignature().getName())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    @Around("target(com.upgrade.challenge.campsite.api.availability.AvailabilityRepository) || target(com.upgrade.challenge.campsite.api.reservation.ReservationRepository)")
+    public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (SUPPRESSED.get()) {
+            return joinPoint.proceed();
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String exception = "none";
+
+        try {
+            return joinPoint.proceed();
+        }
+        catch (Throwable throwable) {
+            exception = throwable.getClass().getSimpleName();
+            throw throwable;
+        }
+        finally {
+            sample.stop(Timer.builder("campsite.repository")
+                    .description("Availability and Reservation repository calls")
+                    .tag("repository", joinPoint.getTarget() instanceof AvailabilityRepository ? AvailabilityRepository.class.getSimpleName()
+                            : ReservationRepository.class.getSimpleName())
+                    .tag("method", joinPoint.getSignature().getName())
+                    .tag("exception", exception)
+                    .register(meterRegistry));
+        }
+    }
+
+    private String getOutcome(Throwable throwable) {
+        if (throwable instanceof BulkReservationException) {
+            // Classified by the first reservation which could not be made (the others were rolled back)
+            return ((BulkReservationException) throwable).getResults().stream().map(BulkReservationResultDto::getException)
+                    .filter(Objects::nonNull).findFirst().map(this::getOutcome).orElse("error");
+        }
+        if (throwable instanceof NotAvailableSiteException) {
+            return "not-available";
+        }
+        if (throwable instanceof CheckInAfterCheckOutException || throwable instanceof MaxReservationDaysExceededException
+                || throwable instanceof ReservationDaysAheadOutOfBoundsException || throwable instanceof ConstraintViolationException
+                || throwable instanceof IllegalArgumentException) {
+            return "validation-error";
+        }
+        if (throwable instanceof ConcurrencyFailureException || throwable instanceof OptimisticLockException
+                || throwable instanceof PessimisticLockException) {
+            return "lock-conflict";
+        }
+        if (throwable instanceof EntityNotFoundException) {
+            return "not-found";
+        }
+
+        return "error";
+    }
+}
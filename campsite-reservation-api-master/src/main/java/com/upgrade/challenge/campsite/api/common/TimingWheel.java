@@ -0,0 +1,176 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel: items are scheduled to expire at a deadline, rounded up to the tick. The first wheel has a
+ * bucket per tick, and each of the next ones a bucket per whole turn of the previous one, so that an item is added and
+ * expired in O(1), whatever the number of items scheduled, instead of being kept sorted or polled for.
+ * <p>
+ * Items are handed over once their deadline is reached, as the wheel is advanced (see {@link #advance(long)}). When
+ * a bucket of an upper wheel is reached, its items are moved down to the lower wheels (or handed over, if due).
+ * Deadlines beyond the last wheel are kept in it, and moved again until due.
+ * <p>
+ * Items are indexed, so that an item scheduled again is only handed over on its new deadline, and cancelled items are
+ * not handed over at all: their entries are just marked, and dropped once their bucket is reached.
+ */
+public class TimingWheel<T> {
+
+    private static final int WHEELS = 4;
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<List<Entry<T>>> buckets = new ArrayList<>();
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+    private final List<Entry<T>> due = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long currentTick;
+
+    public TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTick = startMillis / tickMillis;
+
+        for (int bucket = 0; bucket < WHEELS * wheelSize; bucket++) {
+            buckets.add(new ArrayList<>());
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Schedules the given item, handed over on the first advance past the deadline (or on the next one, if already
+     * past). If already scheduled, it is only handed over on the given deadline.
+     */
+    public void add(T item, long deadlineMillis) {
+        lock.lock();
+        try {
+            Entry<T> entry = new Entry<>(item, (deadlineMillis + tickMillis - 1) / tickMillis);
+            Entry<T> previousEntry = entries.put(item, entry);
+            if (previousEntry != null) {
+                previousEntry.cancelled = true;
+            }
+
+            this.place(entry);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cancels the given item, if scheduled (and not handed over yet).
+     *
+     * @return Whether the item was scheduled.
+     */
+    public boolean cancel(T item) {
+        lock.lock();
+        try {
+            Entry<T> entry = entries.remove(item);
+            if (entry != null) {
+                entry.cancelled = true;
+            }
+
+            return entry != null;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the wheels up to the given time, tick by tick.
+     *
+     * @return Items whose deadline was reached.
+     */
+    public List<T> advance(long nowMillis) {
+        lock.lock();
+        try {
+            long nowTick = nowMillis / tickMillis;
+
+            while (currentTick < nowTick) {
+                currentTick++;
+
+                // Upper wheels' buckets reached are moved down first, so that items due on this tick are handed over now
+                long ticks = 1;
+                for (int wheel = 1; wheel < WHEELS; wheel++) {
+                    ticks *= wheelSize;
+                }
+                for (int wheel = WHEELS - 1; wheel > 0; wheel--, ticks /= wheelSize) {
+                    if (currentTick % ticks == 0) {
+                        List<Entry<T>> bucket = this.getBucket(wheel, currentTick / ticks);
+                        List<Entry<T>> entries = new ArrayList<>(bucket);
+                        bucket.clear();
+                        entries.forEach(this::place);
+                    }
+                }
+
+                List<Entry<T>> bucket = this.getBucket(0, currentTick);
+                due.addAll(bucket);
+                bucket.clear();
+            }
+
+            List<T> expired = new ArrayList<>();
+            for (Entry<T> entry : due) {
+                if (!entry.cancelled) {
+                    entries.remove(entry.item);
+                    expired.add(entry.item);
+                }
+            }
+            due.clear();
+
+            return expired;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void place(Entry<T> entry) {
+        if (entry.cancelled) {
+            return;
+        }
+        if (entry.deadlineTick <= currentTick) {
+            due.add(entry);
+            return;
+        }
+
+        // Into the lowest wheel the deadline is within a turn of
+        long ticks = 1;
+        for (int wheel = 0; wheel < WHEELS; wheel++, ticks *= wheelSize) {
+            if (entry.deadlineTick / ticks - currentTick / ticks < wheelSize || wheel == WHEELS - 1) {
+                this.getBucket(wheel, entry.deadlineTick / ticks).add(entry);
+                return;
+            }
+        }
+    }
+
+    private List<Entry<T>> getBucket(int wheel, long slot) {
+        return buckets.get(wheel * wheelSize + (int) (slot % wheelSize));
+    }
+
+    private static class Entry<T> {
+
+        private final T item;
+        private final long deadlineTick;
+        private boolean cancelled;
+
+        private Entry(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
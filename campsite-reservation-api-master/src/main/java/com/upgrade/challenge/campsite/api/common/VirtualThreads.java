@@ -0,0 +1,59 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads (Java 21+), looked up through reflection so that the application still builds and runs on Java 8.
+ */
+@UtilityClass
+public class VirtualThreads {
+
+    public boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a factory of virtual threads named after the given prefix and a counter.
+     *
+     * @throws IllegalStateException If the running JVM has no virtual threads.
+     */
+    public ThreadFactory factory(final String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(Thread.class.getMethod("ofVirtual").invoke(null), prefix, 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException(String.format("Virtual threads not supported [java.version: %s]",
+                    System.getProperty("java.version")), exception);
+        }
+    }
+
+    /**
+     * Returns an executor starting a new virtual thread for each task.
+     *
+     * @throws IllegalStateException If the running JVM has no virtual threads.
+     */
+    public ExecutorService newThreadPerTaskExecutor(final String prefix) {
+        ThreadFactory threadFactory = factory(prefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+        }
+        catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException(String.format("Virtual threads not supported [java.version: %s]",
+                    System.getProperty("java.version")), exception);
+        }
+    }
+}
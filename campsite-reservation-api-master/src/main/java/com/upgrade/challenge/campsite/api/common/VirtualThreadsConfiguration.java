@@ -0,0 +1,111 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.apachecommons.CommonsLog;
+import org.apache.coyote.AbstractProtocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.annotation.AsyncAnnotationBeanPostProcessor;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Runs every HTTP request, @Scheduled task and async task (e.g. of the MVC async requests) on its own virtual thread,
+ * if enabled ('api.campsite.virtual-threads.enabled'). Requires Java 21+.
+ * <p>
+ * Thus, requests blocked on the DB no longer hold one of Tomcat's few platform threads: concurrency is bounded by
+ * 'server.tomcat.max-connections' and, for the requests reaching the DB, by the connection pool, as reported at
+ * startup along with where virtual threads can still be pinned to their carrier.
+ */
+@CommonsLog
+@Configuration
+@ConditionalOnProperty(name = "api.campsite.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfiguration implements SchedulingConfigurer {
+
+    private final ServerProperties serverProperties;
+    private final DataSource dataSource;
+    private final ExecutorService requestExecutor;
+    private final ExecutorService taskExecutor;
+    private final ScheduledExecutorService scheduler;
+
+    public VirtualThreadsConfiguration(ServerProperties serverProperties, DataSource dataSource) {
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException(String.format("Virtual threads require Java 21+ [java.version: %s]. Run on a newer JVM or " +
+                    "disable them (api.campsite.virtual-threads.enabled=false)", System.getProperty("java.version")));
+        }
+
+        this.serverProperties = serverProperties;
+        this.dataSource = dataSource;
+        this.requestExecutor = VirtualThreads.newThreadPerTaskExecutor("http-");
+        this.taskExecutor = VirtualThreads.newThreadPerTaskExecutor("task-");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(VirtualThreads.factory("scheduling-"));
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsTomcatCustomizer() {
+        return factory -> factory.addConnectorCustomizers(connector ->
+                ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(requestExecutor));
+    }
+
+    @Bean(name = { TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME, AsyncAnnotationBeanPostProcessor.DEFAULT_TASK_EXECUTOR_BEAN_NAME })
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(taskExecutor);
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.setScheduler(scheduler);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        taskExecutor.shutdown();
+        requestExecutor.shutdown();
+    }
+
+    /**
+     * Reports the limits concurrent requests now run into, and where virtual threads are pinned.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void report() {
+        int maxConnections = serverProperties.getTomcat().getMaxConnections();
+        log.info(String.format("Virtual threads enabled [java.version: %s, server.tomcat.max-connections: %d]",
+                System.getProperty("java.version"), maxConnections));
+
+        if (dataSource instanceof HikariDataSource) {
+            HikariDataSource hikariDataSource = (HikariDataSource) dataSource;
+            if (hikariDataSource.getMaximumPoolSize() < maxConnections) {
+                log.warn(String.format("Up to %d requests can be served concurrently, but only %d of them can use the DB at once: the " +
+                        "others wait for a connection up to %d ms. Size the pool for what the DB can take " +
+                        "(spring.datasource.hikari.maximum-pool-size), and watch hikaricp.connections.pending", maxConnections,
+                        hikariDataSource.getMaximumPoolSize(), hikariDataSource.getConnectionTimeout()));
+            }
+        }
+
+        // Up to Java 23, a virtual thread blocked within a synchronized block (or waiting to enter it) pins its carrier
+        if (Integer.parseInt(System.getProperty("java.specification.version")) < 24) {
+            log.warn("Virtual threads are pinned to their carrier thread within synchronized blocks: the H2 driver " +
+                    "synchronizes every statement on its session, and so do parts of Hibernate and Tomcat. The application's own " +
+                    "shared state never synchronizes: the journal, timing wheel, commit sequence and reservation index are " +
+                    "guarded by java.util.concurrent locks, and calendars (on the heap or memory-mapped) are updated by " +
+                    "compare-and-set. Run with " +
+                    "-Djdk.tracePinnedThreads=short to report pinned threads as it happens");
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    /**
+     * The JSON converters also write NDJSON, so that errors of NDJSON endpoints (e.g. reservations export) are answered
+     * as a single JSON line instead of 406 (Not Acceptable).
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.stream().filter(MappingJackson2HttpMessageConverter.class::isInstance).map(MappingJackson2HttpMessageConverter.class::cast)
+                .forEach(converter -> {
+                    List<MediaType> mediaTypes = new ArrayList<>(converter.getSupportedMediaTypes());
+                    mediaTypes.add(MediaType.parseMediaType(ApiResponseEntity.APPLICATION_NDJSON_VALUE));
+                    converter.setSupportedMediaTypes(mediaTypes);
+                });
+    }
+}
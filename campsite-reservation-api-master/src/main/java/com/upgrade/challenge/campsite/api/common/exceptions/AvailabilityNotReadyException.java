@@ -0,0 +1,4 @@
+package com.upgrade.challenge.campsite.api.common.exceptions;
+
+public class AvailabilityNotReadyException extends RuntimeException {
+}
@@ -0,0 +1,14 @@
+package com.upgrade.challenge.campsite.api.common.exceptions;
+
+import com.upgrade.challenge.campsite.api.reservation.BulkReservationResultDto;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+@Getter
+@RequiredArgsConstructor
+public class BulkReservationException extends RuntimeException {
+
+    private final transient List<BulkReservationResultDto> results;
+}
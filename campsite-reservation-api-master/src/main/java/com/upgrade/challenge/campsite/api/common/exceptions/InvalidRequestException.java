@@ -0,0 +1,15 @@
+package com.upgrade.challenge.campsite.api.common.exceptions;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.validation.BindingResult;
+
+/**
+ * Request body found invalid once validated explicitly, rather than on binding (cf. MethodArgumentNotValidException).
+ */
+@Getter
+@RequiredArgsConstructor
+public class InvalidRequestException extends RuntimeException {
+
+    private final transient BindingResult bindingResult;
+}
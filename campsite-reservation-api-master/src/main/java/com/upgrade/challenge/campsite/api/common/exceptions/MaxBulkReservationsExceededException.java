@@ -0,0 +1,11 @@
+package com.upgrade.challenge.campsite.api.common.exceptions;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+@Getter
+@RequiredArgsConstructor
+public class MaxBulkReservationsExceededException extends RuntimeException {
+
+    private final Integer bulkMaxSize;
+}
@@ -0,0 +1,40 @@
+package com.upgrade.challenge.campsite.api.hold;
+
+import com.upgrade.challenge.campsite.api.Campsite;
+import com.upgrade.challenge.campsite.api.common.BaseEntity;
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Sites taken for every night of a stay until the hold expires, unless promoted to a reservation (or released) before.
+ * Deleted along with its Campsite.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = true, onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "holds")
+public class Hold extends BaseEntity {
+
+    @Column(name = "campsite_id", nullable = false)
+    private UUID campsiteId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "campsite_id", insertable = false, updatable = false, foreignKey = @ForeignKey(name = "fk_holds_campsite"))
+    private Campsite campsite;
+
+    @Column(nullable = false)
+    private LocalDate checkIn;
+
+    @Column(nullable = false)
+    private LocalDate checkOut;
+
+    @Column(nullable = false)
+    private LocalDateTime expires;
+}
@@ -0,0 +1,39 @@
+package com.upgrade.challenge.campsite.api.hold;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.constraints.Future;
+import javax.validation.constraints.FutureOrPresent;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HoldDto {
+
+    private UUID id;
+
+    @NotNull
+    @FutureOrPresent
+    private LocalDate checkIn;
+
+    @NotNull
+    @Future
+    private LocalDate checkOut;
+
+    /**
+     * Seconds the hold lasts (by default 'api.campsite.hold.ttl', max 'api.campsite.hold.max-ttl').
+     */
+    @Positive
+    private Long ttl;
+
+    private LocalDateTime expires;
+}
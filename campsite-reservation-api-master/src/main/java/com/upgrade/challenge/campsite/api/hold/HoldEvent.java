@@ -0,0 +1,27 @@
+package com.upgrade.challenge.campsite.api.hold;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Published whenever a hold is made, released, expired or promoted to a reservation (in which case a
+ * {@link com.upgrade.challenge.campsite.api.reservation.ReservationEvent} is published as well). Listeners are expected
+ * to handle it once the transaction commits.
+ */
+@Getter
+@Builder
+public class HoldEvent {
+
+    private final Type type;
+    private final UUID campsiteId;
+    private final UUID holdId;
+    private final LocalDate checkIn;
+    private final LocalDate checkOut;
+
+    public enum Type {
+        HELD, RELEASED, EXPIRED, PROMOTED
+    }
+}
@@ -0,0 +1,158 @@
+package com.upgrade.challenge.campsite.api.hold;
+
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendarRegistry;
+import com.upgrade.challenge.campsite.api.availability.CommitSequence;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import com.upgrade.challenge.campsite.api.common.TimingWheel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.sql.Date;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires holds through an in-memory {@link TimingWheel} ticking every 'api.campsite.hold.tick' ms, instead of
+ * polling the holds table. Holds due are released in batches of 'api.campsite.hold.expiry.batch-size', each in its own
+ * transaction: they are deleted (skipping the ones already promoted or released) and their nights given back through
+ * JDBC batches.
+ * <p>
+ * Holds are scheduled once made (and unscheduled once promoted or released), and loaded from the holds table at
+ * startup (the ones expired meanwhile being released on the first tick). Holds are scheduled once per id, even if
+ * made while loaded. Holds scheduled and expired are exposed as
+ * 'campsite.holds.scheduled' and 'campsite.holds.expired' metrics.
+ */
+@CommonsLog
+@Component
+public class HoldExpiry {
+
+    private static final String DELETE_HOLD = "delete from holds where id = ?";
+    private static final String RELEASE_SITES = "update availabilities set sites = sites + 1, version = version + 1 " +
+            "where campsite_id = ? and (date >= ? and date < ?)";
+
+    private final long tick;
+    private final int batchSize;
+    private final TimingWheel<Hold> timingWheel;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "hold-expiry"));
+    private final HoldRepository holdRepository;
+    private final AvailabilityCalendarRegistry availabilityCalendarRegistry;
+    private final CommitSequence commitSequence;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public HoldExpiry(@Value("${api.campsite.hold.tick}") Long tick,
+                      @Value("${api.campsite.hold.wheel-size}") Integer wheelSize,
+                      @Value("${api.campsite.hold.expiry.batch-size}") Integer batchSize,
+                      HoldRepository holdRepository,
+                      AvailabilityCalendarRegistry availabilityCalendarRegistry,
+                      CommitSequence commitSequence,
+                      ApplicationEventPublisher applicationEventPublisher,
+                      JdbcTemplate jdbcTemplate,
+                      TransactionTemplate transactionTemplate,
+                      MeterRegistry meterRegistry) {
+        this.tick = tick;
+        this.batchSize = batchSize;
+        this.timingWheel = new TimingWheel<>(tick, wheelSize, System.currentTimeMillis());
+        this.holdRepository = holdRepository;
+        this.availabilityCalendarRegistry = availabilityCalendarRegistry;
+        this.commitSequence = commitSequence;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+
+        Gauge.builder("campsite.holds.scheduled", timingWheel, TimingWheel::size)
+                .description("Holds scheduled to expire")
+                .register(meterRegistry);
+    }
+
+    public void load() {
+        List<Hold> holds = holdRepository.findAll();
+        holds.forEach(this::schedule);
+
+        log.debug(String.format("Holds scheduled [holds: %d]", holds.size()));
+
+        ticker.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    public void schedule(Hold hold) {
+        timingWheel.add(hold, hold.getExpires().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    /**
+     * Unschedules the given hold, once promoted or released.
+     */
+    public void cancel(Hold hold) {
+        timingWheel.cancel(hold);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdown();
+    }
+
+    private void tick() {
+        try {
+            List<Hold> holds = timingWheel.advance(System.currentTimeMillis());
+
+            for (int from = 0; from < holds.size(); from += batchSize) {
+                this.expire(holds.subList(from, Math.min(from + batchSize, holds.size())));
+            }
+        }
+        catch (RuntimeException exception) {
+            // Holds not released are left in the table, to be released on next startup
+            log.error("Holds not expired", exception);
+        }
+    }
+
+    private void expire(List<Hold> holds) {
+        List<Hold> expiredHolds = transactionTemplate.execute(status -> {
+            int[] deleted = Arrays.stream(jdbcTemplate.batchUpdate(DELETE_HOLD, holds, holds.size(),
+                    (statement, hold) -> statement.setBytes(1, Helper.toBytes(hold.getId()))))
+                    .flatMapToInt(Arrays::stream).toArray();
+
+            // Holds already promoted or released are skipped
+            List<Hold> deletedHolds = new ArrayList<>();
+            for (int i = 0; i < holds.size(); i++) {
+                if (deleted[i] > 0) {
+                    deletedHolds.add(holds.get(i));
+                    commitSequence.track(holds.get(i).getCampsiteId());
+                }
+            }
+
+            jdbcTemplate.batchUpdate(RELEASE_SITES, deletedHolds, holds.size(), (statement, hold) -> {
+                statement.setBytes(1, Helper.toBytes(hold.getCampsiteId()));
+                statement.setDate(2, Date.valueOf(hold.getCheckIn()));
+                statement.setDate(3, Date.valueOf(hold.getCheckOut()));
+            });
+
+            Helper.afterCommit(() -> deletedHolds.forEach(hold ->
+                    availabilityCalendarRegistry.release(hold.getCampsiteId(), hold.getCheckIn(), hold.getCheckOut())));
+            deletedHolds.forEach(hold -> applicationEventPublisher.publishEvent(HoldEvent.builder().type(HoldEvent.Type.EXPIRED)
+                    .campsiteId(hold.getCampsiteId()).holdId(hold.getId()).checkIn(hold.getCheckIn()).checkOut(hold.getCheckOut()).build()));
+
+            return deletedHolds;
+        });
+
+        if (!expiredHolds.isEmpty()) {
+            meterRegistry.counter("campsite.holds.expired").increment(expiredHolds.size());
+            log.debug(String.format("Holds expired [holds: %d, at: %s]", expiredHolds.size(), LocalDateTime.now()));
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.upgrade.challenge.campsite.api.hold;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface HoldRepository extends JpaRepository<Hold, UUID> {
+
+    Optional<Hold> findOneByIdAndCampsiteIdAndExpiresAfter(UUID id, UUID campsiteId, LocalDateTime now);
+
+    /**
+     * Deletes the given hold, so that it is either promoted, released or expired only once: the first transaction
+     * deleting it wins, the others find nothing to delete once it commits.
+     *
+     * @return Number of holds deleted (0 if already promoted, released or expired).
+     */
+    @Modifying
+    @Query("delete from Hold h where h.id = :id")
+    int deleteOneById(@Param("id") UUID id);
+}
@@ -0,0 +1,49 @@
+package com.upgrade.challenge.campsite.api.idempotency;
+
+import com.upgrade.challenge.campsite.api.common.BaseEntity;
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Response given to a request made with an Idempotency-Key (per Campsite), replayed to the requests repeating it
+ * until it expires.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode(callSuper = true, onlyExplicitlyIncluded = true)
+@Entity
+@Table(name = "idempotency_keys", uniqueConstraints = @UniqueConstraint(name = "uk_idempotency_keys_campsite_key", columnNames = {"campsite_id", "idempotency_key"}))
+public class IdempotencyKey extends BaseEntity {
+
+    public static final int MAX_LENGTH = 255;
+
+    @Column(name = "campsite_id", nullable = false)
+    private UUID campsiteId;
+
+    @Column(name = "idempotency_key", nullable = false, length = MAX_LENGTH)
+    private String key;
+
+    /**
+     * Hash of the request, so that a key cannot be reused for a different request.
+     */
+    @Column(nullable = false)
+    private String fingerprint;
+
+    @Column(nullable = false)
+    private Integer status;
+
+    @Column
+    private String location;
+
+    @Lob
+    @Column(nullable = false)
+    private String body;
+
+    @Column(nullable = false)
+    private LocalDateTime expires;
+}
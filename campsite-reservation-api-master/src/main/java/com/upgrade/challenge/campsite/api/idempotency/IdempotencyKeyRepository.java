@@ -0,0 +1,23 @@
+package com.upgrade.challenge.campsite.api.idempotency;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, UUID> {
+
+    Optional<IdempotencyKey> findOneByCampsiteIdAndKeyAndExpiresAfter(UUID campsiteId, String key, LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotencyKey k where k.expires <= :now")
+    int deleteAllExpired(@Param("now") LocalDateTime now);
+}
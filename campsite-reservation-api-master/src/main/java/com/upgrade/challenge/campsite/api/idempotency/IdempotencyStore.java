@@ -0,0 +1,226 @@
+package com.upgrade.challenge.campsite.api.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.upgrade.challenge.campsite.api.common.ConflictRetryTemplate;
+import com.upgrade.challenge.campsite.api.common.exceptions.IdempotencyKeyInProgressException;
+import com.upgrade.challenge.campsite.api.common.exceptions.IdempotencyKeyReusedException;
+import com.upgrade.challenge.campsite.api.common.exceptions.InvalidIdempotencyKeyException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Executes requests made with an Idempotency-Key at most once per key (and Campsite): the response is stored for
+ * 'api.campsite.reservation.idempotency.ttl' minutes, both in memory (bounded to
+ * 'api.campsite.reservation.idempotency.cache.max-size' keys) and in the idempotency_keys table, and replayed to any
+ * request repeating the key. Requests repeating a key still being executed wait for its response (up to
+ * 'api.campsite.reservation.idempotency.max-wait' seconds) instead of being executed as well.
+ * <p>
+ * Failed requests are not stored, so that they can be retried with the same key. A key cannot be reused for a
+ * different request. Executions and replays are counted as the 'campsite.idempotency' metric (tagged by result).
+ */
+@CommonsLog
+@Component
+public class IdempotencyStore {
+
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private final long ttl;
+    private final long maxWait;
+    private final Cache<String, Execution> executions;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final ConflictRetryTemplate conflictRetryTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    public IdempotencyStore(@Value("${api.campsite.reservation.idempotency.ttl}") Long ttl,
+                            @Value("${api.campsite.reservation.idempotency.cache.max-size}") Long maxSize,
+                            @Value("${api.campsite.reservation.idempotency.max-wait}") Long maxWait,
+                            IdempotencyKeyRepository idempotencyKeyRepository,
+                            ConflictRetryTemplate conflictRetryTemplate,
+                            TransactionTemplate transactionTemplate,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry) {
+        this.ttl = ttl;
+        this.executions = Caffeine.newBuilder().maximumSize(maxSize).expireAfterWrite(ttl, TimeUnit.MINUTES).build();
+        this.maxWait = maxWait;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.conflictRetryTemplate = conflictRetryTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Executes the given action, unless a request with the same key was already executed (or is being executed), in
+     * which case its response is replayed. The action is executed (and retried on conflicts, as the given operation)
+     * within the same transaction the key is stored in, so that it is undone if the key turns out to be stored
+     * concurrently, e.g. by another instance: the response stored is replayed instead. Hence, actions must defer what
+     * the transaction cannot undo (e.g. queuing a reservation) until it commits (see Helper#afterCommit).
+     *
+     * @param request Request the action is executed for, to tell whether the key is reused for a different request.
+     * @throws IdempotencyKeyInProgressException If the request with the same key is still being executed after
+     *                                           'api.campsite.reservation.idempotency.max-wait' seconds.
+     */
+    public ResponseEntity<?> execute(String operation, UUID campsiteId, String key, Object request, Supplier<ResponseEntity<?>> action) {
+        if (key.isEmpty() || key.length() > IdempotencyKey.MAX_LENGTH) {
+            throw new InvalidIdempotencyKeyException(IdempotencyKey.MAX_LENGTH);
+        }
+
+        String fingerprint = this.getFingerprint(request);
+
+        Execution execution = new Execution(fingerprint);
+        Execution existingExecution = executions.get(campsiteId + ":" + key, scopedKey ->
+                idempotencyKeyRepository.findOneByCampsiteIdAndKeyAndExpiresAfter(campsiteId, key, LocalDateTime.now())
+                        .map(Execution::of).orElse(execution));
+
+        if (!existingExecution.fingerprint.equals(fingerprint)) {
+            throw new IdempotencyKeyReusedException(key);
+        }
+
+        if (existingExecution != execution) {
+            meterRegistry.counter("campsite.idempotency", "result", existingExecution.response.isDone() ? "replayed" : "collapsed").increment();
+            return this.replay(key, existingExecution);
+        }
+
+        try {
+            AtomicReference<IdempotencyKey> storedKey = new AtomicReference<>();
+            ResponseEntity<?> responseEntity = conflictRetryTemplate.execute(operation, () -> transactionTemplate.execute(status -> {
+                ResponseEntity<?> response = action.get();
+
+                storedKey.set(idempotencyKeyRepository.saveAndFlush(IdempotencyKey.builder().campsiteId(campsiteId).key(key).fingerprint(fingerprint)
+                        .status(response.getStatusCodeValue())
+                        .location(response.getHeaders().getLocation() != null ? response.getHeaders().getLocation().toString() : null)
+                        .body(this.toJson(response.getBody()))
+                        .expires(LocalDateTime.now().plusMinutes(ttl))
+                        .build()));
+                return response;
+            }));
+            execution.response.complete(storedKey.get());
+            meterRegistry.counter("campsite.idempotency", "result", "executed").increment();
+
+            return responseEntity;
+        }
+        catch (DataIntegrityViolationException exception) {
+            Optional<IdempotencyKey> idempotencyKey = idempotencyKeyRepository.findOneByCampsiteIdAndKeyAndExpiresAfter(campsiteId, key, LocalDateTime.now());
+            if (!idempotencyKey.isPresent()) {
+                throw this.fail(campsiteId, key, execution, exception);
+            }
+
+            log.warn(String.format("Idempotency key stored concurrently, its response is replayed [campsite: %s, key: %s]", campsiteId, key));
+            executions.put(campsiteId + ":" + key, Execution.of(idempotencyKey.get()));
+            if (!idempotencyKey.get().getFingerprint().equals(fingerprint)) {
+                throw this.fail(campsiteId, key, execution, new IdempotencyKeyReusedException(key));
+            }
+
+            execution.response.complete(idempotencyKey.get());
+            meterRegistry.counter("campsite.idempotency", "result", "replayed").increment();
+            return this.replay(idempotencyKey.get());
+        }
+        catch (RuntimeException exception) {
+            throw this.fail(campsiteId, key, execution, exception);
+        }
+    }
+
+    @Scheduled(cron = "${api.campsite.availability.maintenance-cron}")
+    public void purge() {
+        int purgedKeys = idempotencyKeyRepository.deleteAllExpired(LocalDateTime.now());
+
+        if (purgedKeys > 0) {
+            log.info(String.format("Idempotency keys purged [keys: %d]", purgedKeys));
+        }
+    }
+
+    private RuntimeException fail(UUID campsiteId, String key, Execution execution, RuntimeException exception) {
+        // Not stored, so that the request can be retried with the same key
+        executions.asMap().remove(campsiteId + ":" + key, execution);
+        execution.response.completeExceptionally(exception);
+        return exception;
+    }
+
+    private ResponseEntity<?> replay(String key, Execution execution) {
+        try {
+            return this.replay(execution.response.get(maxWait, TimeUnit.SECONDS));
+        }
+        catch (ExecutionException exception) {
+            throw (RuntimeException) exception.getCause();
+        }
+        catch (TimeoutException exception) {
+            throw new IdempotencyKeyInProgressException(key);
+        }
+        catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyKeyInProgressException(key);
+        }
+    }
+
+    private ResponseEntity<?> replay(IdempotencyKey idempotencyKey) {
+        ResponseEntity.BodyBuilder responseEntity = ResponseEntity.status(idempotencyKey.getStatus())
+                .contentType(MediaType.APPLICATION_JSON_UTF8)
+                .header(REPLAYED_HEADER, Boolean.TRUE.toString());
+        if (idempotencyKey.getLocation() != null) {
+            responseEntity.location(URI.create(idempotencyKey.getLocation()));
+        }
+
+        try {
+            return responseEntity.body(objectMapper.readTree(idempotencyKey.getBody()));
+        }
+        catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private String getFingerprint(Object request) {
+        return DigestUtils.md5DigestAsHex(this.toJson(request).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        }
+        catch (JsonProcessingException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private static class Execution {
+
+        private final String fingerprint;
+        private final CompletableFuture<IdempotencyKey> response = new CompletableFuture<>();
+
+        private Execution(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private static Execution of(IdempotencyKey idempotencyKey) {
+            Execution execution = new Execution(idempotencyKey.getFingerprint());
+            execution.response.complete(idempotencyKey);
+            return execution;
+        }
+    }
+}
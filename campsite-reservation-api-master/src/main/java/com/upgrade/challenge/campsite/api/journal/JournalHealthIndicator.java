@@ -0,0 +1,30 @@
+package com.upgrade.challenge.campsite.api.journal;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the journal as DOWN while its last sync failed (see {@link ReservationJournal}), since the commands committed
+ * meanwhile may not survive a crash.
+ */
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "api.campsite.journal.enabled", havingValue = "true")
+public class JournalHealthIndicator extends AbstractHealthIndicator {
+
+    private final ReservationJournal reservationJournal;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        RuntimeException syncFailure = reservationJournal.getSyncFailure();
+        if (syncFailure == null) {
+            builder.up();
+        }
+        else {
+            builder.down(syncFailure);
+        }
+    }
+}
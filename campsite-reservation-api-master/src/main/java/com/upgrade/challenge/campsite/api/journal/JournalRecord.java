@@ -0,0 +1,102 @@
+package com.upgrade.challenge.campsite.api.journal;
+
+import com.upgrade.challenge.campsite.api.Campsite;
+import com.upgrade.challenge.campsite.api.reservation.Reservation;
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Command committed on a Campsite or a Reservation, as appended to the {@link ReservationJournal}. It is published
+ * (as an application event) from within the transaction applying it, along with the resulting state of the entity, so
+ * that replaying the records in order only needs the last one of each entity.
+ * <p>
+ * Records are written as a fixed sequence of fields (see {@link #write(DataOutput)}), about 100 bytes each.
+ */
+@Value
+@Builder(toBuilder = true)
+public class JournalRecord {
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Type type;
+    private final UUID id;
+    private final UUID campsiteId;
+    private final String name;
+    private final String email;
+    private final int capacity;
+    private final LocalDate checkIn;
+    private final LocalDate checkOut;
+    private final LocalDateTime timestamp;
+
+    public enum Type {
+        CAMPSITE_CREATED, CAMPSITE_UPDATED, CAMPSITE_DELETED, RESERVATION_CREATED, RESERVATION_MODIFIED, RESERVATION_CANCELLED
+    }
+
+    public static JournalRecord of(Type type, Campsite campsite) {
+        return JournalRecord.builder().type(type).id(campsite.getId()).campsiteId(campsite.getId()).name(campsite.getName())
+                .capacity(campsite.getCapacity() != null ? campsite.getCapacity() : 0).timestamp(LocalDateTime.now()).build();
+    }
+
+    public static JournalRecord of(Type type, Reservation reservation) {
+        return JournalRecord.builder().type(type).id(reservation.getId()).campsiteId(reservation.getCampsite().getId())
+                .name(reservation.getName()).email(reservation.getEmail()).checkIn(reservation.getCheckIn())
+                .checkOut(reservation.getCheckOut()).timestamp(LocalDateTime.now()).build();
+    }
+
+    public static JournalRecord deleted(UUID campsiteId) {
+        return JournalRecord.builder().type(Type.CAMPSITE_DELETED).id(campsiteId).campsiteId(campsiteId).timestamp(LocalDateTime.now()).build();
+    }
+
+    public boolean isCampsite() {
+        return type == Type.CAMPSITE_CREATED || type == Type.CAMPSITE_UPDATED || type == Type.CAMPSITE_DELETED;
+    }
+
+    public void write(DataOutput output) throws IOException {
+        output.writeByte(type.ordinal());
+        writeUUID(output, id);
+        writeUUID(output, campsiteId);
+        output.writeUTF(name != null ? name : "");
+        output.writeUTF(email != null ? email : "");
+        output.writeInt(capacity);
+        output.writeLong(checkIn != null ? checkIn.toEpochDay() : NO_DATE);
+        output.writeLong(checkOut != null ? checkOut.toEpochDay() : NO_DATE);
+        output.writeLong(timestamp.toInstant(ZoneOffset.UTC).toEpochMilli());
+    }
+
+    public static JournalRecord read(DataInput input) throws IOException {
+        return JournalRecord.builder()
+                .type(Type.values()[input.readByte()])
+                .id(readUUID(input))
+                .campsiteId(readUUID(input))
+                .name(input.readUTF())
+                .email(input.readUTF())
+                .capacity(input.readInt())
+                .checkIn(readDate(input))
+                .checkOut(readDate(input))
+                .timestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(input.readLong()), ZoneOffset.UTC))
+                .build();
+    }
+
+    private static void writeUUID(DataOutput output, UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInput input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    private static LocalDate readDate(DataInput input) throws IOException {
+        long epochDay = input.readLong();
+        return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+    }
+}
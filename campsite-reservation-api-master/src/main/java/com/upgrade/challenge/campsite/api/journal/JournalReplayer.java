@@ -0,0 +1,119 @@
+package com.upgrade.challenge.campsite.api.journal;
+
+import com.upgrade.challenge.campsite.api.Campsite;
+import com.upgrade.challenge.campsite.api.CampsiteRepository;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityInitializer;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import com.upgrade.challenge.campsite.api.reservation.Reservation;
+import com.upgrade.challenge.campsite.api.reservation.ReservationBatchWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Replays the state recovered from the {@link ReservationJournal} into the DB: Campsites deleted, updated and created
+ * first, then their availability initialized, and finally every Reservation inserted, its nights taken and linked, all
+ * through JDBC batches.
+ */
+@CommonsLog
+@RequiredArgsConstructor
+@Component
+@ConditionalOnProperty(name = "api.campsite.journal.enabled", havingValue = "true")
+public class JournalReplayer {
+
+    private static final String INSERT_CAMPSITE = "insert into campsites (id, created, updated, name, capacity) values (?, ?, ?, ?, ?)";
+    private static final String UPDATE_CAMPSITE = "update campsites set name = ?, updated = ? where id = ?";
+    private static final String INSERT_RESERVATION =
+            "insert into reservations (id, created, updated, name, email, check_in, check_out, campsite_id) values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final CampsiteRepository campsiteRepository;
+    private final AvailabilityInitializer availabilityInitializer;
+    private final ReservationBatchWriter reservationBatchWriter;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public void replay(JournalState state) {
+        if (state.getCampsites().isEmpty() && state.getDeletedCampsites().isEmpty() && state.getReservations().isEmpty()) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+
+        transactionTemplate.execute(status -> {
+            state.getDeletedCampsites().stream().filter(campsiteRepository::existsById).forEach(campsiteRepository::deleteById);
+
+            Set<UUID> campsiteIds = new HashSet<>(campsiteRepository.findAllIds());
+            Map<Boolean, List<JournalRecord>> campsites = state.getCampsites().values().stream()
+                    .collect(Collectors.partitioningBy(campsite -> campsiteIds.contains(campsite.getId())));
+
+            jdbcTemplate.batchUpdate(UPDATE_CAMPSITE, campsites.get(true), Math.max(campsites.get(true).size(), 1), (statement, campsite) -> {
+                statement.setString(1, campsite.getName());
+                statement.setTimestamp(2, now);
+                statement.setBytes(3, Helper.toBytes(campsite.getId()));
+            });
+            jdbcTemplate.batchUpdate(INSERT_CAMPSITE, campsites.get(false), Math.max(campsites.get(false).size(), 1), (statement, campsite) -> {
+                statement.setBytes(1, Helper.toBytes(campsite.getId()));
+                statement.setTimestamp(2, Timestamp.valueOf(campsite.getTimestamp()));
+                statement.setTimestamp(3, now);
+                statement.setString(4, campsite.getName());
+                statement.setInt(5, campsite.getCapacity());
+            });
+
+            return null;
+        });
+
+        availabilityInitializer.initialize();
+
+        int claimedNights = transactionTemplate.execute(status -> {
+            Set<UUID> campsiteIds = new HashSet<>(campsiteRepository.findAllIds());
+            List<JournalRecord> records = state.getReservations().values().stream()
+                    .filter(reservation -> campsiteIds.contains(reservation.getCampsiteId()))
+                    .collect(Collectors.toList());
+            if (records.isEmpty()) {
+                return 0;
+            }
+
+            jdbcTemplate.batchUpdate(INSERT_RESERVATION, records, records.size(), (statement, reservation) -> {
+                statement.setBytes(1, Helper.toBytes(reservation.getId()));
+                statement.setTimestamp(2, Timestamp.valueOf(reservation.getTimestamp()));
+                statement.setTimestamp(3, now);
+                statement.setString(4, reservation.getName());
+                statement.setString(5, reservation.getEmail());
+                statement.setDate(6, Date.valueOf(reservation.getCheckIn()));
+                statement.setDate(7, Date.valueOf(reservation.getCheckOut()));
+                statement.setBytes(8, Helper.toBytes(reservation.getCampsiteId()));
+            });
+
+            List<Reservation> reservations = records.stream().map(this::toReservation).collect(Collectors.toList());
+            int nights = Arrays.stream(reservationBatchWriter.claimSites(reservations)).sum();
+            reservationBatchWriter.linkReservations(reservations);
+
+            return nights;
+        });
+
+        // Nights older than the availability retention period are no longer taken
+        log.info(String.format("Journal replayed [campsites: %d, reservations: %d, nights: %d, elapsed: %d ms]", state.getCampsites().size(),
+                state.getReservations().size(), claimedNights, System.currentTimeMillis() - start));
+    }
+
+    private Reservation toReservation(JournalRecord record) {
+        Campsite campsite = new Campsite();
+        campsite.setId(record.getCampsiteId());
+
+        Reservation reservation = Reservation.builder().name(record.getName()).email(record.getEmail()).checkIn(record.getCheckIn())
+                .checkOut(record.getCheckOut()).campsite(campsite).build();
+        reservation.setId(record.getId());
+
+        return reservation;
+    }
+}
@@ -0,0 +1,103 @@
+package com.upgrade.challenge.campsite.api.journal;
+
+import lombok.Getter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * State the journal folds into: the last record of every Campsite and Reservation still existing, along with the
+ * Campsites deleted that were not created through the journal (e.g. the ones inserted at startup). Reservations are
+ * kept in the order they were first made.
+ * <p>
+ * It is what snapshots are made of (see {@link #write(DataOutput)}), so that replaying them costs as many records as
+ * Campsites and Reservations exist, whatever the number of commands applied.
+ */
+@Getter
+public class JournalState {
+
+    private long sequence;
+    private final Map<UUID, JournalRecord> campsites = new LinkedHashMap<>();
+    private final Set<UUID> deletedCampsites = new HashSet<>();
+    private final Map<UUID, JournalRecord> reservations = new LinkedHashMap<>();
+
+    /**
+     * Applies the given record, unless already applied (i.e. folded into the snapshot it was read from).
+     */
+    public void apply(long sequence, JournalRecord record) {
+        if (sequence <= this.sequence) {
+            return;
+        }
+        this.sequence = sequence;
+
+        switch (record.getType()) {
+            case CAMPSITE_CREATED:
+            case CAMPSITE_UPDATED:
+                // Capacity can only be set on creation, and the first record's timestamp is kept as creation date
+                JournalRecord campsite = campsites.get(record.getId());
+                campsites.put(record.getId(), campsite != null ? campsite.toBuilder().name(record.getName()).build() : record);
+                break;
+            case CAMPSITE_DELETED:
+                if (campsites.remove(record.getId()) == null) {
+                    deletedCampsites.add(record.getId());
+                }
+                reservations.values().removeIf(reservation -> reservation.getCampsiteId().equals(record.getId()));
+                break;
+            case RESERVATION_CREATED:
+            case RESERVATION_MODIFIED:
+                JournalRecord reservation = reservations.get(record.getId());
+                reservations.put(record.getId(), reservation != null ? record.toBuilder().timestamp(reservation.getTimestamp()).build() : record);
+                break;
+            case RESERVATION_CANCELLED:
+                reservations.remove(record.getId());
+                break;
+        }
+    }
+
+    public void write(DataOutput output) throws IOException {
+        output.writeLong(sequence);
+
+        output.writeInt(campsites.size());
+        for (JournalRecord campsite : campsites.values()) {
+            campsite.write(output);
+        }
+
+        output.writeInt(deletedCampsites.size());
+        for (UUID campsiteId : deletedCampsites) {
+            output.writeLong(campsiteId.getMostSignificantBits());
+            output.writeLong(campsiteId.getLeastSignificantBits());
+        }
+
+        output.writeInt(reservations.size());
+        for (JournalRecord reservation : reservations.values()) {
+            reservation.write(output);
+        }
+    }
+
+    public static JournalState read(DataInput input) throws IOException {
+        JournalState state = new JournalState();
+        state.sequence = input.readLong();
+
+        for (int i = input.readInt(); i > 0; i--) {
+            JournalRecord campsite = JournalRecord.read(input);
+            state.campsites.put(campsite.getId(), campsite);
+        }
+
+        for (int i = input.readInt(); i > 0; i--) {
+            state.deletedCampsites.add(new UUID(input.readLong(), input.readLong()));
+        }
+
+        for (int i = input.readInt(); i > 0; i--) {
+            JournalRecord reservation = JournalRecord.read(input);
+            state.reservations.put(reservation.getId(), reservation);
+        }
+
+        return state;
+    }
+}
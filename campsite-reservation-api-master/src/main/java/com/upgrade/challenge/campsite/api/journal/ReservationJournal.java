@@ -0,0 +1,442 @@
+package com.upgrade.challenge.campsite.api.journal;
+
+import com.upgrade.challenge.campsite.api.common.Helper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only journal of the commands committed on Campsites and Reservations ({@link JournalRecord}), so
+ * that they survive restarts of the in-memory DB ('api.campsite.journal.enabled', disabled by default).
+ * <p>
+ * Records are appended to memory-mapped segment files of 'api.campsite.journal.segment-size' bytes, right before the
+ * transaction commits (while its locks are still held, so that conflicting commands are journaled in the order they are
+ * committed), and the transaction waits for them to be synced to disk once committed. Segments are synced by a single
+ * thread every 'api.campsite.journal.sync-interval' ms (group sync), so that all the transactions committed meanwhile
+ * share the same fsync. Records of transactions rolled back after being appended are cancelled by an abort record.
+ * A failed sync does not fail the transactions already committed: it is logged, counted as the
+ * 'campsite.journal.sync.failures' metric and reported by {@link JournalHealthIndicator} until the next sync succeeds.
+ * Segments rolled are unmapped by the syncing thread, once synced.
+ * <p>
+ * Every 'api.campsite.journal.snapshot-interval' minutes, the segments written since the last snapshot are folded into
+ * a new snapshot ({@link JournalState}: the last state of every Campsite and Reservation) and deleted. At startup, the
+ * snapshot and the segments written after it are read back and replayed into the DB (see {@link JournalReplayer})
+ * before any other startup task is run, and a new segment is started.
+ * <p>
+ * Holds are not journaled: they are short-lived and expire anyway.
+ */
+@CommonsLog
+@Component
+@ConditionalOnProperty(name = "api.campsite.journal.enabled", havingValue = "true")
+public class ReservationJournal {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final byte RECORD = 0;
+    private static final byte ABORT = 1;
+    private static final long SETTLE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final JournalReplayer journalReplayer;
+    private final Counter syncFailures;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "journal-sync"));
+    private final ConcurrentSkipListSet<Long> unsettled = new ConcurrentSkipListSet<>();
+    // Not a monitor, so that (virtual) request threads are not pinned while a segment is rolled
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private JournalState recovered;
+    private long sequence;
+    private long snapshotSequence;
+    private MappedByteBuffer segment;
+    private final List<MappedByteBuffer> rolledSegments = new ArrayList<>();
+    private boolean dirty;
+    private CompletableFuture<Void> pendingSync = new CompletableFuture<>();
+    private volatile RuntimeException syncFailure;
+
+    public ReservationJournal(@Value("${api.campsite.journal.directory}") String directory,
+                              @Value("${api.campsite.journal.segment-size}") Integer segmentSize,
+                              @Value("${api.campsite.journal.sync-interval}") Long syncInterval,
+                              @Value("${api.campsite.journal.snapshot-interval}") Long snapshotInterval,
+                              JournalReplayer journalReplayer,
+                              MeterRegistry meterRegistry) throws IOException {
+        this.directory = Files.createDirectories(Paths.get(directory));
+        this.segmentSize = segmentSize;
+        this.journalReplayer = journalReplayer;
+        this.syncFailures = Counter.builder("campsite.journal.sync.failures")
+                .description("Journal syncs failed, whose records may not survive a crash even though committed")
+                .register(meterRegistry);
+
+        SortedMap<Long, JournalRecord> records = new TreeMap<>();
+        Set<Long> aborted = new HashSet<>();
+        long lastSequence = this.read(this.getSegments(), records, aborted);
+
+        this.recovered = this.readSnapshot();
+        this.fold(records, aborted, recovered);
+        this.sequence = Math.max(lastSequence, recovered.getSequence());
+        this.snapshotSequence = recovered.getSequence();
+        this.roll();
+
+        scheduler.scheduleAtFixedRate(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Replays the recovered state into the DB, before the availability and reservations are loaded into memory.
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @EventListener(ApplicationReadyEvent.class)
+    public void replay() {
+        journalReplayer.replay(recovered);
+        recovered = null;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        scheduler.shutdown();
+        // Never synced by two threads at once
+        scheduler.awaitTermination(SETTLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        this.sync();
+    }
+
+    /**
+     * Returns the failure of the last sync, if it failed (null otherwise).
+     */
+    public RuntimeException getSyncFailure() {
+        return syncFailure;
+    }
+
+    /**
+     * Appends the given record once the current transaction is about to commit, and waits for it to be synced once
+     * committed (or right away, without a transaction).
+     */
+    @EventListener
+    public void onRecord(JournalRecord record) throws IOException {
+        byte[] body = this.encode(record);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            this.append(RECORD, body).join();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+            private long recordSequence;
+            private CompletableFuture<Void> synced;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                lock.lock();
+                try {
+                    synced = ReservationJournal.this.append(RECORD, body);
+                    recordSequence = sequence;
+                    unsettled.add(recordSequence);
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+
+            @Override
+            public void afterCommit() {
+                try {
+                    synced.join();
+                }
+                catch (CompletionException exception) {
+                    // Committed anyway: reported by the journal's health and metrics instead
+                    log.warn(String.format("Journal record committed but not synced [sequence: %d]", recordSequence));
+                }
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (synced == null) {
+                    return;
+                }
+
+                if (status != STATUS_COMMITTED) {
+                    ReservationJournal.this.append(ABORT, ByteBuffer.allocate(Long.BYTES).putLong(recordSequence).array());
+                }
+                unsettled.remove(recordSequence);
+            }
+        });
+    }
+
+    /**
+     * Folds the segments written since the last snapshot into a new one, once the transactions they were appended by
+     * are completed, and deletes them. The segment being written is only read for the abort records of those
+     * transactions.
+     */
+    void snapshot() {
+        long lastSequence;
+        List<Path> segments;
+        lock.lock();
+        try {
+            if (sequence == snapshotSequence) {
+                return;
+            }
+
+            this.roll();
+            lastSequence = sequence;
+            segments = this.getSegments();
+        }
+        finally {
+            lock.unlock();
+        }
+        List<Path> foldedSegments = segments.subList(0, segments.size() - 1);
+
+        try {
+            long timeout = System.currentTimeMillis() + SETTLE_TIMEOUT;
+            while (!unsettled.isEmpty() && unsettled.first() <= lastSequence) {
+                if (System.currentTimeMillis() > timeout) {
+                    log.warn("Journal snapshot skipped, transactions still in progress");
+                    return;
+                }
+                Thread.sleep(1);
+            }
+
+            SortedMap<Long, JournalRecord> records = new TreeMap<>();
+            Set<Long> aborted = new HashSet<>();
+            this.read(foldedSegments, records, aborted);
+            this.read(segments.subList(segments.size() - 1, segments.size()), new TreeMap<>(), aborted);
+
+            JournalState state = this.readSnapshot();
+            this.fold(records, aborted, state);
+            this.writeSnapshot(state);
+            for (Path segmentPath : foldedSegments) {
+                Files.delete(segmentPath);
+            }
+            snapshotSequence = lastSequence;
+
+            log.debug(String.format("Journal snapshot taken [sequence: %d, campsites: %d, reservations: %d]", state.getSequence(),
+                    state.getCampsites().size(), state.getReservations().size()));
+        }
+        catch (IOException | InterruptedException | RuntimeException exception) {
+            // Segments are kept until the next snapshot
+            log.error("Journal snapshot failed", exception);
+        }
+    }
+
+    private CompletableFuture<Void> append(byte kind, byte[] body) {
+        lock.lock();
+        try {
+            long recordSequence = ++sequence;
+            ByteBuffer payload = ByteBuffer.allocate(Long.BYTES + 1 + body.length).putLong(recordSequence).put(kind).put(body);
+
+            // Room for the record and for the empty length marking the end of the segment
+            if (segment.remaining() < 2 * Integer.BYTES + payload.capacity() + Integer.BYTES) {
+                this.roll();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            segment.putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array());
+            dirty = true;
+
+            return pendingSync;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Syncs the current segment, if written since last synced, and unmaps the segments rolled meanwhile (already synced
+     * when rolled). Only run by one thread at a time, so that no segment is unmapped while being synced.
+     */
+    void sync() {
+        List<MappedByteBuffer> unmappedSegments;
+        MappedByteBuffer syncedSegment = null;
+        CompletableFuture<Void> synced = null;
+        lock.lock();
+        try {
+            unmappedSegments = new ArrayList<>(rolledSegments);
+            rolledSegments.clear();
+            if (dirty) {
+                dirty = false;
+                syncedSegment = segment;
+                synced = pendingSync;
+                pendingSync = new CompletableFuture<>();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        unmappedSegments.forEach(Helper::unmap);
+        if (syncedSegment == null) {
+            return;
+        }
+
+        try {
+            this.force(syncedSegment);
+            syncFailure = null;
+            synced.complete(null);
+        }
+        catch (RuntimeException exception) {
+            log.error("Journal not synced", exception);
+            syncFailure = exception;
+            syncFailures.increment();
+            synced.completeExceptionally(exception);
+        }
+    }
+
+    void force(MappedByteBuffer segment) {
+        segment.force();
+    }
+
+    /**
+     * Starts a new segment, named after the sequence of its first record, once the current one is synced.
+     */
+    private void roll() {
+        lock.lock();
+        try {
+            if (segment != null) {
+                this.force(segment);
+                rolledSegments.add(segment);
+            }
+
+            Path segmentPath = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, sequence + 1, SEGMENT_SUFFIX));
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the records and abort records of the given segments, up to the first one incomplete or corrupted (i.e. not
+     * fully written before a crash).
+     *
+     * @return Last sequence read (0 if none).
+     */
+    private long read(List<Path> segments, SortedMap<Long, JournalRecord> records, Set<Long> aborted) throws IOException {
+        long lastSequence = 0;
+
+        for (Path segmentPath : segments) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            try {
+                while (buffer.remaining() >= 2 * Integer.BYTES) {
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining() - Integer.BYTES) {
+                        break;
+                    }
+
+                    int checksum = buffer.getInt();
+                    byte[] payload = new byte[length];
+                    buffer.get(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn(String.format("Journal segment truncated at a corrupted record [segment: %s]", segmentPath));
+                        break;
+                    }
+
+                    DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+                    long recordSequence = input.readLong();
+                    if (input.readByte() == ABORT) {
+                        aborted.add(input.readLong());
+                    }
+                    else {
+                        records.put(recordSequence, JournalRecord.read(input));
+                    }
+                    lastSequence = Math.max(lastSequence, recordSequence);
+                }
+            }
+            finally {
+                Helper.unmap(buffer);
+            }
+        }
+
+        return lastSequence;
+    }
+
+    private void fold(SortedMap<Long, JournalRecord> records, Set<Long> aborted, JournalState state) {
+        records.forEach((recordSequence, record) -> {
+            if (!aborted.contains(recordSequence)) {
+                state.apply(recordSequence, record);
+            }
+        });
+    }
+
+    private JournalState readSnapshot() throws IOException {
+        Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(snapshotPath)) {
+            return new JournalState();
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)))) {
+            return JournalState.read(input);
+        }
+    }
+
+    /**
+     * Writes the given state to a temporary file first, which then replaces the snapshot (once synced), so that a crash
+     * never leaves a partial snapshot behind.
+     */
+    private void writeSnapshot(JournalState state) throws IOException {
+        Path temporaryPath = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fileOutput = new FileOutputStream(temporaryPath.toFile());
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput))) {
+            state.write(output);
+            output.flush();
+            fileOutput.getFD().sync();
+        }
+
+        Files.move(temporaryPath, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Path> getSegments() {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private byte[] encode(JournalRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        record.write(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
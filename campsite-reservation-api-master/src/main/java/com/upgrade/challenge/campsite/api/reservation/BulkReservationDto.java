@@ -0,0 +1,37 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkReservationDto {
+
+    public enum Mode {
+        /**
+         * Either every reservation is made, or none of them.
+         */
+        ALL_OR_NOTHING,
+        /**
+         * Every reservation that can be made is made, regardless of the others.
+         */
+        BEST_EFFORT
+    }
+
+    @NotNull
+    @Builder.Default
+    private Mode mode = Mode.ALL_OR_NOTHING;
+
+    @NotEmpty
+    @Valid
+    private List<BulkReservationItemDto> reservations;
+}
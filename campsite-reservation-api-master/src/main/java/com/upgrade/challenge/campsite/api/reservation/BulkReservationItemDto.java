@@ -0,0 +1,30 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import java.util.UUID;
+
+/**
+ * Reservation of a bulk request, along with the Campsite it is made for (reservation fields are unwrapped, so that
+ * each item reads as a plain reservation with a 'campsiteId').
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkReservationItemDto {
+
+    @NotNull
+    private UUID campsiteId;
+
+    @NotNull
+    @Valid
+    @JsonUnwrapped
+    private ReservationDto reservation;
+}
@@ -0,0 +1,45 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Result of each reservation of a bulk request, in the order they were requested.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkReservationResultDto {
+
+    public enum Status {
+        CREATED,
+        FAILED,
+        /**
+         * Could have been made, but was not (or was rolled back) since another reservation failed (all-or-nothing).
+         */
+        ROLLED_BACK
+    }
+
+    private Integer index;
+
+    private UUID campsiteId;
+
+    private Status status;
+
+    private ReservationDto reservation;
+
+    private List<String> errors;
+
+    /**
+     * Failure cause, resolved into errors (the same ones a single reservation would fail with) before being answered.
+     */
+    @JsonIgnore
+    private RuntimeException exception;
+}
@@ -0,0 +1,24 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OccupancyDto {
+
+    private LocalDate start;
+
+    private LocalDate end;
+
+    private Integer maxOccupancy;
+
+    private List<ReservationDto> reservations;
+}
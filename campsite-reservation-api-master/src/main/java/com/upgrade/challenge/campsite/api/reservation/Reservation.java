@@ -16,7 +16,7 @@ import java.util.Set;
 @AllArgsConstructor
 @EqualsAndHashCode(callSuper = true, onlyExplicitlyIncluded = true)
 @Entity
-@Table(name = "reservations")
+@Table(name = "reservations", indexes = @Index(name = "idx_reservations_campsite_created_id", columnList = "campsite_id, created, id"))
 public class Reservation extends BaseEntity {
 
     @Column(nullable = false)
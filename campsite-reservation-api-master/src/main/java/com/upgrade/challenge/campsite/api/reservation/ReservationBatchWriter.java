@@ -0,0 +1,54 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import com.upgrade.challenge.campsite.api.common.Helper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Date;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the availability changes of many reservations at once, through JDBC batches rather than one statement (and
+ * one round trip) per reservation. Statements are the same as the ones of {@link com.upgrade.challenge.campsite.api.availability.AvailabilityRepository}
+ * and must run within the current transaction.
+ */
+@RequiredArgsConstructor
+@Component
+public class ReservationBatchWriter {
+
+    private static final String CLAIM_SITES = "update availabilities set sites = sites - 1, version = version + 1 " +
+            "where campsite_id = ? and (date >= ? and date < ?) and sites > 0";
+    private static final String LINK_RESERVATION = "insert into reservations_availabilities (availability_id, reservation_id) " +
+            "select a.id, ? from availabilities a where a.campsite_id = ? and (a.date >= ? and a.date < ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Takes a site for every night of each reservation having at least one available site.
+     *
+     * @return Number of nights a site was taken for, per reservation.
+     */
+    public int[] claimSites(List<Reservation> reservations) {
+        int[][] counts = jdbcTemplate.batchUpdate(CLAIM_SITES, reservations, reservations.size(), (statement, reservation) -> {
+            statement.setBytes(1, Helper.toBytes(reservation.getCampsite().getId()));
+            statement.setDate(2, Date.valueOf(reservation.getCheckIn()));
+            statement.setDate(3, Date.valueOf(reservation.getCheckOut()));
+        });
+
+        return Arrays.stream(counts).flatMapToInt(Arrays::stream).toArray();
+    }
+
+    /**
+     * Links each (already persisted) reservation to the availabilities of its nights.
+     */
+    public void linkReservations(List<Reservation> reservations) {
+        jdbcTemplate.batchUpdate(LINK_RESERVATION, reservations, reservations.size(), (statement, reservation) -> {
+            statement.setBytes(1, Helper.toBytes(reservation.getId()));
+            statement.setBytes(2, Helper.toBytes(reservation.getCampsite().getId()));
+            statement.setDate(3, Date.valueOf(reservation.getCheckIn()));
+            statement.setDate(4, Date.valueOf(reservation.getCheckOut()));
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reservation to be made asynchronously, along with its outcome once applied: either the reservation made or the
+ * errors it failed with.
+ */
+@Getter
+public class ReservationCommand {
+
+    public enum Status {
+        PENDING,
+        CREATED,
+        FAILED
+    }
+
+    private final UUID id = UUID.randomUUID();
+    private final UUID campsiteId;
+    private final ReservationDto request;
+    private final CompletableFuture<ReservationCommand> completion = new CompletableFuture<>();
+
+    private volatile Status status = Status.PENDING;
+    private volatile ReservationDto reservation;
+    private volatile List<String> errors;
+
+    public ReservationCommand(UUID campsiteId, ReservationDto request) {
+        this.campsiteId = campsiteId;
+        this.request = request;
+    }
+
+    public void complete(ReservationDto reservation) {
+        this.reservation = reservation;
+        this.status = Status.CREATED;
+        completion.complete(this);
+    }
+
+    public void fail(List<String> errors) {
+        this.errors = errors;
+        this.status = Status.FAILED;
+        completion.complete(this);
+    }
+
+    public ReservationCommandDto toDto() {
+        return ReservationCommandDto.builder().id(id).campsiteId(campsiteId).status(status).reservation(reservation).errors(errors).build();
+    }
+}
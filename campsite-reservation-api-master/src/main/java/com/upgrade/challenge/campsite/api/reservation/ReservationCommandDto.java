@@ -0,0 +1,26 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReservationCommandDto {
+
+    private UUID id;
+
+    private UUID campsiteId;
+
+    private ReservationCommand.Status status;
+
+    private ReservationDto reservation;
+
+    private List<String> errors;
+}
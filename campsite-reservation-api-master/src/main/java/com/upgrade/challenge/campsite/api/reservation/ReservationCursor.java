@@ -0,0 +1,42 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import com.upgrade.challenge.campsite.api.common.exceptions.InvalidCursorException;
+import lombok.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Position of a reservation in the listing order (created, then ID), encoded as an opaque URL-safe string, so that the
+ * next page is sought right after it (keyset pagination) instead of skipping the previous ones.
+ */
+@Value
+public class ReservationCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final LocalDateTime created;
+    private final UUID id;
+
+    public static ReservationCursor of(Reservation reservation) {
+        return new ReservationCursor(reservation.getCreated(), reservation.getId());
+    }
+
+    public static ReservationCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf(SEPARATOR);
+
+            return new ReservationCursor(LocalDateTime.parse(value.substring(0, separator)), UUID.fromString(value.substring(separator + 1)));
+        }
+        catch (RuntimeException exception) {
+            throw new InvalidCursorException(cursor);
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((created + SEPARATOR + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,32 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Published whenever a reservation is made, modified or cancelled. Listeners are expected to handle it once the
+ * transaction commits (see {@link org.springframework.transaction.event.TransactionalEventListener}).
+ */
+@Getter
+@Builder
+public class ReservationEvent {
+
+    private final Type type;
+    private final UUID campsiteId;
+    private final UUID reservationId;
+    private final LocalDate checkIn;
+    private final LocalDate checkOut;
+
+    /**
+     * Dates before the reservation was modified (only set for {@link Type#MODIFIED}).
+     */
+    private final LocalDate previousCheckIn;
+    private final LocalDate previousCheckOut;
+
+    public enum Type {
+        CREATED, MODIFIED, CANCELLED
+    }
+}
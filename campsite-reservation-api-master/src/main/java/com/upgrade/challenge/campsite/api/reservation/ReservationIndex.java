@@ -0,0 +1,121 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds the {@link ReservationIntervalTree} of every Campsite. Trees are built at startup from the reservations table
+ * and afterwards kept in step with the reservations made, modified and cancelled, once committed. Changes committed
+ * while the table is being read are held back and applied in order once it is read: otherwise, a reservation cancelled
+ * right after being read would be added back by the load, and counted forever. Trees apply changes idempotently, so
+ * changes the load already read are harmless.
+ */
+@CommonsLog
+@RequiredArgsConstructor
+@Component
+public class ReservationIndex {
+
+    private final ReservationRepository reservationRepository;
+
+    private final ConcurrentMap<UUID, ReservationIntervalTree> trees = new ConcurrentHashMap<>();
+    // Changes are applied (or held back) holding the read lock, and the ones held back drained holding the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Queue<ReservationEvent> heldBack;
+
+    public void load() {
+        this.holdBack(new ConcurrentLinkedQueue<>());
+        try {
+            reservationRepository.findAllPeriods().forEach(period ->
+                    this.getOrCreate(period.getCampsiteId()).add(period.getId(), period.getCheckIn(), period.getCheckOut()));
+        }
+        finally {
+            int applied = this.holdBack(null);
+            log.debug(String.format("Reservation index loaded [campsites: %d, changes held back: %d]", trees.size(), applied));
+        }
+    }
+
+    @TransactionalEventListener
+    public void onReservationEvent(ReservationEvent event) {
+        lock.readLock().lock();
+        try {
+            if (heldBack != null) {
+                heldBack.add(event);
+            }
+            else {
+                this.apply(event);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the tree of the given Campsite (empty if it has no reservations).
+     */
+    public ReservationIntervalTree get(UUID campsiteId) {
+        ReservationIntervalTree tree = trees.get(campsiteId);
+        return tree != null ? tree : new ReservationIntervalTree();
+    }
+
+    public void evict(UUID campsiteId) {
+        trees.remove(campsiteId);
+    }
+
+    /**
+     * Applies the changes held back so far, if any, and holds back the next ones in the given queue (or applies them
+     * right away if null).
+     *
+     * @return Number of changes applied.
+     */
+    private int holdBack(Queue<ReservationEvent> queue) {
+        lock.writeLock().lock();
+        try {
+            int applied = 0;
+            if (heldBack != null) {
+                for (ReservationEvent event = heldBack.poll(); event != null; event = heldBack.poll()) {
+                    this.apply(event);
+                    applied++;
+                }
+            }
+
+            heldBack = queue;
+            return applied;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(ReservationEvent event) {
+        ReservationIntervalTree tree = this.getOrCreate(event.getCampsiteId());
+
+        switch (event.getType()) {
+            case CREATED:
+                tree.add(event.getReservationId(), event.getCheckIn(), event.getCheckOut());
+                break;
+            case MODIFIED:
+                tree.remove(event.getReservationId(), event.getPreviousCheckIn());
+                tree.add(event.getReservationId(), event.getCheckIn(), event.getCheckOut());
+                break;
+            case CANCELLED:
+                tree.remove(event.getReservationId(), event.getCheckIn());
+                break;
+        }
+    }
+
+    private ReservationIntervalTree getOrCreate(UUID campsiteId) {
+        return trees.computeIfAbsent(campsiteId, key -> new ReservationIntervalTree());
+    }
+}
@@ -0,0 +1,273 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Interval tree of the reservations of a Campsite: an AVL tree ordered by check-in (then by reservation ID), where each
+ * node keeps the latest check-out of its subtree. Looking up the reservations overlapping a date range skips every
+ * subtree ending before the range or starting after it, so that it costs O(log n) per overlapping reservation instead
+ * of a scan of all of them.
+ */
+public class ReservationIntervalTree {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private Node root;
+    private int size;
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a reservation staying from check-in (inclusive) to check-out (exclusive), or updates its check-out if it was
+     * already added with the same check-in.
+     */
+    public void add(UUID id, LocalDate checkIn, LocalDate checkOut) {
+        lock.writeLock().lock();
+        try {
+            root = this.insert(root, id, checkIn.toEpochDay(), checkOut.toEpochDay());
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(UUID id, LocalDate checkIn) {
+        lock.writeLock().lock();
+        try {
+            root = this.delete(root, id, checkIn.toEpochDay());
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of the reservations staying at least one night between start (inclusive) and end (exclusive),
+     * ordered by check-in.
+     */
+    public List<UUID> findOverlapping(LocalDate start, LocalDate end) {
+        List<UUID> ids = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            this.collect(root, start.toEpochDay(), end.toEpochDay(), node -> ids.add(node.id));
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns the max. number of reservations staying the same night between start (inclusive) and end (exclusive).
+     */
+    public int getMaxOccupancy(LocalDate start, LocalDate end) {
+        long from = start.toEpochDay();
+        long to = end.toEpochDay();
+
+        List<Node> nodes = new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            this.collect(root, from, to, nodes::add);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        // Sweeps check-ins and check-outs (clipped to the range) in order, check-outs first on the same night
+        long[] checkIns = new long[nodes.size()];
+        long[] checkOuts = new long[nodes.size()];
+        for (int i = 0; i < nodes.size(); i++) {
+            checkIns[i] = Math.max(nodes.get(i).start, from);
+            checkOuts[i] = Math.min(nodes.get(i).end, to);
+        }
+        Arrays.sort(checkIns);
+        Arrays.sort(checkOuts);
+
+        int occupancy = 0;
+        int maxOccupancy = 0;
+        for (int i = 0, j = 0; i < checkIns.length; ) {
+            if (checkOuts[j] <= checkIns[i]) {
+                occupancy--;
+                j++;
+            }
+            else {
+                maxOccupancy = Math.max(maxOccupancy, ++occupancy);
+                i++;
+            }
+        }
+
+        return maxOccupancy;
+    }
+
+    private void collect(Node node, long from, long to, Consumer<Node> consumer) {
+        if (node == null || node.maxEnd <= from || from >= to) {
+            return;
+        }
+
+        this.collect(node.left, from, to, consumer);
+
+        if (node.start < to) {
+            if (node.end > from && node.start < node.end) {
+                consumer.accept(node);
+            }
+
+            this.collect(node.right, from, to, consumer);
+        }
+    }
+
+    private Node insert(Node node, UUID id, long start, long end) {
+        if (node == null) {
+            size++;
+            return new Node(id, start, end);
+        }
+
+        int comparison = node.compareTo(id, start);
+        if (comparison < 0) {
+            node.left = this.insert(node.left, id, start, end);
+        }
+        else if (comparison > 0) {
+            node.right = this.insert(node.right, id, start, end);
+        }
+        else {
+            node.end = end;
+        }
+
+        return this.balance(node);
+    }
+
+    private Node delete(Node node, UUID id, long start) {
+        if (node == null) {
+            return null;
+        }
+
+        int comparison = node.compareTo(id, start);
+        if (comparison < 0) {
+            node.left = this.delete(node.left, id, start);
+        }
+        else if (comparison > 0) {
+            node.right = this.delete(node.right, id, start);
+        }
+        else {
+            size--;
+
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+
+            successor.right = this.deleteMin(node.right);
+            successor.left = node.left;
+            node = successor;
+        }
+
+        return this.balance(node);
+    }
+
+    private Node deleteMin(Node node) {
+        if (node.left == null) {
+            return node.right;
+        }
+
+        node.left = this.deleteMin(node.left);
+
+        return this.balance(node);
+    }
+
+    private Node balance(Node node) {
+        node.update();
+
+        int balance = Node.height(node.left) - Node.height(node.right);
+        if (balance > 1) {
+            if (Node.height(node.left.left) < Node.height(node.left.right)) {
+                node.left = this.rotateLeft(node.left);
+            }
+            return this.rotateRight(node);
+        }
+        if (balance < -1) {
+            if (Node.height(node.right.right) < Node.height(node.right.left)) {
+                node.right = this.rotateRight(node.right);
+            }
+            return this.rotateLeft(node);
+        }
+
+        return node;
+    }
+
+    private Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.update();
+        left.update();
+        return left;
+    }
+
+    private Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.update();
+        right.update();
+        return right;
+    }
+
+    private static class Node {
+
+        private final UUID id;
+        private final long start;
+        private long end;
+        private long maxEnd;
+        private int height = 1;
+        private Node left;
+        private Node right;
+
+        private Node(UUID id, long start, long end) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.maxEnd = end;
+        }
+
+        private static int height(Node node) {
+            return node != null ? node.height : 0;
+        }
+
+        /**
+         * Compares the given key (check-in, then ID) with this node's.
+         */
+        private int compareTo(UUID id, long start) {
+            int comparison = Long.compare(start, this.start);
+            return comparison != 0 ? comparison : id.compareTo(this.id);
+        }
+
+        private void update() {
+            height = 1 + Math.max(height(left), height(right));
+            maxEnd = Math.max(end, Math.max(left != null ? left.maxEnd : Long.MIN_VALUE, right != null ? right.maxEnd : Long.MIN_VALUE));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * Records the nights of every reservation made or modified ('campsite.reservation.nights' histogram, tagged by type),
+ * once committed.
+ */
+@RequiredArgsConstructor
+@Component
+public class ReservationMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    @TransactionalEventListener
+    public void onReservationEvent(ReservationEvent event) {
+        if (event.getType() == ReservationEvent.Type.CANCELLED) {
+            return;
+        }
+
+        DistributionSummary.builder("campsite.reservation.nights")
+                .description("Nights per reservation made or modified")
+                .baseUnit("nights")
+                .tag("type", event.getType().name().toLowerCase())
+                .sla(1, 2, 3, 5, 7, 14, 30)
+                .register(meterRegistry)
+                .record(DAYS.between(event.getCheckIn(), event.getCheckOut()));
+    }
+}
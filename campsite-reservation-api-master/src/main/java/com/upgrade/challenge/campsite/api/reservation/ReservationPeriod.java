@@ -0,0 +1,18 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Stay of a reservation, from check-in (inclusive) to check-out (exclusive).
+ */
+public interface ReservationPeriod {
+
+    UUID getId();
+
+    UUID getCampsiteId();
+
+    LocalDate getCheckIn();
+
+    LocalDate getCheckOut();
+}
@@ -1,20 +1,63 @@
 package com.upgrade.challenge.campsite.api.reservation;
 
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.lang.NonNull;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @Repository
 public interface ReservationRepository extends JpaRepository<Reservation, UUID> {
 
+    String EXPORT_FETCH_SIZE = "500";
+
     Optional<Reservation> findOneByIdAndCampsiteId(UUID id, UUID campsiteId);
 
-    @Query(value = "select * from reservations r where r.campsite_id = :campsiteId order by r.created", nativeQuery = true)
-    Page<Reservation> findAllByCampsiteId(@NonNull UUID campsiteId, Pageable pageable);
+    /**
+     * Same as {@link #findOneByIdAndCampsiteId(UUID, UUID)}, but locking the reservation until the transaction ends, so
+     * that concurrent modifications and cancellations of the same reservation are applied one after the other.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select r from Reservation r where r.id = :id and r.campsite.id = :campsiteId")
+    Optional<Reservation> findOneForUpdateByIdAndCampsiteId(@Param("id") UUID id, @Param("campsiteId") UUID campsiteId);
+
+    /**
+     * Streams the reservations of the given Campsite staying at least one night between start (inclusive) and end
+     * (exclusive), if given, ordered by created and ID. Rows are read through a forward-only cursor, fetched
+     * 'EXPORT_FETCH_SIZE' at a time, and must be consumed within a transaction.
+     */
+    @QueryHints({@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = EXPORT_FETCH_SIZE),
+            @QueryHint(name = org.hibernate.jpa.QueryHints.HINT_READONLY, value = "true")})
+    @Query("select r from Reservation r where r.campsite.id = :campsiteId and (:start is null or r.checkOut > :start) " +
+            "and (:end is null or r.checkIn < :end) order by r.created, r.id")
+    Stream<Reservation> streamAllByCampsiteId(@Param("campsiteId") UUID campsiteId, @Param("start") LocalDate start, @Param("end") LocalDate end);
+
+    /**
+     * Returns the first reservations of the given Campsite, ordered by created and ID (no count query is run).
+     */
+    @Query("select r from Reservation r where r.campsite.id = :campsiteId order by r.created, r.id")
+    List<Reservation> findFirstByCampsiteId(@Param("campsiteId") UUID campsiteId, Pageable pageable);
+
+    /**
+     * Returns the reservations of the given Campsite following the given position (created, ID), in the same order as
+     * {@link #findFirstByCampsiteId(UUID, Pageable)}. Seeks the (campsite_id, created, id) index instead of skipping rows.
+     */
+    @Query("select r from Reservation r where r.campsite.id = :campsiteId and (r.created > :created or (r.created = :created and r.id > :id)) " +
+            "order by r.created, r.id")
+    List<Reservation> findNextByCampsiteId(@Param("campsiteId") UUID campsiteId, @Param("created") LocalDateTime created,
+                                           @Param("id") UUID id, Pageable pageable);
+
+    @Query("select r.id as id, r.campsite.id as campsiteId, r.checkIn as checkIn, r.checkOut as checkOut from Reservation r")
+    List<ReservationPeriod> findAllPeriods();
 }
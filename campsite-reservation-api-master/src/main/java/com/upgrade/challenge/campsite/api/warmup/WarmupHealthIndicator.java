@@ -0,0 +1,29 @@
+package com.upgrade.challenge.campsite.api.warmup;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the application as DOWN (503 on _/actuator/health_) until warmed up by {@link WarmupPipeline}, so that it can
+ * be used as readiness check by load balancers and rolling deploys.
+ */
+@RequiredArgsConstructor
+@Component
+public class WarmupHealthIndicator extends AbstractHealthIndicator {
+
+    private final WarmupPipeline warmupPipeline;
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        builder.withDetail("stage", warmupPipeline.getStage());
+
+        if (warmupPipeline.isCompleted()) {
+            builder.up().withDetail("elapsed", warmupPipeline.getElapsed());
+        }
+        else {
+            builder.down();
+        }
+    }
+}
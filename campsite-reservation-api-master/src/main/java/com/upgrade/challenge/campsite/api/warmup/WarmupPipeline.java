@@ -0,0 +1,184 @@
+package com.upgrade.challenge.campsite.api.warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.challenge.campsite.api.CampsiteService;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendarRegistry;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityInitializer;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityView;
+import com.upgrade.challenge.campsite.api.common.MetricsAspect;
+import com.upgrade.challenge.campsite.api.hold.HoldExpiry;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import com.upgrade.challenge.campsite.api.reservation.ReservationIndex;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.apachecommons.CommonsLog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Brings the application up to speed once started, in the background, so that the first requests do not pay for
+ * empty caches, cold Hibernate metadata nor interpreted code:
+ * <ol>
+ * <li>The Campsites' availability is initialized up to the horizon (see {@link AvailabilityInitializer}).</li>
+ * <li>The availability calendars (cache and read model), the reservation index and the holds to expire are loaded in
+ * parallel.</li>
+ * <li>The availability and reservation paths are exercised 'api.campsite.warmup.iterations' times over the Campsites
+ * loaded: availabilities read (and serialized), searched and ETagged, reservations listed, occupancy looked up and
+ * reservations made in transactions always rolled back, none of them timed (see {@link MetricsAspect}).</li>
+ * </ol>
+ * Until completed, the application is reported as DOWN by {@link WarmupHealthIndicator}, so that no traffic is routed
+ * to a cold instance.
+ */
+@CommonsLog
+@RequiredArgsConstructor
+@Component
+public class WarmupPipeline {
+
+    public enum Stage {
+        PENDING, INITIALIZING, LOADING, EXERCISING, COMPLETED, FAILED
+    }
+
+    @Value("${api.campsite.warmup.iterations}")
+    private Integer iterations;
+
+    @Value("${api.campsite.reservation.min-days-ahead}")
+    private Integer reservationMinDaysAhead;
+
+    @Value("${api.campsite.reservation.max-days-ahead}")
+    private Integer reservationMaxDaysAhead;
+
+    private final AvailabilityInitializer availabilityInitializer;
+    private final AvailabilityCalendarRegistry availabilityCalendarRegistry;
+    private final AvailabilityView availabilityView;
+    private final ReservationIndex reservationIndex;
+    private final HoldExpiry holdExpiry;
+    private final CampsiteService campsiteService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4, runnable -> new Thread(runnable, "warmup"));
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    @Getter
+    private volatile Stage stage = Stage.PENDING;
+
+    @Getter
+    private volatile long elapsed;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        CompletableFuture.runAsync(this::run, executor).whenComplete((result, exception) -> {
+            if (exception != null) {
+                stage = Stage.FAILED;
+                completion.completeExceptionally(exception);
+                log.error("Warm-up failed", exception);
+            }
+            else {
+                stage = Stage.COMPLETED;
+                completion.complete(null);
+            }
+            executor.shutdown();
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns a future completed once warmed up (or completed exceptionally if failed).
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    public boolean isCompleted() {
+        return stage == Stage.COMPLETED;
+    }
+
+    private void run() {
+        long start = System.currentTimeMillis();
+
+        stage = Stage.INITIALIZING;
+        availabilityInitializer.maintain();
+
+        stage = Stage.LOADING;
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(availabilityCalendarRegistry::load, executor),
+                CompletableFuture.runAsync(reservationIndex::load, executor),
+                CompletableFuture.runAsync(holdExpiry::load, executor),
+                availabilityView.rebuild()).join();
+
+        log.info(String.format("Warm-up loaded [elapsed: %d ms]", System.currentTimeMillis() - start));
+
+        stage = Stage.EXERCISING;
+        // Synthetic requests are not timed, so that they do not skew the service and repository metrics
+        MetricsAspect.setSuppressed(true);
+        int failures;
+        try {
+            failures = this.exercise();
+        }
+        finally {
+            MetricsAspect.setSuppressed(false);
+        }
+
+        elapsed = System.currentTimeMillis() - start;
+        log.info(String.format("Warm-up completed [iterations: %d, failures: %d, elapsed: %d ms]", iterations, failures, elapsed));
+    }
+
+    /**
+     * Runs the synthetic requests, round robin over the Campsites loaded and the nights they can be reserved for.
+     *
+     * @return Number of iterations failed (e.g. nights sold out), which are only logged.
+     */
+    private int exercise() {
+        List<UUID> campsiteIds = new ArrayList<>(availabilityView.getCampsiteIds());
+        if (campsiteIds.isEmpty()) {
+            return 0;
+        }
+
+        LocalDate today = LocalDate.now();
+        int days = Math.max(reservationMaxDaysAhead - reservationMinDaysAhead, 1);
+        int failures = 0;
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            UUID campsiteId = campsiteIds.get(iteration % campsiteIds.size());
+            LocalDate checkIn = today.plusDays(reservationMinDaysAhead + iteration % days);
+            LocalDate checkOut = checkIn.plusDays(1);
+
+            try {
+                objectMapper.writeValueAsBytes(campsiteService.getAvailabilities(campsiteId, checkIn, checkOut));
+                campsiteService.getAvailabilitiesETag(campsiteId, checkIn, checkOut);
+                objectMapper.writeValueAsBytes(campsiteService.searchAvailabilities(checkIn, checkOut, 1, 0, PageRequest.of(0, 10)));
+                objectMapper.writeValueAsBytes(campsiteService.getAllReservations(campsiteId, null, 10));
+                objectMapper.writeValueAsBytes(campsiteService.getOccupancy(campsiteId, checkIn, checkOut));
+
+                transactionTemplate.execute(status -> {
+                    status.setRollbackOnly();
+                    return campsiteService.makeReservation(campsiteId, ReservationDto.builder().name("Warm-up")
+                            .email("warmup@localhost").checkIn(checkIn).checkOut(checkOut).build());
+                });
+            }
+            catch (Exception exception) {
+                failures++;
+                log.debug(String.format("Warm-up iteration failed [iteration: %d, campsite: %s]", iteration, campsiteId), exception);
+            }
+        }
+
+        return failures;
+    }
+}
@@ -1,181 +1,289 @@
 package com.upgrade.challenge.campsite;
 
-import com.upgrade.challenge.campsite.api.Campsite;
-import com.upgrade.challenge.campsite.api.CampsiteRepository;
-import com.upgrade.challenge.campsite.api.availability.Availability;
-import com.upgrade.challenge.campsite.api.availability.AvailabilityRepository;
-import org.junit.Test;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.upgrade.challenge.campsite.api.CampsiteDto;
+import com.upgrade.challenge.campsite.api.CampsiteService;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendarRegistry;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityDto;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityView;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import com.upgrade.challenge.campsite.api.warmup.WarmupPipeline;
+import lombok.extern.apachecommons.CommonsLog;
+import org.junit.*;
 import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
-import org.springframework.test.context.TestExecutionListeners;
-import org.springframework.test.context.junit4.SpringRunner;
-import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
-import org.springframework.test.context.transaction.TestTransaction;
-import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
-import org.springframework.transaction.annotation.Transactional;
-
-import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.LockModeType;
-import javax.persistence.OptimisticLockException;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.rules.SpringClassRule;
+import org.springframework.test.context.junit4.rules.SpringMethodRule;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
 import java.time.LocalDate;
-import java.util.List;
-import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-
-//@DataJpaTest
-//@TestExecutionListeners(listeners = {DependencyInjectionTestExecutionListener.class, TransactionalTestExecutionListener.class})
-//@RunWith(SpringRunner.class)
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Booking-storm load scenarios driving the API over HTTP, each on its own Campsite (deleted afterwards). Throughput,
+ * latency percentiles and conflict rate (sold out or version conflict answers) are logged per scenario, and the
+ * availability invariants are checked once the load is over: sites never negative nor above the capacity, and always
+ * matching the reservations made (in the DB, in the in-memory calendar reservations are checked against and in the
+ * availability read model, once the changes committed are applied).
+ * <p>
+ * The load is small by default, so that it can run along the rest of the tests. It can be raised through the
+ * 'load.clients' (concurrent clients), 'load.requests' (requests per scenario) and 'load.capacity' (Campsite capacity)
+ * system properties, e.g. mvn test -Dtest=ApplicationConcurrencyTests -Dload.clients=64 -Dload.requests=10000.
+ * <p>
+ * Every scenario runs both with reservations locking the availabilities and in lock-free mode
+ * ('api.campsite.reservation.lock-free'), switched on the same application context.
+ */
+@CommonsLog
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+@RunWith(Parameterized.class)
 public class ApplicationConcurrencyTests {
 
+    private static final String BASE_PATH = "/api/v1/campsites";
+
+    @ClassRule
+    public static final SpringClassRule SPRING_CLASS_RULE = new SpringClassRule();
+
+    @Rule
+    public final SpringMethodRule springMethodRule = new SpringMethodRule();
+
+    @Parameterized.Parameter
+    public boolean lockFree;
+
+    private final int clients = Integer.getInteger("load.clients", 8);
+    private final int requests = Integer.getInteger("load.requests", 200);
+    private final int capacity = Integer.getInteger("load.capacity", 5);
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private WarmupPipeline warmupPipeline;
+
     @Autowired
-    private EntityManagerFactory entityManagerFactory;
+    private CampsiteService campsiteService;
 
     @Autowired
-    private CampsiteRepository campsiteRepository;
+    private AvailabilityCalendarRegistry availabilityCalendarRegistry;
 
     @Autowired
-    private AvailabilityRepository availabilityRepository;
+    private AvailabilityView availabilityView;
 
-    private LocalDate checkIn;
-    private LocalDate checkOut;
     private UUID campsiteId;
 
-//    @BeforeEach
+    @Parameterized.Parameters(name = "lock-free: {0}")
+    public static List<Boolean> lockFreeModes() {
+        return Arrays.asList(false, true);
+    }
+
+    @Before
     public void setUp() {
-        Campsite campsite = campsiteRepository.save(Campsite.builder().name("Test Campsite").capacity(10).build());
+        warmupPipeline.getCompletion().join();
+        this.setLockFree(lockFree);
+        campsiteId = this.getId(this.exchange(HttpMethod.POST, "", CampsiteDto.builder().name("Load Test Campsite").capacity(capacity).build()));
+    }
+
+    @After
+    public void tearDown() {
+        this.exchange(HttpMethod.DELETE, "/" + campsiteId, null);
+        this.setLockFree(false);
+    }
 
-        campsiteId = campsite.getId();
+    @Test
+    public void shouldNotOversellHotDates() throws Exception {
+        LocalDate checkIn = LocalDate.now().plusDays(1);
 
-        checkIn = LocalDate.now();
-        checkOut = checkIn.plusDays(1);
+        Map<HttpStatus, Integer> statuses = this.run("hot-date storm", () -> this.makeReservation(checkIn, checkIn.plusDays(3)));
 
-//        availabilityRepository.save(Availability.builder().date(checkIn).sites(10).campsite(campsite).build());
+        assertThat(statuses.getOrDefault(HttpStatus.CREATED, 0), is(Math.min(capacity, requests)));
+        this.assertInvariants();
     }
 
-//    @Transactional
-//    @Test(expected = OptimisticLockException.class)
-    public void testUpdateAvailabilitySites() throws Exception {
-        EntityManager entityManager = entityManagerFactory.createEntityManager();
-        entityManager.getTransaction().begin();
+    @Test
+    public void shouldKeepAvailabilityUnderMixedTraffic() throws Exception {
+        Map<HttpStatus, Integer> statuses = this.run("mixed read/write", () -> {
+            // 4 out of 5 requests are availability reads
+            if (ThreadLocalRandom.current().nextInt(5) > 0) {
+                return this.exchange(HttpMethod.GET, "/" + campsiteId + "/availabilities", null).getStatusCodeValue();
+            }
+
+            LocalDate checkIn = LocalDate.now().plusDays(1 + ThreadLocalRandom.current().nextInt(10));
+            return this.makeReservation(checkIn, checkIn.plusDays(1 + ThreadLocalRandom.current().nextInt(3)));
+        });
 
-//        UUID campsiteId = UUID.randomUUID();
-//        Campsite campsite = Campsite.builder().name("Test Campsite").capacity(10).build();
-//        campsite.setId(campsiteId);
-//        entityManager.merge(campsite);
+        assertThat(statuses.keySet(), everyItem(isIn(EnumSet.of(HttpStatus.OK, HttpStatus.CREATED, HttpStatus.UNPROCESSABLE_ENTITY, HttpStatus.CONFLICT))));
+        this.assertInvariants();
+    }
 
-        Campsite campsite = entityManager.merge(Campsite.builder().name("Test Campsite").capacity(10).build());
+    @Test
+    public void shouldKeepAvailabilityUnderModifyAndCancelChurn() throws Exception {
+        LocalDate checkIn = LocalDate.now().plusDays(1);
 
-        entityManager.flush();
+        List<UUID> reservationIds = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            reservationIds.add(this.getId(this.exchange(HttpMethod.POST, "/" + campsiteId + "/reservations", this.reservation(checkIn, checkIn.plusDays(1)))));
+        }
 
-        Campsite campsiteEntity = entityManager.find(Campsite.class, campsite.getId(), LockModeType.PESSIMISTIC_WRITE);
+        Map<HttpStatus, Integer> statuses = this.run("modify/cancel churn", () -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            LocalDate newCheckIn = LocalDate.now().plusDays(1 + random.nextInt(5));
+
+            // Reservations cancelled but not made again (sold out) are replaced once the pool runs dry
+            UUID[] pool = reservationIds.toArray(new UUID[0]);
+            if (pool.length == 0) {
+                ResponseEntity<JsonNode> response = this.exchange(HttpMethod.POST, "/" + campsiteId + "/reservations",
+                        this.reservation(newCheckIn, newCheckIn.plusDays(1)));
+                if (response.getStatusCode() == HttpStatus.CREATED) {
+                    reservationIds.add(this.getId(response));
+                }
+                return response.getStatusCodeValue();
+            }
+            UUID reservationId = pool[random.nextInt(pool.length)];
+
+            // Either moved to new dates, or cancelled and made again (kept in the pool once made)
+            if (random.nextBoolean()) {
+                return this.exchange(HttpMethod.PUT, "/" + campsiteId + "/reservations/" + reservationId,
+                        this.reservation(newCheckIn, newCheckIn.plusDays(1 + random.nextInt(3)))).getStatusCodeValue();
+            }
+
+            int status = this.exchange(HttpMethod.DELETE, "/" + campsiteId + "/reservations/" + reservationId, null).getStatusCodeValue();
+            if (status == HttpStatus.OK.value() && reservationIds.remove(reservationId)) {
+                ResponseEntity<JsonNode> response = this.exchange(HttpMethod.POST, "/" + campsiteId + "/reservations",
+                        this.reservation(newCheckIn, newCheckIn.plusDays(1)));
+                if (response.getStatusCode() == HttpStatus.CREATED) {
+                    reservationIds.add(this.getId(response));
+                }
+            }
+
+            return status;
+        });
 
-        new Thread(() -> {
-            EntityManager entityManager2 = entityManagerFactory.createEntityManager();
-            entityManager2.getTransaction().begin();
+        assertThat(statuses.keySet(), everyItem(isIn(EnumSet.of(HttpStatus.OK, HttpStatus.CREATED, HttpStatus.NOT_FOUND, HttpStatus.UNPROCESSABLE_ENTITY, HttpStatus.CONFLICT))));
+        this.assertInvariants();
+    }
 
-            Campsite campsite2 = entityManager2.find(Campsite.class, campsite.getId(), LockModeType.PESSIMISTIC_WRITE);
+    /**
+     * Sends the given request 'load.requests' times from 'load.clients' concurrent clients, logs the load report and
+     * returns the number of answers per status.
+     */
+    private Map<HttpStatus, Integer> run(String scenario, IntSupplier request) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(clients);
+        ConcurrentMap<HttpStatus, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        long[] latencies = new long[requests];
+        AtomicInteger index = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(executorService.submit(() -> {
+                start.await();
+
+                for (int next = index.getAndIncrement(); next < requests; next = index.getAndIncrement()) {
+                    long requestStart = System.nanoTime();
+                    HttpStatus status = HttpStatus.valueOf(request.getAsInt());
+                    latencies[next] = System.nanoTime() - requestStart;
+
+                    statuses.computeIfAbsent(status, key -> new AtomicInteger()).incrementAndGet();
+                }
+
+                return null;
+            }));
+        }
 
-            campsite2.setCapacity(7);
+        long loadStart = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - loadStart;
+        executorService.shutdown();
 
-            entityManager2.getTransaction().commit();
-        }, "thread-2").start();
+        Map<HttpStatus, Integer> counts = new TreeMap<>();
+        statuses.forEach((status, count) -> counts.put(status, count.get()));
 
-        Thread.sleep(3000);
+        Arrays.sort(latencies);
+        int conflicts = counts.getOrDefault(HttpStatus.UNPROCESSABLE_ENTITY, 0) + counts.getOrDefault(HttpStatus.CONFLICT, 0);
+        log.info(String.format("Load report [scenario: %s, lock-free: %s, clients: %d, requests: %d, throughput: %.1f req/s, p50: %.2f ms, " +
+                        "p99: %.2f ms, p999: %.2f ms, conflict rate: %.1f%%, statuses: %s]", scenario, lockFree, clients, requests,
+                requests * 1e9 / elapsed, this.percentile(latencies, 0.5), this.percentile(latencies, 0.99),
+                this.percentile(latencies, 0.999), 100.0 * conflicts / requests, counts));
 
-        campsiteEntity.setCapacity(5);
-        entityManager.getTransaction().commit();
+        return counts;
     }
 
-    @Transactional
-//    @Test(expected = OptimisticLockException.class)
-    public void testUpdateAvailabilitySites0() throws Exception {
-        List<Availability> availabilities = availabilityRepository.findAllByCampsiteIdAndDateBetween(campsiteId, checkIn, checkOut);
+    /**
+     * Checks that no night is oversold, and that the available sites (in the DB, the calendar and the read model) match
+     * the reservations staying each night.
+     */
+    private void assertInvariants() {
+        List<Map<String, Object>> nights = jdbcTemplate.queryForList("select a.date, a.sites, " +
+                "(select count(*) from reservations_availabilities ra where ra.availability_id = a.id) as reserved " +
+                "from availabilities a where a.campsite_id = ? order by a.date", (Object) Helper.toBytes(campsiteId));
 
-        new Thread(() -> {
-            EntityManager entityManager = entityManagerFactory.createEntityManager();
-            entityManager.getTransaction().begin();
+        Map<String, Integer> dbSites = new HashMap<>();
+        nights.forEach(night -> {
+            int sites = ((Number) night.get("sites")).intValue();
+            int reserved = ((Number) night.get("reserved")).intValue();
 
-            availabilityRepository.findAllByCampsiteIdAndDateBetween(campsiteId, checkIn, checkOut)
-                    .forEach(availability -> {
-                        availability.setSites(availability.getSites() - 1);
-                        entityManager.persist(availability);
-                    });
+            assertThat("Sites of " + night.get("date"), sites, allOf(greaterThanOrEqualTo(0), lessThanOrEqualTo(capacity)));
+            assertThat("Sites and reservations of " + night.get("date"), sites + reserved, is(capacity));
 
-            entityManager.getTransaction().commit();
-        }).start();
+            dbSites.put(night.get("date").toString(), sites);
+        });
 
-        Thread.sleep(1000);
+        LocalDate start = LocalDate.parse(nights.get(0).get("date").toString());
+        LocalDate end = LocalDate.parse(nights.get(nights.size() - 1).get("date").toString());
+        List<AvailabilityDto> calendarSites = availabilityCalendarRegistry.get(campsiteId).getAvailabilities(start, end);
+        assertThat("Calendar nights", calendarSites.size(), is(nights.size()));
+        calendarSites.forEach(availability ->
+                assertThat("Calendar sites of " + availability.getDate(), availability.getSites(), is(dbSites.get(availability.getDate().toString()))));
 
-        availabilities.forEach(availability -> {
-            availability.setSites(availability.getSites() - 1);
-            availabilityRepository.save(availability);
-        });
+        availabilityView.flush().join();
+        this.exchange(HttpMethod.GET, "/" + campsiteId + "/availabilities", null).getBody().path("data").forEach(availability ->
+                assertThat("Read model sites of " + availability.path("date").asText(), availability.path("sites").asInt(), is(dbSites.get(availability.path("date").asText()))));
     }
 
-//    @Test//(expected = OptimisticLockException.class)
-    public void testUpdateAvailabilitySites1() throws Exception {
-        Campsite campsite = campsiteRepository.save(Campsite.builder().name("Test Campsite").capacity(10).build());
-
-        LocalDate checkIn = LocalDate.now();
-        LocalDate checkOut = checkIn.plusDays(1);
-
-        availabilityRepository.save(Availability.builder().date(checkIn).sites(10).campsite(campsite).build());
-
-        new Thread(() -> {
-            EntityManager entityManager = entityManagerFactory.createEntityManager();
-            entityManager.getTransaction().begin();
-            availabilityRepository.findAllByCampsiteIdAndDateBetween(campsite.getId(), checkIn, checkOut)
-                    .forEach(availability -> availability.setSites(availability.getSites() - 1));
-            entityManager.getTransaction().commit();
-        }).start();
-
-        new Thread(() -> {
-            EntityManager entityManager = entityManagerFactory.createEntityManager();
-            entityManager.getTransaction().begin();
-            this.sleep(3000);
-            availabilityRepository.findAllByCampsiteIdAndDateBetween(campsite.getId(), checkIn, checkOut)
-                    .forEach(availability -> availability.setSites(availability.getSites() - 1));
-            entityManager.getTransaction().commit();
-        }).start();
+    private void setLockFree(boolean lockFree) {
+        CampsiteService target = AopTestUtils.getTargetObject(campsiteService);
+        ReflectionTestUtils.setField(target, "reservationLockFree", lockFree);
     }
 
-//    @Test//(expected = OptimisticLockException.class)
-    public void testUpdateAvailabilitySites2() throws Exception {
-        UUID campsiteId = UUID.fromString("6f4e5157-8521-4946-8d11-3316ecbefe15");
-        LocalDate checkIn = LocalDate.now();
-        LocalDate checkOut = checkIn.plusDays(1);
+    private int makeReservation(LocalDate checkIn, LocalDate checkOut) {
+        return this.exchange(HttpMethod.POST, "/" + campsiteId + "/reservations", this.reservation(checkIn, checkOut)).getStatusCodeValue();
+    }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(2);
+    private ReservationDto reservation(LocalDate checkIn, LocalDate checkOut) {
+        return ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(checkIn).checkOut(checkOut).build();
+    }
 
-        executorService.execute(() -> {
-            TestTransaction.start();
-            availabilityRepository.findAllByCampsiteIdAndDateBetween(campsiteId, checkIn, checkOut)
-                    .forEach(availability -> availability.setSites(availability.getSites() - 1));
-            TestTransaction.end();
-        });
+    private ResponseEntity<JsonNode> exchange(HttpMethod method, String path, Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
 
-        executorService.execute(() -> {
-            TestTransaction.start();
-            this.sleep(3000);
-            availabilityRepository.findAllByCampsiteIdAndDateBetween(campsiteId, checkIn, checkOut)
-                    .forEach(availability -> availability.setSites(availability.getSites() - 1));
-            TestTransaction.end();
-        });
+        return restTemplate.exchange(BASE_PATH + path, method, new HttpEntity<>(body, headers), JsonNode.class);
+    }
 
-        executorService.shutdown();
-        executorService.awaitTermination(5, TimeUnit.SECONDS);
+    private UUID getId(ResponseEntity<JsonNode> response) {
+        return UUID.fromString(response.getBody().path("data").path("id").asText());
     }
 
-    private void sleep(long millis) {
-        try {
-            Thread.sleep(millis);
-        }
-        catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+    private double percentile(long[] sortedLatencies, double percentile) {
+        return sortedLatencies[(int) Math.min(Math.ceil(percentile * sortedLatencies.length) - 1, sortedLatencies.length - 1)] / 1e6;
     }
 }
@@ -1,7 +1,20 @@
 package com.upgrade.challenge.campsite;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.upgrade.challenge.campsite.api.CampsiteDto;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityCalendarRegistry;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityInitializer;
+import com.upgrade.challenge.campsite.api.availability.AvailabilityView;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import com.upgrade.challenge.campsite.api.hold.HoldDto;
+import com.upgrade.challenge.campsite.api.hold.HoldPromotionDto;
+import com.upgrade.challenge.campsite.api.idempotency.IdempotencyKey;
+import com.upgrade.challenge.campsite.api.idempotency.IdempotencyKeyRepository;
+import com.upgrade.challenge.campsite.api.reservation.BulkReservationDto;
+import com.upgrade.challenge.campsite.api.reservation.BulkReservationItemDto;
 import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import com.upgrade.challenge.campsite.api.warmup.WarmupPipeline;
 import io.restassured.RestAssured;
 import io.restassured.builder.RequestSpecBuilder;
 import io.restassured.builder.ResponseSpecBuilder;
@@ -11,21 +24,61 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.DigestUtils;
 
+import java.sql.Date;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static io.restassured.RestAssured.*;
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
 @RunWith(SpringRunner.class)
 public class ApplicationTests {
 
+    @Autowired
+    private WarmupPipeline warmupPipeline;
+
+    @Autowired
+    private AvailabilityView availabilityView;
+
+    @Autowired
+    private AvailabilityCalendarRegistry availabilityCalendarRegistry;
+
+    @Autowired
+    private AvailabilityInitializer availabilityInitializer;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${api.campsite.availability.horizon-days}")
+    private Integer horizonDays;
+
+    @Value("${api.campsite.availability.retention-days}")
+    private Integer retentionDays;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     private CampsiteDto campsiteDto;
 
     @BeforeClass
@@ -47,6 +100,8 @@ public class ApplicationTests {
 
     @Before
     public void init() {
+        warmupPipeline.getCompletion().join();
+
         campsiteDto = get("/campsites/{id}", UUID.fromString("9045b895-f634-4f2b-997c-fe5a2dbe8126"))
                 .jsonPath().getObject("data", CampsiteDto.class);
     }
@@ -90,7 +145,34 @@ public class ApplicationTests {
             .statusCode(HttpStatus.OK.value())
             .body("message", is(HttpStatus.OK.getReasonPhrase()))
             .body("data.size()", is(1))
-            .body("data[0].id", is(campsiteDto.getId().toString()));
+            .body("data[0].id", is(campsiteDto.getId().toString()))
+            .body("data[0].reservationCount", notNullValue())
+            .body("data[0]", not(hasKey("reservations")));
+    }
+
+    @Test
+    public void shouldGetCampsiteWithReservations() {
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+
+        given()
+            .queryParam("expand", "reservations")
+        .when()
+            .get("/campsites/{id}", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.reservationCount", greaterThanOrEqualTo(1))
+            .body("data.reservations.id", hasItem(reservationDto.getId().toString()));
+
+        given()
+            .queryParam("expand", "reservations")
+        .when()
+            .get("/campsites")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data[0].reservations.id", hasItem(reservationDto.getId().toString()));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
     }
 
     @Test
@@ -163,6 +245,158 @@ public class ApplicationTests {
             .body("data[0].sites", is(campsiteDto.getCapacity()));
     }
 
+    @Test
+    public void shouldUpdateCampsiteAvailabilitiesOnReservation() {
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+        availabilityView.flush().join();
+
+        given()
+            .queryParam("start", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/availabilities", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.size()", is(1))
+            .body("data[0].sites", is(campsiteDto.getCapacity() - 1));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
+        availabilityView.flush().join();
+
+        given()
+            .queryParam("start", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/availabilities", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data[0].sites", is(campsiteDto.getCapacity()));
+    }
+
+    @Test
+    public void shouldRebuildCampsiteAvailabilities() {
+        expect().statusCode(HttpStatus.ACCEPTED.value()).when().post("/campsites/availabilities/rebuild");
+        availabilityView.flush().join();
+
+        when()
+            .get("/campsites/{id}/availabilities", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data[0].sites", is(campsiteDto.getCapacity()));
+
+        given()
+            .basePath("/actuator")
+        .when()
+            .get("/metrics/campsite.availability.view.lag")
+        .then()
+            .statusCode(HttpStatus.OK.value());
+    }
+
+    @Test
+    public void shouldInitializeCampsiteAvailabilitiesUpToHorizon() {
+        CampsiteDto createdCampsiteDto = CampsiteDto.builder().name("Initialized Test Campsite").capacity(10).build();
+        UUID campsiteId = given().body(createdCampsiteDto).post("/campsites").jsonPath().getUUID("data.id");
+        String selectAvailabilities = "select date, sites from availabilities where campsite_id = ? order by date";
+
+        // One night per day from today up to the horizon, with every site available
+        List<Map<String, Object>> availabilities = jdbcTemplate.queryForList(selectAvailabilities, (Object) Helper.toBytes(campsiteId));
+        assertThat(availabilities.size(), is(horizonDays));
+        for (int night = 0; night < horizonDays; night++) {
+            assertThat(availabilities.get(night).get("date"), is(Date.valueOf(LocalDate.now().plusDays(night))));
+            assertThat(availabilities.get(night).get("sites"), is(createdCampsiteDto.getCapacity()));
+        }
+
+        // Only the missing nights are appended, however many times it is run
+        jdbcTemplate.update("delete from availabilities where campsite_id = ? and date > ?", Helper.toBytes(campsiteId),
+                Date.valueOf(LocalDate.now().plusDays(10)));
+        availabilityInitializer.initialize();
+        availabilityInitializer.initialize();
+
+        assertThat(jdbcTemplate.queryForList(selectAvailabilities, (Object) Helper.toBytes(campsiteId)), is(availabilities));
+        assertThat(availabilityCalendarRegistry.get(campsiteId).getAvailabilities(LocalDate.now(), LocalDate.now().plusDays(horizonDays)).size(),
+                is(horizonDays));
+
+        // Run on the same pool of threads every time, kept until idle
+        long initThreads = Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith("availability-init-")).count();
+        assertThat(initThreads, allOf(greaterThan(0L), lessThanOrEqualTo((long) Runtime.getRuntime().availableProcessors())));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", campsiteId);
+    }
+
+    @Test
+    public void shouldPurgeExpiredCampsiteAvailabilities() {
+        LocalDate expiredDate = LocalDate.now().minusDays(retentionDays + 1);
+        jdbcTemplate.update("insert into availabilities (id, created, updated, date, sites, version, campsite_id) values (?, now(), now(), ?, ?, 0, ?)",
+                Helper.toBytes(UUID.randomUUID()), Date.valueOf(expiredDate), campsiteDto.getCapacity(), Helper.toBytes(campsiteDto.getId()));
+
+        // Both calendars loaded with the expired night
+        availabilityCalendarRegistry.evict(campsiteDto.getId());
+        availabilityView.reload(campsiteDto.getId());
+        availabilityView.flush().join();
+        assertThat(availabilityCalendarRegistry.get(campsiteDto.getId()).getAvailabilities(expiredDate, expiredDate).size(), is(1));
+        assertThat(availabilityView.get(campsiteDto.getId()).getAvailabilities(expiredDate, expiredDate).size(), is(1));
+
+        availabilityInitializer.purge();
+        availabilityView.flush().join();
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from availabilities where date < ?", Integer.class,
+                Date.valueOf(LocalDate.now().minusDays(retentionDays))), is(0));
+        assertThat(availabilityCalendarRegistry.get(campsiteDto.getId()).getAvailabilities(expiredDate, expiredDate), empty());
+        assertThat(availabilityView.get(campsiteDto.getId()).getAvailabilities(expiredDate, expiredDate), empty());
+    }
+
+    @Test
+    public void shouldReportWarmupHealth() {
+        given()
+            .basePath("/actuator")
+        .when()
+            .get("/health")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("details.warmup.status", is("UP"))
+            .body("details.warmup.details.stage", is("COMPLETED"));
+
+        // The warm-up's synthetic requests (one per iteration) are not timed
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        expect().statusCode(HttpStatus.OK.value()).given()
+            .queryParam("start", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .get("/campsites/{id}/occupancy", campsiteDto.getId());
+
+        given()
+            .basePath("/actuator")
+            .queryParam("tag", "method:getOccupancy")
+        .when()
+            .get("/metrics/campsite.service")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("measurements.find { it.statistic == 'COUNT' }.value", lessThan(10f));
+    }
+
+    @Test
+    public void shouldNotGetUnmodifiedCampsiteAvailabilities() {
+        String eTag = get("/campsites/{id}/availabilities", campsiteDto.getId()).header(HttpHeaders.ETAG);
+
+        // 304 (Not Modified) has no body, thus no content type to be expected
+        given(new RequestSpecBuilder().addRequestSpecification(requestSpecification).addHeader(HttpHeaders.IF_NONE_MATCH, eTag).build(),
+                new ResponseSpecBuilder().expectStatusCode(HttpStatus.NOT_MODIFIED.value()).build())
+            .get("/campsites/{id}/availabilities", campsiteDto.getId());
+
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+
+        given()
+            .header(HttpHeaders.IF_NONE_MATCH, eTag)
+        .when()
+            .get("/campsites/{id}/availabilities", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .header(HttpHeaders.ETAG, not(eTag));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
+    }
+
     @Test
     public void shouldMakeCampsiteReservation() {
         ReservationDto reservationDto = this.makeCampsiteReservation();
@@ -181,10 +415,382 @@ public class ApplicationTests {
             .statusCode(HttpStatus.OK.value())
             .body("message", is(HttpStatus.OK.getReasonPhrase()))
             .body("data.size()", is(1))
-            .body("data[0].id", is(reservationDto.getId().toString()));
+            .body("data[0].id", is(reservationDto.getId().toString()))
+            .body("nextCursor", nullValue());
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
+    }
+
+    @Test
+    public void shouldGetAllCampsiteReservationsByCursor() {
+        ReservationDto firstReservationDto = this.makeCampsiteReservation();
+        ReservationDto secondReservationDto = this.makeCampsiteReservation();
+
+        String nextCursor =
+            given()
+                .queryParam("size", 1)
+            .when()
+                .get("/campsites/{id}/reservations", campsiteDto.getId())
+            .then()
+                .statusCode(HttpStatus.OK.value())
+                .body("data.size()", is(1))
+                .body("data[0].id", isOneOf(firstReservationDto.getId().toString(), secondReservationDto.getId().toString()))
+                .body("nextCursor", notNullValue())
+                .extract().jsonPath().getString("nextCursor");
+
+        given()
+            .queryParam("size", 1)
+            .queryParam("cursor", nextCursor)
+        .when()
+            .get("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.size()", is(1))
+            .body("data[0].id", isOneOf(firstReservationDto.getId().toString(), secondReservationDto.getId().toString()))
+            .body("nextCursor", nullValue());
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), firstReservationDto.getId());
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), secondReservationDto.getId());
+    }
+
+    @Test
+    public void shouldExportCampsiteReservations() {
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+        ReservationDto otherReservationDto = this.makeCampsiteReservation();
+
+        String export =
+            given(new RequestSpecBuilder().addRequestSpecification(requestSpecification).setAccept("application/x-ndjson").build(),
+                    new ResponseSpecBuilder().expectStatusCode(HttpStatus.OK.value()).expectContentType("application/x-ndjson").build())
+                .get("/campsites/{id}/reservations/export", campsiteDto.getId())
+            .then()
+                .extract().asString();
+
+        assertThat(Arrays.asList(export.split("\n")), hasItem(containsString("\"id\":\"" + reservationDto.getId() + "\"")));
+        assertThat(Arrays.asList(export.split("\n")), hasItem(containsString("\"id\":\"" + otherReservationDto.getId() + "\"")));
+        assertThat(Arrays.asList(export.split("\n")), everyItem(startsWith("{")));
+
+        export =
+            given(new RequestSpecBuilder().addRequestSpecification(requestSpecification).setAccept("application/x-ndjson")
+                            .addQueryParam("start", reservationDto.getCheckOut().format(DateTimeFormatter.ISO_LOCAL_DATE)).build(),
+                    new ResponseSpecBuilder().expectStatusCode(HttpStatus.OK.value()).build())
+                .get("/campsites/{id}/reservations/export", campsiteDto.getId())
+            .then()
+                .extract().asString();
+
+        assertThat(export, not(containsString(reservationDto.getId().toString())));
+
+        given(new RequestSpecBuilder().addRequestSpecification(requestSpecification).setAccept("application/x-ndjson").build(),
+                new ResponseSpecBuilder().expectStatusCode(HttpStatus.NOT_FOUND.value()).expectBody(containsString("errors")).build())
+            .get("/campsites/{id}/reservations/export", UUID.randomUUID());
 
         expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
                 campsiteDto.getId(), reservationDto.getId());
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), otherReservationDto.getId());
+    }
+
+    @Test
+    public void shouldNotGetAllCampsiteReservationsWithInvalidCursor() {
+        given()
+            .queryParam("cursor", "invalid")
+        .when()
+            .get("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value())
+            .body("errors", hasItem("Invalid cursor (invalid)"));
+    }
+
+    @Test
+    public void shouldMakeCampsiteReservationOncePerIdempotencyKey() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        ReservationDto reservationDto = ReservationDto.builder().name("John Doe").email("john.doe@test.com")
+                .checkIn(tomorrow).checkOut(tomorrow.plusDays(1)).build();
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        // Concurrent duplicates are executed once
+        List<String> reservationIds = IntStream.range(0, 4).parallel().mapToObj(i ->
+            given()
+                .header("Idempotency-Key", idempotencyKey)
+                .body(reservationDto)
+            .when()
+                .post("/campsites/{id}/reservations", campsiteDto.getId())
+            .then()
+                .statusCode(HttpStatus.CREATED.value())
+                .extract().jsonPath().getString("data.id")).distinct().collect(Collectors.toList());
+
+        assertThat(reservationIds.size(), is(1));
+        assertThat(idempotencyKeyRepository.findOneByCampsiteIdAndKeyAndExpiresAfter(campsiteDto.getId(), idempotencyKey,
+                LocalDateTime.now()).isPresent(), is(true));
+
+        given()
+            .header("Idempotency-Key", idempotencyKey)
+            .body(reservationDto)
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .header("Idempotent-Replayed", is("true"))
+            .body("data.id", is(reservationIds.get(0)));
+
+        reservationDto.setCheckOut(tomorrow.plusDays(2));
+        given()
+            .header("Idempotency-Key", idempotencyKey)
+            .body(reservationDto)
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value())
+            .body("errors[0]", is("Idempotency-Key (" + idempotencyKey + ") already used for a different request"));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationIds.get(0));
+    }
+
+    @Test
+    public void shouldReplayCampsiteReservationNoLongerValid() throws JsonProcessingException {
+        // Made (and stored along with its key) before its check-in date, retried afterwards
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        ReservationDto reservationDto = ReservationDto.builder().name("John Doe").email("john.doe@test.com")
+                .checkIn(yesterday).checkOut(yesterday.plusDays(1)).build();
+        String idempotencyKey = UUID.randomUUID().toString();
+        String reservationId = UUID.randomUUID().toString();
+
+        idempotencyKeyRepository.save(IdempotencyKey.builder().campsiteId(campsiteDto.getId()).key(idempotencyKey)
+                .fingerprint(DigestUtils.md5DigestAsHex(objectMapper.writeValueAsBytes(reservationDto)))
+                .status(HttpStatus.CREATED.value()).body("{\"data\":{\"id\":\"" + reservationId + "\"}}")
+                .expires(LocalDateTime.now().plusMinutes(1)).build());
+
+        given()
+            .header("Idempotency-Key", idempotencyKey)
+            .body(reservationDto)
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .header("Idempotent-Replayed", is("true"))
+            .body("data.id", is(reservationId));
+
+        given()
+            .header("Idempotency-Key", UUID.randomUUID().toString())
+            .body(reservationDto)
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value())
+            .body("errors", hasItem("Field 'checkIn' must be a present or future date"));
+    }
+
+    @Test
+    public void shouldMakeCampsiteReservationAsynchronously() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        UUID commandId =
+            given()
+                .header("Prefer", "respond-async")
+                .body(ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(tomorrow).checkOut(tomorrow.plusDays(1)).build())
+            .when()
+                .post("/campsites/{id}/reservations", campsiteDto.getId())
+            .then()
+                .statusCode(HttpStatus.ACCEPTED.value())
+                .header("Preference-Applied", is("respond-async"))
+                .header(HttpHeaders.LOCATION, containsString("/campsites/" + campsiteDto.getId() + "/reservations/commands/"))
+                .body("data.status", isOneOf("PENDING", "CREATED"))
+                .extract().jsonPath().getUUID("data.id");
+
+        UUID reservationId =
+            given()
+                .queryParam("wait", 10)
+            .when()
+                .get("/campsites/{id}/reservations/commands/{commandId}", campsiteDto.getId(), commandId)
+            .then()
+                .statusCode(HttpStatus.OK.value())
+                .body("data.status", is("CREATED"))
+                .body("data.reservation.checkIn", is(tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE)))
+                .extract().jsonPath().getUUID("data.reservation.id");
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationId);
+    }
+
+    @Test
+    public void shouldMakeCampsiteReservationAsynchronouslyOncePerIdempotencyKey() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        ReservationDto reservationDto = ReservationDto.builder().name("John Doe").email("john.doe.async@test.com")
+                .checkIn(tomorrow).checkOut(tomorrow.plusDays(1)).build();
+        String idempotencyKey = UUID.randomUUID().toString();
+
+        // Concurrent duplicates are queued once, and all pointed to the same outcome
+        List<String> locations = IntStream.range(0, 4).parallel().mapToObj(i ->
+            given()
+                .header("Prefer", "respond-async")
+                .header("Idempotency-Key", idempotencyKey)
+                .body(reservationDto)
+            .when()
+                .post("/campsites/{id}/reservations", campsiteDto.getId())
+            .then()
+                .statusCode(HttpStatus.ACCEPTED.value())
+                .extract().header(HttpHeaders.LOCATION)).distinct().collect(Collectors.toList());
+
+        assertThat(locations.size(), is(1));
+
+        UUID commandId =
+            given()
+                .header("Prefer", "respond-async")
+                .header("Idempotency-Key", idempotencyKey)
+                .body(reservationDto)
+            .when()
+                .post("/campsites/{id}/reservations", campsiteDto.getId())
+            .then()
+                .statusCode(HttpStatus.ACCEPTED.value())
+                .header("Idempotent-Replayed", is("true"))
+                .header(HttpHeaders.LOCATION, is(locations.get(0)))
+                .extract().jsonPath().getUUID("data.id");
+
+        UUID reservationId =
+            given()
+                .queryParam("wait", 10)
+            .when()
+                .get("/campsites/{id}/reservations/commands/{commandId}", campsiteDto.getId(), commandId)
+            .then()
+                .statusCode(HttpStatus.OK.value())
+                .body("data.status", is("CREATED"))
+                .extract().jsonPath().getUUID("data.reservation.id");
+
+        assertThat(jdbcTemplate.queryForObject("select count(*) from reservations where email = ?", Integer.class,
+                reservationDto.getEmail()), is(1));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationId);
+    }
+
+    @Test
+    public void shouldMakeBulkCampsiteReservations() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        UUID campsiteId = given().body(CampsiteDto.builder().name("Bulk Test Campsite").capacity(1).build())
+                .post("/campsites").jsonPath().getUUID("data.id");
+
+        given()
+            .body(BulkReservationDto.builder().mode(BulkReservationDto.Mode.BEST_EFFORT).reservations(Arrays.asList(
+                    this.bulkReservationItem(campsiteId, tomorrow.plusDays(1)),
+                    this.bulkReservationItem(campsiteId, tomorrow),
+                    this.bulkReservationItem(campsiteId, tomorrow),
+                    this.bulkReservationItem(UUID.randomUUID(), tomorrow),
+                    this.bulkReservationItem(campsiteId, tomorrow.minusDays(1)))).build())
+        .when()
+            .post("/campsites/reservations/bulk")
+        .then()
+            .statusCode(HttpStatus.MULTI_STATUS.value())
+            .body("data.index", contains(0, 1, 2, 3, 4))
+            .body("data.status", contains("CREATED", "CREATED", "FAILED", "FAILED", "FAILED"))
+            .body("data[0].reservation.id", notNullValue())
+            .body("data[1].reservation.checkIn", is(tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE)))
+            .body("data[2].errors[0]", is("Site not available for one or more of the given dates"))
+            .body("data[3].errors.size()", is(1))
+            .body("data[4].errors.size()", is(1));
+
+        given()
+            .queryParam("start", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/availabilities", campsiteId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data[0].sites", is(0));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", campsiteId);
+    }
+
+    @Test
+    public void shouldNotMakeAnyBulkCampsiteReservationIfOneFails() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        UUID campsiteId = given().body(CampsiteDto.builder().name("Bulk Test Campsite").capacity(1).build())
+                .post("/campsites").jsonPath().getUUID("data.id");
+
+        given()
+            .body(BulkReservationDto.builder().reservations(Arrays.asList(
+                    this.bulkReservationItem(campsiteId, tomorrow),
+                    this.bulkReservationItem(campsiteId, tomorrow))).build())
+        .when()
+            .post("/campsites/reservations/bulk")
+        .then()
+            .statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value())
+            .body("data.status", contains("ROLLED_BACK", "FAILED"))
+            .body("errors.size()", is(1));
+
+        given()
+            .body(BulkReservationDto.builder().reservations(Arrays.asList(
+                    this.bulkReservationItem(campsiteId, tomorrow),
+                    this.bulkReservationItem(campsiteId, tomorrow.plusDays(1)))).build())
+        .when()
+            .post("/campsites/reservations/bulk")
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .body("data.status", contains("CREATED", "CREATED"));
+
+        // Failed as a whole because of the Campsite not found, thus recorded as such
+        given()
+            .body(BulkReservationDto.builder().reservations(Arrays.asList(
+                    this.bulkReservationItem(campsiteId, tomorrow.plusDays(2)),
+                    this.bulkReservationItem(UUID.randomUUID(), tomorrow))).build())
+        .when()
+            .post("/campsites/reservations/bulk")
+        .then()
+            .statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value())
+            .body("data.status", contains("ROLLED_BACK", "FAILED"));
+
+        given()
+            .basePath("/actuator")
+            .queryParam("tag", "method:makeReservations")
+            .queryParam("tag", "outcome:not-found")
+        .when()
+            .get("/metrics/campsite.service")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("measurements.find { it.statistic == 'COUNT' }.value", greaterThanOrEqualTo(1f));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", campsiteId);
+    }
+
+    @Test
+    public void shouldNotMakeInvalidCampsiteReservation() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+        given()
+            .body(ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(tomorrow.plusDays(1)).checkOut(tomorrow).build())
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value())
+            .body("errors[0]", startsWith("Reservation check-in"));
+
+        given()
+            .body(ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(tomorrow).checkOut(tomorrow.plusDays(4)).build())
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value())
+            .body("errors[0]", is("The campsite can be reserved for max 3 day(s)"));
+
+        given()
+            .body(ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(tomorrow.plusDays(60)).checkOut(tomorrow.plusDays(61)).build())
+        .when()
+            .post("/campsites/{id}/reservations", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value())
+            .body("errors[0]", startsWith("The campsite can be reserved minimum 1 day(s) ahead"));
+
+        given()
+            .basePath("/actuator")
+            .queryParam("tag", "method:makeReservation")
+            .queryParam("tag", "outcome:validation-error")
+        .when()
+            .get("/metrics/campsite.service")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("measurements.find { it.statistic == 'COUNT' }.value", greaterThanOrEqualTo(3f));
     }
 
     @Test
@@ -229,6 +835,263 @@ public class ApplicationTests {
                 campsiteDto.getId(), reservationDto.getId());
     }
 
+    @Test
+    public void shouldMoveCampsiteReservation() {
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+
+        LocalDate checkIn = reservationDto.getCheckIn().plusDays(1);
+        ReservationDto updatedReservationDto = ReservationDto.builder().name(reservationDto.getName())
+                .email(reservationDto.getEmail()).checkIn(checkIn).checkOut(checkIn.plusDays(1)).build();
+
+        given()
+            .body(updatedReservationDto)
+        .when()
+            .put("/campsites/{id}/reservations/{reservationId}", campsiteDto.getId(), reservationDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.checkIn", is(checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE)));
+
+        given()
+            .queryParam("start", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/availabilities", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data[0].sites", is(campsiteDto.getCapacity()))
+            .body("data[1].sites", is(campsiteDto.getCapacity() - 1));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
+    }
+
+    @Test
+    public void shouldGetCampsiteOccupancy() {
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+
+        given()
+            .queryParam("start", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", reservationDto.getCheckOut().format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/occupancy", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.maxOccupancy", greaterThanOrEqualTo(1))
+            .body("data.reservations.id", hasItem(reservationDto.getId().toString()));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
+
+        given()
+            .queryParam("start", reservationDto.getCheckIn().format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", reservationDto.getCheckOut().format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/occupancy", campsiteDto.getId())
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.reservations.id", not(hasItem(reservationDto.getId().toString())));
+    }
+
+    @Test
+    public void shouldExposeCampsiteReservationMetrics() {
+        ReservationDto reservationDto = this.makeCampsiteReservation();
+
+        given()
+            .basePath("/actuator")
+            .queryParam("tag", "method:makeReservation")
+            .queryParam("tag", "outcome:success")
+        .when()
+            .get("/metrics/campsite.service")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("measurements.find { it.statistic == 'COUNT' }.value", greaterThanOrEqualTo(1f));
+
+        given()
+            .basePath("/actuator")
+            .queryParam("tag", "campsite:" + campsiteDto.getId())
+        .when()
+            .get("/metrics/campsite.availability.open")
+        .then()
+            .statusCode(HttpStatus.OK.value());
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/reservations/{reservationId}",
+                campsiteDto.getId(), reservationDto.getId());
+
+        given()
+            .basePath("/actuator")
+            .queryParam("tag", "type:created")
+        .when()
+            .get("/metrics/campsite.reservation.nights")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("measurements.find { it.statistic == 'COUNT' }.value", greaterThanOrEqualTo(1f));
+    }
+
+    @Test
+    public void shouldSearchCampsiteAvailabilities() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        LocalDate checkIn = tomorrow.plusDays(1);
+        UUID campsiteId = given().body(CampsiteDto.builder().name("Search Test Campsite").capacity(1).build())
+                .post("/campsites").jsonPath().getUUID("data.id");
+        UUID heldCampsiteId = given().body(CampsiteDto.builder().name("Held Search Test Campsite").capacity(1).build())
+                .post("/campsites").jsonPath().getUUID("data.id");
+        UUID holdId = given().body(HoldDto.builder().checkIn(checkIn).checkOut(checkIn.plusDays(1)).build())
+                .post("/campsites/{id}/holds", heldCampsiteId).jsonPath().getUUID("data.id");
+
+        given()
+            .queryParam("checkIn", checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("checkOut", checkIn.plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("size", 1000)
+        .when()
+            .get("/campsites/availabilities")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body(String.format("data.find { it.campsiteId == '%s' }.name", campsiteId), is("Search Test Campsite"))
+            .body(String.format("data.find { it.campsiteId == '%s' }.checkIn", campsiteId), is(checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE)))
+            .body(String.format("data.find { it.campsiteId == '%s' }.sites", campsiteId), is(1))
+            .body("data.campsiteId", not(hasItem(heldCampsiteId.toString())));
+
+        given()
+            .queryParam("checkIn", checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("checkOut", checkIn.plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("flex", 1)
+            .queryParam("size", 1000)
+        .when()
+            .get("/campsites/availabilities")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body(String.format("data.find { it.campsiteId == '%s' }.checkIn", heldCampsiteId), is(tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE)));
+
+        given()
+            .queryParam("checkIn", checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("checkOut", checkIn.plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("sites", 2)
+            .queryParam("size", 1000)
+        .when()
+            .get("/campsites/availabilities")
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.campsiteId", not(hasItem(campsiteId.toString())));
+
+        given()
+            .queryParam("checkIn", checkIn.format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/availabilities")
+        .then()
+            .statusCode(HttpStatus.BAD_REQUEST.value())
+            .body("errors[0]", is("Parameter 'checkOut' (LocalDate) must be specified"));
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}/holds/{holdId}", heldCampsiteId, holdId);
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", campsiteId);
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", heldCampsiteId);
+    }
+
+    @Test
+    public void shouldPromoteCampsiteHold() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        UUID campsiteId = given().body(CampsiteDto.builder().name("Hold Test Campsite").capacity(1).build())
+                .post("/campsites").jsonPath().getUUID("data.id");
+
+        UUID holdId = given()
+            .body(HoldDto.builder().checkIn(tomorrow).checkOut(tomorrow.plusDays(2)).build())
+        .when()
+            .post("/campsites/{id}/holds", campsiteId)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .body("data.id", notNullValue())
+            .body("data.expires", notNullValue())
+            .extract().jsonPath().getUUID("data.id");
+
+        given()
+            .body(HoldDto.builder().checkIn(tomorrow.plusDays(1)).checkOut(tomorrow.plusDays(2)).build())
+        .when()
+            .post("/campsites/{id}/holds", campsiteId)
+        .then()
+            .statusCode(HttpStatus.UNPROCESSABLE_ENTITY.value());
+
+        given()
+            .body(HoldDto.builder().checkIn(tomorrow).checkOut(tomorrow.plusDays(1)).build())
+        .when()
+            .post("/campsites/{id}/holds", UUID.randomUUID())
+        .then()
+            .statusCode(HttpStatus.NOT_FOUND.value());
+
+        expect().statusCode(HttpStatus.OK.value()).when().get("/campsites/{id}/holds/{holdId}", campsiteId, holdId);
+
+        given()
+            .body(HoldPromotionDto.builder().name("John Doe").email("john.doe@test.com").build())
+        .when()
+            .post("/campsites/{id}/holds/{holdId}/reservation", campsiteId, holdId)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .body("data.id", notNullValue())
+            .body("data.checkIn", is(tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE)))
+            .body("data.checkOut", is(tomorrow.plusDays(2).format(DateTimeFormatter.ISO_LOCAL_DATE)));
+
+        expect().statusCode(HttpStatus.NOT_FOUND.value()).when().get("/campsites/{id}/holds/{holdId}", campsiteId, holdId);
+        expect().statusCode(HttpStatus.NOT_FOUND.value()).when().delete("/campsites/{id}/holds/{holdId}", campsiteId, holdId);
+        availabilityView.flush().join();
+
+        given()
+            .queryParam("start", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+            .queryParam("end", tomorrow.plusDays(1).format(DateTimeFormatter.ISO_LOCAL_DATE))
+        .when()
+            .get("/campsites/{id}/availabilities", campsiteId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.sites", contains(0, 0));
+
+        given()
+        .when()
+            .get("/campsites/{id}/reservations", campsiteId)
+        .then()
+            .statusCode(HttpStatus.OK.value())
+            .body("data.size()", is(1));
+
+        // Holds are deleted along with their Campsite
+        UUID otherHoldId = given().body(HoldDto.builder().checkIn(tomorrow.plusDays(2)).checkOut(tomorrow.plusDays(3)).build())
+                .post("/campsites/{id}/holds", campsiteId).jsonPath().getUUID("data.id");
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", campsiteId);
+        expect().statusCode(HttpStatus.NOT_FOUND.value()).when().get("/campsites/{id}/holds/{holdId}", campsiteId, otherHoldId);
+    }
+
+    @Test
+    public void shouldExpireCampsiteHold() throws InterruptedException {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        UUID campsiteId = given().body(CampsiteDto.builder().name("Hold Test Campsite").capacity(1).build())
+                .post("/campsites").jsonPath().getUUID("data.id");
+
+        UUID holdId = given()
+            .body(HoldDto.builder().checkIn(tomorrow).checkOut(tomorrow.plusDays(1)).ttl(1L).build())
+        .when()
+            .post("/campsites/{id}/holds", campsiteId)
+        .then()
+            .statusCode(HttpStatus.CREATED.value())
+            .extract().jsonPath().getUUID("data.id");
+
+        // Expired within a couple of ticks past its TTL
+        int sites = 0;
+        for (int attempt = 0; attempt < 50 && sites == 0; attempt++) {
+            Thread.sleep(100);
+            sites = given()
+                    .queryParam("start", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+                    .queryParam("end", tomorrow.format(DateTimeFormatter.ISO_LOCAL_DATE))
+                    .get("/campsites/{id}/availabilities", campsiteId).jsonPath().getInt("data[0].sites");
+        }
+        assertThat(sites, is(1));
+
+        expect().statusCode(HttpStatus.NOT_FOUND.value()).when().get("/campsites/{id}/holds/{holdId}", campsiteId, holdId);
+        given()
+            .body(HoldPromotionDto.builder().name("John Doe").email("john.doe@test.com").build())
+        .when()
+            .post("/campsites/{id}/holds/{holdId}/reservation", campsiteId, holdId)
+        .then()
+            .statusCode(HttpStatus.NOT_FOUND.value());
+
+        expect().statusCode(HttpStatus.OK.value()).when().delete("/campsites/{id}", campsiteId);
+    }
+
     @Test
     public void shouldCancelCampsiteReservation() {
         ReservationDto reservationDto = this.makeCampsiteReservation();
@@ -242,6 +1105,11 @@ public class ApplicationTests {
             .body("message", is(HttpStatus.OK.getReasonPhrase()));
     }
 
+    private BulkReservationItemDto bulkReservationItem(UUID campsiteId, LocalDate checkIn) {
+        return BulkReservationItemDto.builder().campsiteId(campsiteId).reservation(ReservationDto.builder().name("John Doe")
+                .email("john.doe@test.com").checkIn(checkIn).checkOut(checkIn.plusDays(1)).build()).build();
+    }
+
     private ReservationDto makeCampsiteReservation() {
         LocalDate tomorrow = LocalDate.now().plusDays(1);
 
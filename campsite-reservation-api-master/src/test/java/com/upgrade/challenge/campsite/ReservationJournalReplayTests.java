@@ -0,0 +1,146 @@
+package com.upgrade.challenge.campsite;
+
+import com.upgrade.challenge.campsite.api.CampsiteDto;
+import com.upgrade.challenge.campsite.api.CampsiteService;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import com.upgrade.challenge.campsite.api.warmup.WarmupPipeline;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Commands are run on an application with the journal enabled, which is then stopped, and the journal is replayed by
+ * a new application on an empty DB, whose Campsites, Reservations and availabilities must match the first one's. The
+ * reservations of the warm-up, always rolled back, leave abort records behind.
+ */
+public class ReservationJournalReplayTests {
+
+    private static final String CAMPSITES = "select rawtohex(id) id, name, capacity from campsites order by id";
+    private static final String RESERVATIONS = "select rawtohex(id) id, name, email, check_in, check_out, rawtohex(campsite_id) campsite_id from reservations order by id";
+    private static final String AVAILABILITIES = "select rawtohex(campsite_id) campsite_id, date, sites from availabilities order by campsite_id, date";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final LocalDate checkIn = LocalDate.now().plusDays(2);
+
+    @Test
+    public void shouldReplayJournalIntoEmptyDB() throws IOException {
+        Path directory = folder.newFolder().toPath();
+
+        List<List<Map<String, Object>>> tables;
+        try (ConfigurableApplicationContext context = this.start(directory)) {
+            this.runCommands(context);
+            tables = this.readTables(context);
+        }
+
+        try (ConfigurableApplicationContext context = this.start(directory)) {
+            assertThat(this.readTables(context), is(tables));
+        }
+    }
+
+    @Test
+    public void shouldReplayJournalUpToCorruptedRecord() throws IOException {
+        Path directory = folder.newFolder().toPath();
+
+        List<List<Map<String, Object>>> tables;
+        try (ConfigurableApplicationContext context = this.start(directory)) {
+            UUID campsiteId = this.runCommands(context);
+            tables = this.readTables(context);
+
+            context.getBean(CampsiteService.class).makeReservation(campsiteId, this.reservation(checkIn.plusDays(5)));
+            assertThat(this.readTables(context), is(not(tables)));
+        }
+
+        // Last record (the reservation made last) not fully written before a crash
+        this.corruptLastRecord(directory);
+
+        try (ConfigurableApplicationContext context = this.start(directory)) {
+            assertThat(this.readTables(context), is(tables));
+        }
+    }
+
+    /**
+     * Creates, renames, reserves, modifies and cancels.
+     *
+     * @return Campsite created.
+     */
+    private UUID runCommands(ConfigurableApplicationContext context) {
+        CampsiteService campsiteService = context.getBean(CampsiteService.class);
+
+        UUID campsiteId = campsiteService.create(CampsiteDto.builder().name("Journaled Campsite").capacity(3).build()).getData().getId();
+        campsiteService.update(campsiteId, CampsiteDto.builder().name("Renamed Journaled Campsite").build());
+
+        ReservationDto reservationDto = campsiteService.makeReservation(campsiteId, this.reservation(checkIn)).getData();
+        campsiteService.modifyReservation(campsiteId, reservationDto.getId(), this.reservation(checkIn.plusDays(1)));
+        UUID cancelledReservationId = campsiteService.makeReservation(campsiteId, this.reservation(checkIn)).getData().getId();
+        campsiteService.cancelReservation(campsiteId, cancelledReservationId);
+        campsiteService.makeReservation(campsiteId, this.reservation(checkIn.plusDays(2)));
+
+        return campsiteId;
+    }
+
+    private ConfigurableApplicationContext start(Path directory) {
+        // Arguments rather than default properties, which the application's properties override
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class).run(
+                "--server.port=0",
+                "--spring.jmx.enabled=false",
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+                "--api.campsite.warmup.iterations=5",
+                "--api.campsite.journal.enabled=true",
+                "--api.campsite.journal.directory=" + directory,
+                "--api.campsite.journal.segment-size=65536");
+        context.getBean(WarmupPipeline.class).getCompletion().join();
+
+        return context;
+    }
+
+    private List<List<Map<String, Object>>> readTables(ConfigurableApplicationContext context) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        return Stream.of(CAMPSITES, RESERVATIONS, AVAILABILITIES).map(jdbcTemplate::queryForList).collect(Collectors.toList());
+    }
+
+    private void corruptLastRecord(Path directory) throws IOException {
+        Path segment;
+        try (Stream<Path> paths = Files.list(directory)) {
+            segment = paths.filter(path -> path.getFileName().toString().startsWith("journal-")).max(Path::compareTo).get();
+        }
+
+        // Records are written as length, checksum and payload, up to an empty length
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        int lastRecordEnd = 0;
+        for (int length = buffer.getInt(); length > 0; length = buffer.getInt()) {
+            buffer.position(buffer.position() + Integer.BYTES + length);
+            lastRecordEnd = buffer.position();
+        }
+        assertThat(lastRecordEnd, greaterThan(0));
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) ~buffer.get(lastRecordEnd - 1)}), lastRecordEnd - 1);
+        }
+    }
+
+    private ReservationDto reservation(LocalDate checkIn) {
+        return ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(checkIn).checkOut(checkIn.plusDays(2)).build();
+    }
+}
@@ -0,0 +1,112 @@
+package com.upgrade.challenge.campsite.api;
+
+import com.upgrade.challenge.campsite.api.common.ApiErrorMessages;
+import com.upgrade.challenge.campsite.api.common.ApiResponse;
+import com.upgrade.challenge.campsite.api.common.ConflictRetryTemplate;
+import com.upgrade.challenge.campsite.api.reservation.ReservationCommand;
+import com.upgrade.challenge.campsite.api.reservation.ReservationDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReservationIntakeTests {
+
+    private final UUID campsiteId = UUID.randomUUID();
+    private final CampsiteService campsiteService = mock(CampsiteService.class);
+
+    private ReservationIntake reservationIntake;
+
+    @Before
+    public void init() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        reservationIntake = new ReservationIntake(1, 100, 10L, 30L, campsiteService,
+                new ConflictRetryTemplate(3, 1L, 2.0, 10L, meterRegistry), mock(ApiErrorMessages.class), meterRegistry);
+    }
+
+    @Test
+    public void shouldApplyQueuedReservationsOnShutdown() throws InterruptedException {
+        when(campsiteService.makeReservation(eq(campsiteId), any())).thenAnswer(invocation -> {
+            Thread.sleep(20);
+            return ApiResponse.<ReservationDto>builder().data(invocation.getArgument(1)).build();
+        });
+
+        List<ReservationCommand> commands = IntStream.range(0, 10).mapToObj(i -> reservationIntake.submit(campsiteId, this.reservationDto()))
+                .collect(Collectors.toList());
+
+        reservationIntake.shutdown();
+
+        assertThat(commands.stream().map(ReservationCommand::getStatus).collect(Collectors.toList()),
+                everyItem(is(ReservationCommand.Status.CREATED)));
+    }
+
+    @Test
+    public void shouldFailReservationOnUnexpectedError() {
+        when(campsiteService.makeReservation(eq(campsiteId), any())).thenThrow(new AssertionError("Unexpected"));
+
+        ReservationCommand command = reservationIntake.submit(campsiteId, this.reservationDto()).getCompletion().join();
+
+        assertThat(command.getStatus(), is(ReservationCommand.Status.FAILED));
+        assertThat(command.getErrors(), contains("Unexpected"));
+    }
+
+    @Test
+    public void shouldQueueReservationOnceCommitted() {
+        when(campsiteService.makeReservation(eq(campsiteId), any())).thenAnswer(invocation ->
+                ApiResponse.<ReservationDto>builder().data(invocation.getArgument(1)).build());
+
+        // Submitted within a transaction rolled back (e.g. its idempotency key stored concurrently)
+        ReservationCommand rolledBackCommand = this.submit(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(reservationIntake.get(rolledBackCommand.getId()).isPresent(), is(false));
+        assertThat(rolledBackCommand.getStatus(), is(ReservationCommand.Status.PENDING));
+
+        ReservationCommand command = this.submit(TransactionSynchronization.STATUS_COMMITTED).getCompletion().join();
+
+        assertThat(command.getStatus(), is(ReservationCommand.Status.CREATED));
+        verify(campsiteService, times(1)).makeReservation(eq(campsiteId), any());
+    }
+
+    /**
+     * Submits a reservation from within a transaction completed with the given status.
+     */
+    private ReservationCommand submit(int status) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            ReservationCommand command = reservationIntake.submit(campsiteId, this.reservationDto());
+            assertThat(command.getStatus(), is(ReservationCommand.Status.PENDING));
+
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                TransactionSynchronizationUtils.triggerAfterCommit();
+            }
+            TransactionSynchronizationUtils.triggerAfterCompletion(status);
+
+            return command;
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private ReservationDto reservationDto() {
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        return ReservationDto.builder().name("John Doe").email("john.doe@test.com").checkIn(tomorrow).checkOut(tomorrow.plusDays(1)).build();
+    }
+}
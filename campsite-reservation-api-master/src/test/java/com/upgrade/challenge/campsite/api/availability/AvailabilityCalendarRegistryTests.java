@@ -0,0 +1,246 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import com.upgrade.challenge.campsite.api.CampsiteRepository;
+import com.upgrade.challenge.campsite.api.common.Helper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Transactions are simulated by triggering their synchronizations by hand, and the availabilities table is a map of
+ * the sites of each night read by the calendars being loaded.
+ */
+public class AvailabilityCalendarRegistryTests {
+
+    private final UUID campsiteId = UUID.randomUUID();
+    private final LocalDate today = LocalDate.now();
+    private final LocalDate tomorrow = today.plusDays(1);
+    private final Map<LocalDate, Integer> sites = new ConcurrentSkipListMap<>();
+    private final CampsiteRepository campsiteRepository = mock(CampsiteRepository.class);
+    private final AvailabilityRepository availabilityRepository = mock(AvailabilityRepository.class);
+    private final CommitSequence commitSequence = new CommitSequence();
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private AvailabilityCalendarRegistry availabilityCalendarRegistry;
+
+    @Before
+    public void init() {
+        AvailabilityStoreFactory availabilityStoreFactory = mock(AvailabilityStoreFactory.class);
+        when(availabilityStoreFactory.create("calendars")).thenReturn(HeapAvailabilityStore.INSTANCE);
+
+        sites.put(today, 2);
+        sites.put(tomorrow, 2);
+        when(availabilityRepository.findAllProjectedByCampsiteId(campsiteId)).thenAnswer(invocation -> this.read());
+
+        availabilityCalendarRegistry = new AvailabilityCalendarRegistry(10L, 60L, campsiteRepository, availabilityRepository,
+                availabilityStoreFactory, commitSequence, meterRegistry);
+    }
+
+    @Test
+    public void shouldApplyChangesCommittedAfterLoaded() {
+        AvailabilityCalendar calendar = availabilityCalendarRegistry.get(campsiteId);
+
+        this.commit(() -> this.claim(today, tomorrow));
+
+        assertThat(availabilityCalendarRegistry.get(campsiteId), is(calendar));
+        assertThat(calendar.getMinSites(today, tomorrow), is(1));
+    }
+
+    @Test
+    public void shouldSkipChangesLoadedAlready() {
+        availabilityCalendarRegistry.get(campsiteId);
+
+        // Loaded again once committed, but before the change is applied
+        this.commit(() -> {
+            this.claim(today, tomorrow);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public int getOrder() {
+                    return 0;
+                }
+
+                @Override
+                public void afterCommit() {
+                    availabilityCalendarRegistry.evict(campsiteId);
+                    availabilityCalendarRegistry.get(campsiteId);
+                }
+            });
+        });
+
+        assertThat(availabilityCalendarRegistry.get(campsiteId).getMinSites(today, tomorrow), is(1));
+    }
+
+    @Test
+    public void shouldApplyChangesCommittedWhileLoading() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch committing = new CountDownLatch(1);
+        when(availabilityRepository.findAllProjectedByCampsiteId(campsiteId)).thenAnswer(invocation -> {
+            List<AvailabilityDto> availabilities = this.read();
+            loading.countDown();
+            committing.await(5, TimeUnit.SECONDS);
+            return availabilities;
+        });
+
+        CompletableFuture<AvailabilityCalendar> calendar = CompletableFuture.supplyAsync(() -> availabilityCalendarRegistry.get(campsiteId));
+        loading.await(5, TimeUnit.SECONDS);
+
+        // Committed once the calendar is loaded, without the change
+        CompletableFuture<Void> commit = CompletableFuture.runAsync(() -> this.commit(() -> this.claim(today, tomorrow)));
+        committing.countDown();
+        commit.get(5, TimeUnit.SECONDS);
+
+        assertThat(calendar.get(5, TimeUnit.SECONDS).getMinSites(today, tomorrow), is(1));
+    }
+
+    @Test
+    public void shouldNotLoadChangesBeforeCommitted() {
+        this.commit(() -> {
+            this.claim(today, tomorrow);
+
+            assertThat(availabilityCalendarRegistry.get(campsiteId).isEmpty(), is(true));
+        });
+
+        assertThat(availabilityCalendarRegistry.get(campsiteId).getMinSites(today, tomorrow), is(1));
+    }
+
+    @Test
+    public void shouldClaimAgainOnCalendarLoadedBeforeCommitted() {
+        AvailabilityCalendar calendar = availabilityCalendarRegistry.get(campsiteId);
+
+        // Loaded again (by another transaction) between the claim and the commit, without it
+        this.commit(() -> {
+            this.tryClaim(today, tomorrow);
+            availabilityCalendarRegistry.evict(campsiteId);
+            assertThat(CompletableFuture.supplyAsync(() -> availabilityCalendarRegistry.get(campsiteId)).join()
+                    .getMinSites(today, tomorrow), is(2));
+        });
+
+        assertThat(calendar.getMinSites(today, tomorrow), is(1));
+        assertThat(availabilityCalendarRegistry.get(campsiteId).getMinSites(today, tomorrow), is(1));
+    }
+
+    @Test
+    public void shouldNotClaimAgainOnCalendarLoadedOnceCommitted() {
+        availabilityCalendarRegistry.get(campsiteId);
+
+        this.commit(() -> {
+            this.tryClaim(today, tomorrow);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public int getOrder() {
+                    return 0;
+                }
+
+                @Override
+                public void afterCommit() {
+                    availabilityCalendarRegistry.evict(campsiteId);
+                    availabilityCalendarRegistry.get(campsiteId);
+                }
+            });
+        });
+
+        assertThat(availabilityCalendarRegistry.get(campsiteId).getMinSites(today, tomorrow), is(1));
+    }
+
+    @Test
+    public void shouldExposeCacheStats() {
+        availabilityCalendarRegistry.get(campsiteId);
+        availabilityCalendarRegistry.get(campsiteId);
+        availabilityCalendarRegistry.get(UUID.randomUUID());
+
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "availability.calendars").tag("result", "hit")
+                .functionCounter().count(), is(1.0));
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "availability.calendars").tag("result", "miss")
+                .functionCounter().count(), is(2.0));
+        assertThat(meterRegistry.get("cache.size").tag("cache", "availability.calendars").gauge().value(), is(1.0));
+        assertThat(meterRegistry.get("campsite.availability.open").tag("campsite", campsiteId.toString()).gauge().value(), is(4.0));
+
+        availabilityCalendarRegistry.evict(campsiteId);
+
+        assertThat(meterRegistry.find("campsite.availability.open").tag("campsite", campsiteId.toString()).gauge(), nullValue());
+    }
+
+    /**
+     * Takes a site for every night of the stay in the availabilities table, and on the calendar once committed, as
+     * reservations do.
+     */
+    private void claim(LocalDate checkIn, LocalDate checkOut) {
+        commitSequence.track(campsiteId);
+        this.write(checkIn, checkOut);
+
+        Helper.afterCommit(() -> availabilityCalendarRegistry.claim(campsiteId, checkIn, checkOut));
+    }
+
+    /**
+     * Same as {@link #claim(LocalDate, LocalDate)}, but claiming the sites on the calendar right away, as reservations
+     * do in lock-free mode.
+     */
+    private void tryClaim(LocalDate checkIn, LocalDate checkOut) {
+        AvailabilityCalendar calendar = availabilityCalendarRegistry.get(campsiteId);
+        commitSequence.track(campsiteId);
+        assertThat(calendar.tryClaim(checkIn, checkOut), is(true));
+        this.write(checkIn, checkOut);
+
+        Helper.afterCommit(() -> availabilityCalendarRegistry.apply(campsiteId, current -> {
+            if (current != calendar) {
+                current.claim(checkIn, checkOut);
+            }
+        }));
+    }
+
+    /**
+     * Takes a site for every night of the stay in the availabilities table, once committed.
+     */
+    private void write(LocalDate checkIn, LocalDate checkOut) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                for (LocalDate night = checkIn; night.isBefore(checkOut); night = night.plusDays(1)) {
+                    sites.merge(night, -1, Integer::sum);
+                }
+            }
+        });
+    }
+
+    private void commit(Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            work.run();
+
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            TransactionSynchronizationUtils.triggerBeforeCompletion();
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private List<AvailabilityDto> read() {
+        List<AvailabilityDto> availabilities = new ArrayList<>();
+        sites.forEach((date, availableSites) -> availabilities.add(AvailabilityDto.builder().date(date).sites(availableSites).build()));
+        return availabilities;
+    }
+}
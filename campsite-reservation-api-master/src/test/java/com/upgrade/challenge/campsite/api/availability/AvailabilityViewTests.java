@@ -0,0 +1,127 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import com.upgrade.challenge.campsite.api.CampsiteRepository;
+import com.upgrade.challenge.campsite.api.common.exceptions.AvailabilityNotReadyException;
+import com.upgrade.challenge.campsite.api.reservation.ReservationEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AvailabilityViewTests {
+
+    private final UUID campsiteId = UUID.randomUUID();
+    private final LocalDate today = LocalDate.now();
+    private final CampsiteRepository campsiteRepository = mock(CampsiteRepository.class);
+    private final AvailabilityRepository availabilityRepository = mock(AvailabilityRepository.class);
+    private final CommitSequence commitSequence = new CommitSequence();
+
+    private AvailabilityView availabilityView;
+
+    @Before
+    public void init() {
+        AvailabilityStoreFactory availabilityStoreFactory = mock(AvailabilityStoreFactory.class);
+        when(availabilityStoreFactory.create("view")).thenReturn(HeapAvailabilityStore.INSTANCE);
+
+        when(campsiteRepository.findAllIds()).thenReturn(Collections.singletonList(campsiteId));
+        when(availabilityRepository.findAllProjectedByCampsiteId(campsiteId)).thenReturn(Arrays.asList(
+                AvailabilityDto.builder().date(today).sites(2).build(),
+                AvailabilityDto.builder().date(today.plusDays(1)).sites(2).build()));
+
+        availabilityView = new AvailabilityView(campsiteRepository, availabilityRepository, availabilityStoreFactory, commitSequence, new SimpleMeterRegistry());
+    }
+
+    @After
+    public void shutdown() {
+        availabilityView.shutdown();
+    }
+
+    @Test(expected = AvailabilityNotReadyException.class)
+    public void shouldNotGetCalendarBeforeRebuilt() {
+        availabilityView.get(campsiteId);
+    }
+
+    @Test(expected = AvailabilityNotReadyException.class)
+    public void shouldNotGetCampsitesBeforeRebuilt() {
+        availabilityView.getCampsiteIds();
+    }
+
+    @Test
+    public void shouldGetCalendarOnceRebuilt() {
+        availabilityView.rebuild().join();
+
+        assertThat(availabilityView.isReady(), is(true));
+        assertThat(availabilityView.getCampsiteIds(), contains(campsiteId));
+        assertThat(availabilityView.get(campsiteId).getMinSites(today, today.plusDays(2)), is(2));
+        assertThat(availabilityView.get(UUID.randomUUID()).isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldApplyChangesCommittedAfterLoaded() {
+        availabilityView.rebuild().join();
+
+        this.commit(() -> { });
+        availabilityView.flush().join();
+
+        assertThat(availabilityView.get(campsiteId).getMinSites(today, today.plusDays(2)), is(1));
+    }
+
+    @Test
+    public void shouldSkipChangesLoadedAlready() {
+        availabilityView.rebuild().join();
+
+        // Loaded again once committed, but before the change is queued
+        this.commit(() -> TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public int getOrder() {
+                return 0;
+            }
+
+            @Override
+            public void afterCommit() {
+                when(availabilityRepository.findAllProjectedByCampsiteId(campsiteId)).thenReturn(Arrays.asList(
+                        AvailabilityDto.builder().date(today).sites(1).build(),
+                        AvailabilityDto.builder().date(today.plusDays(1)).sites(2).build()));
+                availabilityView.reload(campsiteId);
+                availabilityView.flush().join();
+            }
+        }));
+        availabilityView.flush().join();
+
+        assertThat(availabilityView.get(campsiteId).getMinSites(today, today.plusDays(2)), is(1));
+    }
+
+    /**
+     * Commits a reservation for tonight, whose event is queued once committed, as by transactional event listeners.
+     */
+    private void commit(Runnable work) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            commitSequence.track(campsiteId);
+            work.run();
+
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            availabilityView.onReservationEvent(ReservationEvent.builder().type(ReservationEvent.Type.CREATED).campsiteId(campsiteId)
+                    .checkIn(today).checkOut(today.plusDays(1)).build());
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
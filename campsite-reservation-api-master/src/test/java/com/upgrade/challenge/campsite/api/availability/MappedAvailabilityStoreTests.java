@@ -0,0 +1,152 @@
+package com.upgrade.challenge.campsite.api.availability;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MappedAvailabilityStoreTests {
+
+    private static final int DAYS = 8;
+    private static final int REGIONS = 4;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID campsiteId = UUID.randomUUID();
+    private final LocalDate today = LocalDate.now();
+
+    private MappedAvailabilityStore store;
+
+    @Before
+    public void init() throws IOException {
+        store = new MappedAvailabilityStore(folder.newFile().toPath(), DAYS, REGIONS);
+    }
+
+    @Test
+    public void shouldClaimAndReleaseSites() {
+        AvailabilityCalendar calendar = this.load(campsiteId, 2, 3);
+
+        assertThat(calendar.tryClaim(today, today.plusDays(3)), is(true));
+        assertThat(calendar.tryClaim(today, today.plusDays(3)), is(true));
+        assertThat(calendar.tryClaim(today, today.plusDays(3)), is(false));
+        assertThat(calendar.getMinSites(today, today.plusDays(3)), is(0));
+
+        calendar.release(today, today.plusDays(2));
+
+        assertThat(calendar.getMinSites(today, today.plusDays(2)), is(1));
+        assertThat(calendar.getMinSites(today.plusDays(2), today.plusDays(3)), is(0));
+        assertThat(store.getFreeRegions(), is(REGIONS - 1));
+    }
+
+    @Test
+    public void shouldNotWriteOverReloadedCalendar() {
+        AvailabilityCalendar calendar = this.load(campsiteId, 2, 3);
+        AvailabilityCalendar reloadedCalendar = this.load(campsiteId, 2, 3);
+
+        // Replaced calendars may still be updated, but never over the new one
+        calendar.claim(today, today.plusDays(3));
+        calendar.claim(today, today.plusDays(3));
+        reloadedCalendar.claim(today, today.plusDays(1));
+
+        assertThat(calendar.getMinSites(today, today.plusDays(3)), is(0));
+        assertThat(reloadedCalendar.getMinSites(today, today.plusDays(1)), is(1));
+        assertThat(reloadedCalendar.getMinSites(today.plusDays(1), today.plusDays(3)), is(2));
+        assertThat(store.getFreeRegions(), is(REGIONS - 1));
+    }
+
+    @Test
+    public void shouldKeepRegionOfCampsiteOnReload() {
+        // Rolling over the nights, far more times than there are regions
+        AvailabilityCalendar calendar = null;
+        for (int day = 0; day < REGIONS * DAYS; day++) {
+            calendar = this.load(campsiteId, today.plusDays(day), day, DAYS);
+        }
+
+        assertThat(store.getFreeRegions(), is(REGIONS - 1));
+        assertThat(calendar.getMinSites(today.plusDays(REGIONS * DAYS - 1), today.plusDays(REGIONS * DAYS - 1 + DAYS)), is(REGIONS * DAYS - 1));
+    }
+
+    @Test
+    public void shouldKeepCalendarsOnTheHeapWithoutFreeRegion() {
+        List<AvailabilityCalendar> calendars = IntStream.range(0, REGIONS + 1).mapToObj(i -> this.load(UUID.randomUUID(), i, 3)).collect(Collectors.toList());
+        AvailabilityCalendar longCalendar = this.load(campsiteId, 1, DAYS + 1);
+
+        assertThat(store.getFreeRegions(), is(0));
+        for (int i = 0; i <= REGIONS; i++) {
+            assertThat(calendars.get(i).getMinSites(today, today.plusDays(3)), is(i));
+        }
+        assertThat(longCalendar.getMinSites(today, today.plusDays(DAYS + 1)), is(1));
+    }
+
+    @Test
+    public void shouldGiveBackRegionOfDeletedCampsite() {
+        List<UUID> campsiteIds = IntStream.range(0, REGIONS).mapToObj(i -> UUID.randomUUID()).collect(Collectors.toList());
+        AvailabilityCalendar deletedCalendar = this.load(campsiteIds.get(0), 1, 3);
+        campsiteIds.forEach(id -> this.load(id, 1, 3));
+        assertThat(store.getFreeRegions(), is(0));
+
+        store.release(campsiteIds.get(0));
+        assertThat(store.getFreeRegions(), is(1));
+
+        // The region taken over, the deleted Campsite's calendar no longer writes to it
+        AvailabilityCalendar calendar = this.load(campsiteId, 2, 3);
+        deletedCalendar.claim(today, today.plusDays(3));
+
+        assertThat(store.getFreeRegions(), is(0));
+        assertThat(calendar.getMinSites(today, today.plusDays(3)), is(2));
+        assertThat(deletedCalendar.getMinSites(today, today.plusDays(3)), is(1));
+    }
+
+    @Test
+    public void shouldCompareAndSetConcurrently() {
+        int threads = 8;
+        int attempts = 500;
+        AvailabilityCalendar calendar = this.load(campsiteId, 1000, DAYS);
+        AtomicInteger claimed = new AtomicInteger();
+
+        // More claims than sites, along with as many claims given back right away
+        CompletableFuture.allOf(IntStream.range(0, threads).mapToObj(thread -> CompletableFuture.runAsync(() -> {
+            for (int attempt = 0; attempt < attempts; attempt++) {
+                if (calendar.tryClaim(today, today.plusDays(DAYS))) {
+                    claimed.incrementAndGet();
+                }
+                if (calendar.tryClaim(today.plusDays(1), today.plusDays(2))) {
+                    calendar.release(today.plusDays(1), today.plusDays(2));
+                }
+            }
+        })).toArray(CompletableFuture[]::new)).join();
+
+        // Every night lost exactly the sites claimed, however the claims raced
+        assertThat(calendar.getOpenSites(today), is((long) (1000 - claimed.get()) * DAYS));
+        assertThat(calendar.getMinSites(today, today.plusDays(DAYS)), is(1000 - claimed.get()));
+        assertThat(claimed.get(), greaterThan(0));
+    }
+
+    private AvailabilityCalendar load(UUID campsiteId, int sites, int nights) {
+        return this.load(campsiteId, today, sites, nights);
+    }
+
+    private AvailabilityCalendar load(UUID campsiteId, LocalDate from, int sites, int nights) {
+        List<AvailabilityDto> availabilities = new ArrayList<>();
+        for (int night = 0; night < nights; night++) {
+            availabilities.add(AvailabilityDto.builder().date(from.plusDays(night)).sites(sites).build());
+        }
+
+        return AvailabilityCalendar.of(availabilities, store, campsiteId, 0);
+    }
+}
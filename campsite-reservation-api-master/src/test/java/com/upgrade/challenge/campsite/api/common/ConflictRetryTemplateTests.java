@@ -0,0 +1,136 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Conflicts are thrown by the operations themselves, and the backoff intervals are recorded instead of waited.
+ */
+public class ConflictRetryTemplateTests {
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_INTERVAL = 50;
+    private static final double MULTIPLIER = 2;
+    private static final long MAX_INTERVAL = 150;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Long> intervals = new ArrayList<>();
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private ConflictRetryTemplate conflictRetryTemplate;
+
+    @Before
+    public void init() {
+        conflictRetryTemplate = new ConflictRetryTemplate(MAX_ATTEMPTS, INITIAL_INTERVAL, MULTIPLIER, MAX_INTERVAL, meterRegistry);
+        conflictRetryTemplate.setSleeper(intervals::add);
+    }
+
+    @Test
+    public void shouldRetryVersionConflicts() {
+        String result = conflictRetryTemplate.execute("makeReservation",
+                this.failing(2, () -> new ObjectOptimisticLockingFailureException("Reservation", "id")));
+
+        assertThat(result, is("done"));
+        assertThat(attempts.get(), is(3));
+        assertThat(meterRegistry.get("campsite.retries").tag("operation", "makeReservation").counter().count(), is(2.0));
+        assertThat(meterRegistry.find("campsite.retries.exhausted").counter(), nullValue());
+    }
+
+    @Test
+    public void shouldRetryLockTimeouts() {
+        assertThat(conflictRetryTemplate.execute("modifyReservation", this.failing(1, () -> new CannotAcquireLockException("Timeout"))), is("done"));
+        assertThat(conflictRetryTemplate.execute("modifyReservation", this.failing(1, LockTimeoutException::new)), is("done"));
+
+        assertThat(attempts.get(), is(4));
+        assertThat(meterRegistry.get("campsite.retries").tag("operation", "modifyReservation").counter().count(), is(2.0));
+    }
+
+    @Test
+    public void shouldRetryConflictsCausingOtherFailures() {
+        String result = conflictRetryTemplate.execute("cancelReservation",
+                this.failing(1, () -> new IllegalStateException("Flush failed", new OptimisticLockException())));
+
+        assertThat(result, is("done"));
+        assertThat(attempts.get(), is(2));
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyWithJitter() {
+        try {
+            conflictRetryTemplate.execute("makeReservation", this.failing(MAX_ATTEMPTS, () -> new ObjectOptimisticLockingFailureException("Reservation", "id")));
+            fail();
+        }
+        catch (ObjectOptimisticLockingFailureException exception) {
+            // Given up
+        }
+
+        // One interval between attempts, each drawn between the exponential one (capped) and twice it
+        assertThat(intervals.size(), is(MAX_ATTEMPTS - 1));
+        long interval = INITIAL_INTERVAL;
+        for (long drawnInterval : intervals) {
+            assertThat(drawnInterval, allOf(greaterThanOrEqualTo(interval), lessThanOrEqualTo((long) (interval * MULTIPLIER))));
+            interval = Math.min((long) (interval * MULTIPLIER), MAX_INTERVAL);
+        }
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() {
+        try {
+            conflictRetryTemplate.execute("makeReservation", this.failing(Integer.MAX_VALUE, () -> new CannotAcquireLockException("Deadlock")));
+            fail();
+        }
+        catch (CannotAcquireLockException exception) {
+            assertThat(exception.getMessage(), is("Deadlock"));
+        }
+
+        assertThat(attempts.get(), is(MAX_ATTEMPTS));
+        assertThat(meterRegistry.get("campsite.retries").tag("operation", "makeReservation").counter().count(), is((double) MAX_ATTEMPTS - 1));
+        assertThat(meterRegistry.get("campsite.retries.exhausted").tag("operation", "makeReservation").counter().count(), is(1.0));
+    }
+
+    @Test
+    public void shouldNotRetryOtherFailures() {
+        try {
+            conflictRetryTemplate.execute("makeReservation", this.failing(1, () -> new IllegalStateException("Not available")));
+            fail();
+        }
+        catch (IllegalStateException exception) {
+            assertThat(exception.getMessage(), is("Not available"));
+        }
+
+        assertThat(attempts.get(), is(1));
+        assertThat(intervals, empty());
+        assertThat(meterRegistry.find("campsite.retries").counter(), nullValue());
+        assertThat(meterRegistry.find("campsite.retries.exhausted").counter(), nullValue());
+    }
+
+    /**
+     * Returns an operation failing with the given exception on its first attempts, and succeeding afterwards.
+     */
+    private Supplier<String> failing(int failedAttempts, Supplier<RuntimeException> exception) {
+        AtomicInteger operationAttempts = new AtomicInteger();
+        return () -> {
+            attempts.incrementAndGet();
+            if (operationAttempts.incrementAndGet() <= failedAttempts) {
+                throw exception.get();
+            }
+
+            return "done";
+        };
+    }
+}
@@ -0,0 +1,136 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The wheel is advanced by hand (tick: 10 ms, 4 buckets per wheel), so that the first wheel covers 4 ticks, the second
+ * 16, the third 64 and the last one 256.
+ */
+public class TimingWheelTests {
+
+    private static final long TICK = 10;
+    private static final int WHEEL_SIZE = 4;
+
+    @Test
+    public void shouldCascadeThroughEveryWheel() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        timingWheel.add("first", 3 * TICK);
+        timingWheel.add("second", 13 * TICK);
+        timingWheel.add("third", 50 * TICK);
+        timingWheel.add("fourth", 200 * TICK);
+        // Rounded up to the tick
+        timingWheel.add("rounded", 62 * TICK + 1);
+
+        Map<String, Long> expiries = this.advance(timingWheel, 0, 300);
+
+        assertThat(expiries, allOf(hasEntry("first", 3L), hasEntry("second", 13L), hasEntry("third", 50L),
+                hasEntry("fourth", 200L), hasEntry("rounded", 63L)));
+        assertThat(timingWheel.size(), is(0));
+    }
+
+    @Test
+    public void shouldExpireBeyondTheLastWheel() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        timingWheel.add("far", 1000 * TICK);
+        timingWheel.add("farther", 5000 * TICK + 5);
+
+        Map<String, Long> expiries = this.advance(timingWheel, 0, 6000);
+
+        assertThat(expiries, allOf(hasEntry("far", 1000L), hasEntry("farther", 5001L)));
+    }
+
+    @Test
+    public void shouldExpirePastDueOnNextAdvance() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 100 * TICK);
+        timingWheel.add("past", 50 * TICK);
+        timingWheel.add("now", 100 * TICK);
+
+        assertThat(timingWheel.size(), is(2));
+        assertThat(timingWheel.advance(100 * TICK), containsInAnyOrder("past", "now"));
+        assertThat(timingWheel.advance(101 * TICK), is(empty()));
+        assertThat(timingWheel.size(), is(0));
+    }
+
+    @Test
+    public void shouldExpireEveryTickPassedAtOnce() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        timingWheel.add("first", 3 * TICK);
+        timingWheel.add("second", 70 * TICK);
+        timingWheel.add("third", 700 * TICK);
+
+        assertThat(timingWheel.advance(100 * TICK), containsInAnyOrder("first", "second"));
+        assertThat(timingWheel.advance(1000 * TICK), contains("third"));
+    }
+
+    @Test
+    public void shouldNotExpireCancelledItems() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        timingWheel.add("cancelled", 3 * TICK);
+        timingWheel.add("cascaded", 200 * TICK);
+        timingWheel.add("kept", 200 * TICK);
+
+        assertThat(timingWheel.cancel("cancelled"), is(true));
+        assertThat(timingWheel.size(), is(2));
+
+        // Cancelled once moved down from the last wheel
+        assertThat(timingWheel.advance(192 * TICK), is(empty()));
+        assertThat(timingWheel.cancel("cascaded"), is(true));
+
+        assertThat(timingWheel.advance(300 * TICK), contains("kept"));
+        assertThat(timingWheel.cancel("cancelled"), is(false));
+        assertThat(timingWheel.cancel("kept"), is(false));
+        assertThat(timingWheel.size(), is(0));
+    }
+
+    @Test
+    public void shouldScheduleItemsOnce() {
+        TimingWheel<String> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        timingWheel.add("rescheduled", 3 * TICK);
+        timingWheel.add("rescheduled", 20 * TICK);
+        timingWheel.add("scheduled", 30 * TICK);
+        timingWheel.add("scheduled", 30 * TICK);
+
+        assertThat(timingWheel.size(), is(2));
+        Map<String, Long> expiries = this.advance(timingWheel, 0, 100);
+
+        assertThat(expiries.size(), is(2));
+        assertThat(expiries, allOf(hasEntry("rescheduled", 20L), hasEntry("scheduled", 30L)));
+    }
+
+    @Test
+    public void shouldExpireRandomDeadlinesOnTime() {
+        Random random = new Random(42);
+        TimingWheel<Integer> timingWheel = new TimingWheel<>(TICK, WHEEL_SIZE, 0);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        for (int item = 0; item < 1000; item++) {
+            long deadlineMillis = 1 + random.nextInt(2000 * (int) TICK);
+            timingWheel.add(item, deadlineMillis);
+            deadlines.put(item, (deadlineMillis + TICK - 1) / TICK);
+        }
+
+        assertThat(this.advance(timingWheel, 0, 2000), is(deadlines));
+    }
+
+    /**
+     * Advances the wheel tick by tick, up to the given one.
+     *
+     * @return Tick each item was handed over on.
+     */
+    private <T> Map<T, Long> advance(TimingWheel<T> timingWheel, long fromTick, long toTick) {
+        Map<T, Long> expiries = new HashMap<>();
+        for (long tick = fromTick + 1; tick <= toTick; tick++) {
+            for (T item : timingWheel.advance(tick * TICK)) {
+                assertThat("Handed over twice: " + item, expiries.put(item, tick), nullValue());
+            }
+        }
+
+        return expiries;
+    }
+}
@@ -0,0 +1,65 @@
+package com.upgrade.challenge.campsite.api.common;
+
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class VirtualThreadsConfigurationTests {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withUserConfiguration(Dependencies.class, VirtualThreadsConfiguration.class);
+
+    @Test
+    public void shouldBeDisabledByDefault() {
+        contextRunner.run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(context).doesNotHaveBean(VirtualThreadsConfiguration.class);
+            assertThat(context).doesNotHaveBean("applicationTaskExecutor");
+        });
+    }
+
+    @Test
+    public void shouldBeDisabledExplicitly() {
+        contextRunner.withPropertyValues("api.campsite.virtual-threads.enabled=false").run(context -> {
+            assertThat(context).hasNotFailed();
+            assertThat(context).doesNotHaveBean(VirtualThreadsConfiguration.class);
+        });
+    }
+
+    @Test
+    public void shouldRequireVirtualThreadsWhenEnabled() {
+        contextRunner.withPropertyValues("api.campsite.virtual-threads.enabled=true").run(context -> {
+            if (VirtualThreads.isSupported()) {
+                assertThat(context).hasSingleBean(VirtualThreadsConfiguration.class);
+                assertThat(context).hasBean("applicationTaskExecutor");
+            }
+            else {
+                assertThat(context).hasFailed();
+                assertThat(context).getFailure().hasRootCauseInstanceOf(IllegalStateException.class);
+            }
+        });
+    }
+
+    /**
+     * Not annotated as a configuration, so that it is never picked up by the component scan of the applications
+     * started outside of the test context framework (see ReservationJournalReplayTests).
+     */
+    static class Dependencies {
+
+        @Bean
+        public ServerProperties serverProperties() {
+            return new ServerProperties();
+        }
+
+        @Bean
+        public DataSource dataSource() {
+            return mock(DataSource.class);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.upgrade.challenge.campsite.api.journal;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * The journal is written, closed and opened again on a temporary directory, the state it recovers being captured
+ * instead of replayed into the DB (see ReservationJournalReplayTests). Transactions are simulated by triggering their
+ * synchronizations by hand, and segments are synced right before they commit (the sync interval being longer than any
+ * test).
+ */
+public class ReservationJournalTests {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID campsiteId = UUID.randomUUID();
+    private final LocalDate tomorrow = LocalDate.now().plusDays(1);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private Path directory;
+    private TestJournal journal;
+
+    @Before
+    public void init() throws IOException {
+        directory = folder.newFolder().toPath();
+        journal = new TestJournal(directory, mock(JournalReplayer.class), meterRegistry);
+    }
+
+    @After
+    public void shutdown() throws InterruptedException {
+        journal.shutdown();
+    }
+
+    @Test
+    public void shouldRecoverRecordsWritten() throws IOException, InterruptedException {
+        this.commit(this.campsite(JournalRecord.Type.CAMPSITE_CREATED, "Campsite"));
+        this.commit(this.campsite(JournalRecord.Type.CAMPSITE_UPDATED, "Renamed Campsite"));
+        JournalRecord reservation = this.reservation(UUID.randomUUID(), 0);
+        this.commit(reservation);
+        this.commit(reservation.toBuilder().type(JournalRecord.Type.RESERVATION_MODIFIED).checkOut(tomorrow.plusDays(2)).build());
+        JournalRecord cancelledReservation = this.reservation(UUID.randomUUID(), 1);
+        this.commit(cancelledReservation);
+        this.commit(cancelledReservation.toBuilder().type(JournalRecord.Type.RESERVATION_CANCELLED).build());
+
+        JournalState state = this.reopen();
+
+        assertThat(state.getSequence(), is(6L));
+        assertThat(state.getCampsites().get(campsiteId).getName(), is("Renamed Campsite"));
+        assertThat(state.getCampsites().get(campsiteId).getCapacity(), is(5));
+        assertThat(state.getReservations().keySet(), contains(reservation.getId()));
+        assertThat(state.getReservations().get(reservation.getId()).getCheckOut(), is(tomorrow.plusDays(2)));
+    }
+
+    @Test
+    public void shouldTruncateAtCorruptedRecord() throws IOException, InterruptedException {
+        List<UUID> reservationIds = this.commitReservations(3);
+        journal.shutdown();
+
+        // Last byte of the last record flipped, as if not fully written before a crash
+        Path segment = this.getSegments().get(0);
+        this.corrupt(segment, this.getRecordEnds(segment).get(2) - 1);
+
+        assertThat(this.reopen().getReservations().keySet(), contains(reservationIds.get(0), reservationIds.get(1)));
+    }
+
+    @Test
+    public void shouldTruncateAtIncompleteRecord() throws IOException, InterruptedException {
+        List<UUID> reservationIds = this.commitReservations(3);
+        journal.shutdown();
+
+        // Cut within the last record
+        Path segment = this.getSegments().get(0);
+        List<Integer> recordEnds = this.getRecordEnds(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(recordEnds.get(2) - 10);
+        }
+
+        assertThat(this.reopen().getReservations().keySet(), contains(reservationIds.get(0), reservationIds.get(1)));
+    }
+
+    @Test
+    public void shouldSkipAbortedRecords() throws IOException, InterruptedException {
+        JournalRecord committedReservation = this.reservation(UUID.randomUUID(), 0);
+        this.commit(committedReservation);
+        this.complete(this.reservation(UUID.randomUUID(), 1), TransactionSynchronization.STATUS_ROLLED_BACK);
+        JournalRecord nextReservation = this.reservation(UUID.randomUUID(), 2);
+        this.commit(nextReservation);
+
+        assertThat(this.reopen().getReservations().keySet(), contains(committedReservation.getId(), nextReservation.getId()));
+    }
+
+    @Test
+    public void shouldRollSegments() throws IOException, InterruptedException {
+        List<UUID> reservationIds = this.commitReservations(100);
+
+        assertThat(this.getSegments().size(), greaterThan(2));
+        assertThat(new ArrayList<>(this.reopen().getReservations().keySet()), is(reservationIds));
+    }
+
+    @Test
+    public void shouldFoldSegmentsIntoSnapshot() throws IOException, InterruptedException {
+        List<UUID> reservationIds = this.commitReservations(100);
+        assertThat(this.getSegments().size(), greaterThan(2));
+
+        journal.snapshot();
+
+        // Only the segment started by the snapshot is left
+        assertThat(Files.exists(directory.resolve("snapshot.bin")), is(true));
+        assertThat(this.getSegments().size(), is(1));
+
+        reservationIds.addAll(this.commitReservations(1));
+        JournalState state = this.reopen();
+
+        assertThat(new ArrayList<>(state.getReservations().keySet()), is(reservationIds));
+        assertThat(state.getSequence(), is(101L));
+    }
+
+    @Test
+    public void shouldNotFailCommittedTransactionsOnSyncFailure() throws IOException, InterruptedException {
+        JournalHealthIndicator healthIndicator = new JournalHealthIndicator(journal);
+        journal.failing = true;
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            journal.onRecord(this.campsite(JournalRecord.Type.CAMPSITE_CREATED, "Campsite"));
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+
+            journal.sync();
+            TransactionSynchronizationUtils.triggerAfterCommit();
+            TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(meterRegistry.get("campsite.journal.sync.failures").counter().count(), is(1.0));
+        assertThat(healthIndicator.health().getStatus(), is(Status.DOWN));
+
+        journal.failing = false;
+        this.commit(this.campsite(JournalRecord.Type.CAMPSITE_UPDATED, "Renamed Campsite"));
+
+        assertThat(healthIndicator.health().getStatus(), is(Status.UP));
+        assertThat(this.reopen().getCampsites().get(campsiteId).getName(), is("Renamed Campsite"));
+    }
+
+    private void commit(JournalRecord record) throws IOException {
+        this.complete(record, TransactionSynchronization.STATUS_COMMITTED);
+    }
+
+    /**
+     * Appends the given record from within a transaction completed with the given status, synced before committed.
+     */
+    private void complete(JournalRecord record, int status) throws IOException {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            journal.onRecord(record);
+            TransactionSynchronizationUtils.triggerBeforeCommit(false);
+            journal.sync();
+            if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                TransactionSynchronizationUtils.triggerAfterCommit();
+            }
+            TransactionSynchronizationUtils.triggerAfterCompletion(status);
+        }
+        finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private List<UUID> commitReservations(int count) throws IOException {
+        List<UUID> reservationIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            JournalRecord reservation = this.reservation(UUID.randomUUID(), i % 3);
+            this.commit(reservation);
+            reservationIds.add(reservation.getId());
+        }
+
+        return reservationIds;
+    }
+
+    /**
+     * Closes the journal and opens it again, as on restart.
+     *
+     * @return State recovered.
+     */
+    private JournalState reopen() throws IOException, InterruptedException {
+        journal.shutdown();
+
+        JournalReplayer journalReplayer = mock(JournalReplayer.class);
+        journal = new TestJournal(directory, journalReplayer, meterRegistry);
+        journal.replay();
+
+        ArgumentCaptor<JournalState> state = ArgumentCaptor.forClass(JournalState.class);
+        verify(journalReplayer).replay(state.capture());
+        return state.getValue();
+    }
+
+    /**
+     * Returns the offset right after each record of the given segment.
+     */
+    private List<Integer> getRecordEnds(Path segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+        List<Integer> recordEnds = new ArrayList<>();
+        for (int length = buffer.getInt(); length > 0; length = buffer.getInt()) {
+            buffer.position(buffer.position() + Integer.BYTES + length);
+            recordEnds.add(buffer.position());
+        }
+
+        return recordEnds;
+    }
+
+    private void corrupt(Path segment, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.put(0, (byte) ~buffer.get(0));
+            buffer.rewind();
+            channel.write(buffer, position);
+        }
+    }
+
+    private List<Path> getSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().startsWith("journal-")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private JournalRecord campsite(JournalRecord.Type type, String name) {
+        return JournalRecord.builder().type(type).id(campsiteId).campsiteId(campsiteId).name(name).capacity(5)
+                .timestamp(LocalDateTime.now()).build();
+    }
+
+    private JournalRecord reservation(UUID reservationId, int shift) {
+        return JournalRecord.builder().type(JournalRecord.Type.RESERVATION_CREATED).id(reservationId).campsiteId(campsiteId).name("John Doe").email("john.doe@test.com")
+                .checkIn(tomorrow.plusDays(shift)).checkOut(tomorrow.plusDays(shift + 1)).timestamp(LocalDateTime.now()).build();
+    }
+
+    /**
+     * Synced by hand, and failing to sync on demand.
+     */
+    private static class TestJournal extends ReservationJournal {
+
+        private volatile boolean failing;
+
+        private TestJournal(Path directory, JournalReplayer journalReplayer, MeterRegistry meterRegistry) throws IOException {
+            super(directory.toString(), SEGMENT_SIZE, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2, journalReplayer, meterRegistry);
+        }
+
+        @Override
+        void force(MappedByteBuffer segment) {
+            if (failing) {
+                throw new UncheckedIOException(new IOException("Disk full"));
+            }
+            super.force(segment);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.upgrade.challenge.campsite.api.reservation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Changes are delivered right after the reservations table is read by the load, as if committed meanwhile.
+ */
+public class ReservationIndexTests {
+
+    private final UUID campsiteId = UUID.randomUUID();
+    private final LocalDate tomorrow = LocalDate.now().plusDays(1);
+    private final ReservationRepository reservationRepository = mock(ReservationRepository.class);
+
+    private ReservationIndex reservationIndex;
+
+    @Before
+    public void init() {
+        reservationIndex = new ReservationIndex(reservationRepository);
+    }
+
+    @Test
+    public void shouldApplyChangesCommittedWhileLoading() {
+        UUID cancelledId = UUID.randomUUID();
+        UUID modifiedId = UUID.randomUUID();
+        UUID createdId = UUID.randomUUID();
+
+        when(reservationRepository.findAllPeriods()).thenAnswer(invocation -> {
+            reservationIndex.onReservationEvent(this.event(ReservationEvent.Type.CANCELLED, cancelledId, tomorrow, null));
+            reservationIndex.onReservationEvent(this.event(ReservationEvent.Type.MODIFIED, modifiedId, tomorrow.plusDays(2), tomorrow));
+            reservationIndex.onReservationEvent(this.event(ReservationEvent.Type.CREATED, createdId, tomorrow.plusDays(4), null));
+
+            // Read before the changes above
+            return Arrays.asList(this.period(cancelledId, tomorrow), this.period(modifiedId, tomorrow));
+        });
+
+        reservationIndex.load();
+
+        ReservationIntervalTree tree = reservationIndex.get(campsiteId);
+        assertThat(tree.findOverlapping(tomorrow, tomorrow.plusDays(2)), is(empty()));
+        assertThat(tree.findOverlapping(tomorrow, tomorrow.plusDays(10)), contains(modifiedId, createdId));
+        assertThat(tree.size(), is(2));
+    }
+
+    @Test
+    public void shouldApplyChangesOnceLoaded() {
+        List<ReservationPeriod> periods = Arrays.asList(this.period(UUID.randomUUID(), tomorrow));
+        when(reservationRepository.findAllPeriods()).thenReturn(periods);
+        reservationIndex.load();
+
+        UUID createdId = UUID.randomUUID();
+        reservationIndex.onReservationEvent(this.event(ReservationEvent.Type.CREATED, createdId, tomorrow.plusDays(1), null));
+
+        assertThat(reservationIndex.get(campsiteId).findOverlapping(tomorrow.plusDays(1), tomorrow.plusDays(2)), contains(createdId));
+    }
+
+    private ReservationEvent event(ReservationEvent.Type type, UUID reservationId, LocalDate checkIn, LocalDate previousCheckIn) {
+        return ReservationEvent.builder().type(type).campsiteId(campsiteId).reservationId(reservationId)
+                .checkIn(checkIn).checkOut(checkIn.plusDays(1))
+                .previousCheckIn(previousCheckIn).previousCheckOut(previousCheckIn != null ? previousCheckIn.plusDays(1) : null)
+                .build();
+    }
+
+    private ReservationPeriod period(UUID id, LocalDate checkIn) {
+        ReservationPeriod period = mock(ReservationPeriod.class);
+        when(period.getId()).thenReturn(id);
+        when(period.getCampsiteId()).thenReturn(campsiteId);
+        when(period.getCheckIn()).thenReturn(checkIn);
+        when(period.getCheckOut()).thenReturn(checkIn.plusDays(1));
+        return period;
+    }
+}